@@ -67,6 +67,24 @@ tasks.withType<JavaCompile> {
     options.encoding = "UTF-8"
 }
 
+// Benchmarks live in src/bench, next to the classes they measure but out of the application jar
+sourceSets {
+    create("bench") {
+        compileClasspath += sourceSets["main"].output + sourceSets["main"].compileClasspath
+        runtimeClasspath += output + compileClasspath + sourceSets["main"].runtimeClasspath
+    }
+}
+
+// Old per-listener pattern scanning against LogPatternEngine, optionally on a real log:
+// gradlew benchmarkPatterns -PbenchmarkArgs="path/to/latest.log"
+tasks.register<JavaExec>("benchmarkPatterns") {
+    group = "verification"
+    description = "Compares the console's old pattern scanning with LogPatternEngine"
+    classpath = sourceSets["bench"].runtimeClasspath
+    mainClass.set("org.bsdevelopment.servermaster.log.PatternBenchmark")
+    args = (findProperty("benchmarkArgs") as String?)?.split(" ")?.filter { it.isNotBlank() } ?: emptyList()
+}
+
 tasks.named<ShadowJar>("shadowJar") {
     archiveBaseName.set("ServerMaster")
     archiveClassifier.set("")
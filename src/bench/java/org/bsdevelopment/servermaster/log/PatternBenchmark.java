@@ -0,0 +1,279 @@
+package org.bsdevelopment.servermaster.log;
+
+import org.bsdevelopment.servermaster.instance.server.thread.ServerOutputListener;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the per-listener scanning the console and the game rule applier did before {@link LogPatternEngine}
+ * (a chain of {@code contains} calls, a timestamp regex and six anchored regexes per line) with the engine
+ * matching the same rules in one pass. Both sides classify every line, the results are checked to be the
+ * same before anything is timed.
+ * <pre>
+ * gradlew benchmarkPatterns [-PbenchmarkArgs="path/to/latest.log"]
+ * java -cp ... org.bsdevelopment.servermaster.log.PatternBenchmark [log file] [lines] [rounds]
+ * </pre>
+ * Without a log file, a mix of typical server lines is generated.
+ */
+public final class PatternBenchmark {
+    private static final int DEFAULT_LINES = 500_000;
+    private static final int DEFAULT_ROUNDS = 10;
+    private static final int WARMUP_ROUNDS = 5;
+
+    private static final String[] STYLES = {"log-success", "log-paused", "log-fatal", "log-error", "log-warn", "log-debug",
+            "log-trace", "log-info", "log-default"};
+
+    // The console's rules, as LogViewer subscribes them
+    private static final PatternRules STYLE_RULES = new PatternRules();
+    private static final int DONE = STYLE_RULES.literal(" INFO]: Done (");
+    private static final int PAUSED = STYLE_RULES.literal("Server empty for 60 seconds, pausing");
+    private static final int FATAL = STYLE_RULES.literal("FATAL");
+    private static final int ERROR = STYLE_RULES.literal("ERROR");
+    private static final int STDERR = STYLE_RULES.literal("[STDERR]:");
+    private static final int WARN = STYLE_RULES.literal("WARN");
+    private static final int DEBUG = STYLE_RULES.literal("DEBUG");
+    private static final int TRACE = STYLE_RULES.literal("TRACE");
+    private static final int INFO = STYLE_RULES.literal("INFO");
+
+    // The game rule applier's rules, as GameRuleFileApplier subscribes them
+    private static final PatternRules APPLIER_RULES = new PatternRules();
+    private static final int SERVER_READY = APPLIER_RULES.pattern(Pattern.compile("\\bDone \\(.*\\)!"), "Done (");
+    private static final int UNKNOWN_GAMERULE_1 = APPLIER_RULES.literalIgnoreCase("Unknown game rule");
+    private static final int UNKNOWN_GAMERULE_2 = APPLIER_RULES.literalIgnoreCase("No game rule called");
+    private static final int UNKNOWN_GAMERULE_3 = APPLIER_RULES.literalIgnoreCase("Incorrect argument for command");
+    private static final int UNKNOWN_GAMERULE_4 = APPLIER_RULES.pattern(
+            Pattern.compile("gamerule (.*) (.*)<--\\[HERE\\]", Pattern.CASE_INSENSITIVE), "<--[HERE]");
+    private static final int INVALID_VALUE = APPLIER_RULES.pattern(
+            Pattern.compile("(Invalid|Expected).*(true|false|boolean|integer|int)", Pattern.CASE_INSENSITIVE), "Invalid", "Expected");
+    private static final int INCORRECT_ARGUMENT = APPLIER_RULES.literal(" INFO]: Incorrect argument for command");
+
+    // The chain the engine replaced
+    private static final Pattern OLD_TIMESTAMP = Pattern.compile("\\[\\d{2}:\\d{2}:\\d{2}\\]");
+    private static final Pattern OLD_SERVER_READY = Pattern.compile(".*\\bDone \\(.*\\)!.*");
+    private static final Pattern OLD_UNKNOWN_GAMERULE_1 = Pattern.compile(".*Unknown game rule.*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern OLD_UNKNOWN_GAMERULE_2 = Pattern.compile(".*No game rule called.*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern OLD_UNKNOWN_GAMERULE_3 = Pattern.compile(".*Incorrect argument for command.*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern OLD_UNKNOWN_GAMERULE_4 = Pattern.compile(".*gamerule (.*) (.*)<--\\[HERE\\].*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern OLD_INVALID_VALUE = Pattern.compile(".*(Invalid|Expected).*(true|false|boolean|integer|int).*",
+            Pattern.CASE_INSENSITIVE);
+
+    // Per line: the style index, the applier's findings as bits, the number of timestamps
+    private record Result(int[] styles, int[] applier, int[] timestamps) {
+        private Result(int lines) {
+            this(new int[lines], new int[lines], new int[lines]);
+        }
+    }
+
+    private PatternBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path file = args.length > 0 && !args[0].isBlank() ? Path.of(args[0]) : null;
+        int lineCount = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_LINES;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_ROUNDS;
+
+        String[] lines = file == null ? generate(lineCount) : read(file, lineCount);
+        System.out.printf(Locale.ROOT, "%,d lines from %s, %d rounds%n", lines.length, file == null ? "the generator" : file, rounds);
+
+        var old = new Result(lines.length);
+        var engine = new Result(lines.length);
+        runOld(lines, old);
+        runEngine(lines, engine);
+        verify(lines, old, engine);
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            runOld(lines, old);
+            runEngine(lines, engine);
+        }
+
+        long oldNanos = Long.MAX_VALUE;
+        long engineNanos = Long.MAX_VALUE;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            runOld(lines, old);
+            oldNanos = Math.min(oldNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            runEngine(lines, engine);
+            engineNanos = Math.min(engineNanos, System.nanoTime() - start);
+        }
+
+        System.out.printf(Locale.ROOT, "contains + regex chain: %8.1f ns/line%n", (double) oldNanos / lines.length);
+        System.out.printf(Locale.ROOT, "LogPatternEngine:       %8.1f ns/line (%.1fx)%n", (double) engineNanos / lines.length,
+                (double) oldNanos / engineNanos);
+    }
+
+    /** Classifies the lines the way the console and the applier did before the engine, each on its own. */
+    private static void runOld(String[] lines, Result result) {
+        int style = STYLES.length - 1;
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i];
+
+            // The applier, which saw every line first
+            int applier = 0;
+            if (line.contains(" INFO]: Incorrect argument for command") || OLD_UNKNOWN_GAMERULE_4.matcher(line).matches()) applier |= 1;
+            if (OLD_SERVER_READY.matcher(line).matches()) applier |= 2;
+            if (OLD_UNKNOWN_GAMERULE_1.matcher(line).matches() || OLD_UNKNOWN_GAMERULE_2.matcher(line).matches()
+                    || OLD_UNKNOWN_GAMERULE_3.matcher(line).matches()) applier |= 4;
+            if (OLD_INVALID_VALUE.matcher(line).matches()) applier |= 8;
+            result.applier[i] = applier;
+
+            // The console, for the lines the applier forwarded
+            if ((applier & 1) == 0) {
+                style = oldStyle(line, style);
+                int timestamps = 0;
+                var matcher = OLD_TIMESTAMP.matcher(line);
+                while (matcher.find()) timestamps++;
+                result.timestamps[i] = timestamps;
+            } else {
+                result.timestamps[i] = 0;
+            }
+            result.styles[i] = style;
+        }
+    }
+
+    private static int oldStyle(String line, int previous) {
+        if (line.contains(" INFO]: Done (")) return 0;
+        if (line.contains("Server empty for 60 seconds, pausing")) return 1;
+        if (line.contains("FATAL")) return 2;
+        if (line.contains("ERROR") || line.contains("[STDERR]:")) return 3;
+        if (line.contains("WARN")) return 4;
+        if (line.contains("DEBUG")) return 5;
+        if (line.contains("TRACE")) return 6;
+        if (line.contains("INFO")) return 7;
+        return previous;
+    }
+
+    /** Classifies the lines with one engine and both subscribers, as a server start wires them up. */
+    private static void runEngine(String[] lines, Result result) {
+        var engine = new LogPatternEngine();
+        int[] index = {0};
+        int[] style = {STYLES.length - 1};
+
+        engine.subscribe(APPLIER_RULES, 100, true, (server, stream, line, matches) -> {
+            int applier = 0;
+            if (matches.has(INCORRECT_ARGUMENT) || matches.has(UNKNOWN_GAMERULE_4)) applier |= 1;
+            if (matches.has(SERVER_READY)) applier |= 2;
+            if (matches.has(UNKNOWN_GAMERULE_1) || matches.has(UNKNOWN_GAMERULE_2) || matches.has(UNKNOWN_GAMERULE_3)) applier |= 4;
+            if (matches.has(INVALID_VALUE)) applier |= 8;
+            result.applier[index[0]] = applier;
+
+            // Consumed, the console never sees it
+            if ((applier & 1) == 0) return false;
+            result.timestamps[index[0]] = 0;
+            result.styles[index[0]] = style[0];
+            return true;
+        });
+        engine.subscribe(STYLE_RULES, Integer.MIN_VALUE, true, (server, stream, line, matches) -> {
+            style[0] = engineStyle(matches, style[0]);
+            result.styles[index[0]] = style[0];
+            result.timestamps[index[0]] = countTimestamps(line);
+            return false;
+        });
+
+        for (; index[0] < lines.length; index[0]++) {
+            engine.dispatch(null, ServerOutputListener.Stream.STDOUT, lines[index[0]]);
+        }
+    }
+
+    private static int engineStyle(MatchSet matches, int previous) {
+        if (matches.has(DONE)) return 0;
+        if (matches.has(PAUSED)) return 1;
+        if (matches.has(FATAL)) return 2;
+        if (matches.has(ERROR) || matches.has(STDERR)) return 3;
+        if (matches.has(WARN)) return 4;
+        if (matches.has(DEBUG)) return 5;
+        if (matches.has(TRACE)) return 6;
+        if (matches.has(INFO)) return 7;
+        return previous;
+    }
+
+    /** Counts "[HH:MM:SS]" like the console's direct check does. */
+    private static int countTimestamps(CharSequence line) {
+        int count = 0;
+        for (int i = 0; i + 10 <= line.length(); i++) {
+            if (line.charAt(i) != '[' || line.charAt(i + 3) != ':' || line.charAt(i + 6) != ':' || line.charAt(i + 9) != ']') continue;
+            if (!digits(line, i + 1) || !digits(line, i + 4) || !digits(line, i + 7)) continue;
+
+            count++;
+            i += 9;
+        }
+        return count;
+    }
+
+    private static boolean digits(CharSequence line, int at) {
+        return isDigit(line.charAt(at)) && isDigit(line.charAt(at + 1));
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static void verify(String[] lines, Result old, Result engine) {
+        for (int i = 0; i < lines.length; i++) {
+            if (old.styles[i] != engine.styles[i] || old.applier[i] != engine.applier[i] || old.timestamps[i] != engine.timestamps[i]) {
+                throw new IllegalStateException(String.format(Locale.ROOT,
+                        "Line %d differs: style %s/%s, applier %d/%d, timestamps %d/%d: %s", i,
+                        STYLES[old.styles[i]], STYLES[engine.styles[i]], old.applier[i], engine.applier[i],
+                        old.timestamps[i], engine.timestamps[i], lines[i]));
+            }
+        }
+        System.out.println("Both classify every line the same");
+    }
+
+    private static String[] read(Path file, int limit) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (var reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while (lines.size() < limit && (line = reader.readLine()) != null) lines.add(line);
+        }
+        return lines.toArray(String[]::new);
+    }
+
+    private static String[] generate(int count) {
+        String[] templates = {
+                "[%s INFO]: Preparing spawn area: %d%%",
+                "[%s INFO]: Player%d joined the game",
+                "[%s INFO]: <Player%d> hello there, anyone up for the nether?",
+                "[%s WARN]: Can't keep up! Is the server overloaded? Running %dms or 40 ticks behind",
+                "[%s ERROR]: Could not pass event PlayerMoveEvent to Plugin v%d",
+                "[%s INFO]: [STDERR]: java.lang.IllegalStateException: tick %d",
+                "\tat org.bukkit.craftbukkit.v1_20_R3.CraftServer.dispatchCommand(CraftServer.java:%d)",
+                "[%s INFO]: Done (%d.123s)! For help, type \"help\"",
+                "[%s INFO]: Server empty for 60 seconds, pausing %d",
+                "[%s INFO]: Incorrect argument for command %d",
+                "[%s INFO]: gamerule keepInventory maybe<--[HERE] %d",
+                "[%s INFO]: Invalid boolean, expected 'true' or 'false' but found '%d'",
+                "[%s DEBUG]: Chunk %d saved",
+                "[%s INFO]: Gamerule doDaylightCycle is now set to: %d",
+        };
+        // Mostly ordinary INFO lines, like a real log
+        int[] weights = {20, 6, 20, 6, 3, 2, 8, 1, 1, 1, 1, 1, 3, 1};
+
+        var random = new Random(42);
+        int total = 0;
+        for (int weight : weights) total += weight;
+
+        String[] lines = new String[count];
+        for (int i = 0; i < count; i++) {
+            int pick = random.nextInt(total);
+            int template = 0;
+            while (pick >= weights[template]) pick -= weights[template++];
+
+            int second = i % 86_400;
+            String time = String.format(Locale.ROOT, "%02d:%02d:%02d", second / 3600, second / 60 % 60, second % 60);
+            String format = templates[template];
+            lines[i] = format.startsWith("[%s") ? String.format(Locale.ROOT, format, time, random.nextInt(10_000))
+                    : String.format(Locale.ROOT, format, random.nextInt(10_000));
+        }
+        return lines;
+    }
+}
@@ -1,29 +1,174 @@
 package org.bsdevelopment.servermaster;
 
+import javafx.animation.Animation;
+import javafx.animation.AnimationTimer;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.scene.control.ContextMenu;
 import javafx.scene.control.MenuItem;
 import javafx.scene.input.Clipboard;
 import javafx.scene.input.ClipboardContent;
+import javafx.scene.input.MouseButton;
+import javafx.collections.ObservableListBase;
 import javafx.scene.layout.AnchorPane;
+import javafx.scene.text.Text;
+import javafx.util.Duration;
+import lombok.Getter;
+import org.bsdevelopment.servermaster.instance.server.thread.ServerOutputListener;
+import org.bsdevelopment.servermaster.log.AnsiParser;
+import org.bsdevelopment.servermaster.log.CompressedHistory;
+import org.bsdevelopment.servermaster.log.ExceptionAggregator;
+import org.bsdevelopment.servermaster.log.FloodControl;
+import org.bsdevelopment.servermaster.log.LogPatternEngine;
+import org.bsdevelopment.servermaster.log.LogStore;
+import org.bsdevelopment.servermaster.log.MappedLogFile;
+import org.bsdevelopment.servermaster.log.MatchSet;
+import org.bsdevelopment.servermaster.log.PatternRules;
+import org.bsdevelopment.servermaster.log.SessionLog;
+import org.bsdevelopment.servermaster.log.SessionLogReader;
 import org.bsdevelopment.servermaster.utils.AnchorUtil;
+import org.fxmisc.flowless.Cell;
+import org.fxmisc.flowless.VirtualFlow;
 import org.fxmisc.flowless.VirtualizedScrollPane;
 import org.fxmisc.richtext.CodeArea;
+import org.fxmisc.richtext.model.ReadOnlyStyledDocumentBuilder;
+import org.fxmisc.richtext.model.StyledSegment;
+import org.fxmisc.richtext.util.UndoUtils;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntFunction;
+import java.util.logging.Level;
 
 public class LogViewer extends AnchorPane {
 
     private static volatile LogViewer ACTIVE_INSTANCE;
-    private static final Pattern TIMESTAMP = Pattern.compile("\\[\\d{2}:\\d{2}:\\d{2}\\]");
+    // "[HH:MM:SS]"
+    private static final int TIMESTAMP_LENGTH = 10;
+    private static final int[] TIMESTAMP_DIGITS = {1, 2, 4, 5, 7, 8};
+    private static final int MAX_LINES_PER_FRAME = 5000;
+    // Pulses further apart than this dropped a frame at 60 fps
+    private static final long FRAME_BUDGET_NANOS = 1_000_000_000L / 60;
+    // How often a session being read shows the lines read so far
+    private static final long SESSION_PUBLISH_NANOS = 100_000_000L;
+    public static final int DEFAULT_MAX_LINES = 100_000;
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    public static final long DEFAULT_HISTORY_BYTES = 32L * 1024 * 1024;
+    public static final int DEFAULT_FLOOD_LINES_PER_SECOND = 500;
+    // Rough per-paragraph cost of the RichTextFX model (paragraph, segment list, style list)
+    private static final int PARAGRAPH_OVERHEAD_BYTES = 160;
+    // The memory limit is split between the document and the store (its text, search index and names)
+    private static final double DOCUMENT_SHARE = 0.5;
+    // A stored character costs its two bytes plus about one four byte trigram posting
+    private static final int STORE_BYTES_PER_CHAR = Character.BYTES + Integer.BYTES;
+    /** Runs after every other subscriber, so lines they consume never reach the console. */
+    public static final int CONSOLE_PRIORITY = Integer.MIN_VALUE;
+
+    private static final PatternRules STYLE_RULES = new PatternRules();
+    private static final int DONE = STYLE_RULES.literal(" INFO]: Done (");
+    private static final int PAUSED = STYLE_RULES.literal("Server empty for 60 seconds, pausing");
+    private static final int FATAL = STYLE_RULES.literal("FATAL");
+    private static final int ERROR = STYLE_RULES.literal("ERROR");
+    private static final int STDERR = STYLE_RULES.literal("[STDERR]:");
+    private static final int WARN = STYLE_RULES.literal("WARN");
+    private static final int DEBUG = STYLE_RULES.literal("DEBUG");
+    private static final int TRACE = STYLE_RULES.literal("TRACE");
+    private static final int INFO = STYLE_RULES.literal("INFO");
 
     private String lastStyle = "log-default";
     private final CodeArea codeArea = new CodeArea();
+    private final Map<String, Collection<String>> styleCache = new HashMap<>();
+    // Level or timestamp class combined with an ANSI style, per packed ANSI style
+    private final Map<Integer, Map<String, Collection<String>>> ansiStyleCache = new HashMap<>();
+    // Escapes in lines appended directly, guarded by itself
+    private final AnsiParser localAnsi = new AnsiParser();
+
+    // Classifies lines appended directly (BuildTools, loaded files), only used on the FX thread
+    private final LogPatternEngine localClassifier = new LogPatternEngine();
+    private String classified;
+
+    // A file opened with loadFile or the history, shown instead of the console until it is closed
+    private final VirtualizedScrollPane<CodeArea> consolePane;
+    private MappedLogFile openFile;
+    // Cleared to stop reading the session opened with loadSession
+    private AtomicBoolean sessionReading;
+    private VirtualizedScrollPane<?> filePane;
+
+    // Structured copy of everything shown, for filters and statistics
+    @Getter private final LogStore store = new LogStore(DEFAULT_MAX_LINES, storeChars(DEFAULT_MAX_BYTES));
+    // Lines evicted from the store, compressed
+    @Getter private final CompressedHistory history = new CompressedHistory(DEFAULT_HISTORY_BYTES);
+    private final Object appendLock = new Object();
+    // Exceptions seen in server output, counted per fingerprint
+    @Getter private final ExceptionAggregator exceptions = new ExceptionAggregator();
+
+    // Stack trace blocks still in the console, by their first line; folded unless expanded. The frames of a
+    // folded block are taken out of the document, expanding it reads them back from the store
+    private final TreeMap<Long, Block> blocks = new TreeMap<>();
+    private final Set<Long> expandedBlocks = new HashSet<>();
+    private final List<Long> blocksToFold = new ArrayList<>();
+    // Frame -> first line of its block, for the frames taken out of the document
+    private final Map<Long, Long> foldedFrames = new HashMap<>();
+    // The sequence number of every line in the document, by paragraph
+    private final SequenceList paragraphs = new SequenceList();
+
+    private int maxLines = DEFAULT_MAX_LINES;
+    private volatile int floodLinesPerSecond = DEFAULT_FLOOD_LINES_PER_SECOND;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long evictedLines;
+    private long lastRenderedSequence = -1;
+
+    // Lines are queued from any thread and rendered once per JavaFX pulse by the render loop
+    private final Queue<PendingLine> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean renderScheduled = new AtomicBoolean();
+    private final AnimationTimer renderLoop = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            long begin = System.nanoTime();
+            renderPending();
+            recordFrame(now, System.nanoTime() - begin);
+        }
+    };
+    // Streams that are flooding, ticked until the flood ends even when no more lines arrive
+    private final Set<FloodControl> floodingStreams = ConcurrentHashMap.newKeySet();
+    private final Timeline floodTicker = new Timeline(new KeyFrame(Duration.millis(FloodControl.WINDOW_MILLIS), e -> tickFloodControls()));
+    // Run once everything queued is rendered, only used on the FX thread
+    private final List<Runnable> renderedCallbacks = new ArrayList<>();
+    // Pulses of the render loop since resetFrameTimes, only used on the FX thread
+    private long frames;
+    private long droppedFrames;
+    private long renderNanos;
+    private long maxRenderNanos;
+    private long lastPulse;
+
+    /**
+     * What the render loop cost the FX thread.
+     *
+     * @param frames         the pulses the console rendered in
+     * @param droppedFrames  the pulses that came later than a 60 fps frame would have
+     * @param renderNanos    the time spent rendering, in all pulses
+     * @param maxRenderNanos the time spent rendering in the slowest pulse
+     */
+    public record FrameTimes(long frames, long droppedFrames, long renderNanos, long maxRenderNanos) {
+        public double averageRenderMillis() {
+            return frames == 0 ? 0 : renderNanos / 1e6 / frames;
+        }
+    }
 
     public LogViewer() {
         getStyleClass().add("log-viewer");
@@ -34,9 +179,12 @@ public class LogViewer extends AnchorPane {
         codeArea.setFocusTraversable(true);
         codeArea.getStyleClass().add("log-cell");
         codeArea.setStyle("-fx-font-family: 'Monospaced'; -fx-font-size: 12px;");
+        // The console is append-only, recording every append for undo only leaks memory
+        codeArea.setUndoManager(UndoUtils.noOpUndoManager());
+        floodTicker.setCycleCount(Animation.INDEFINITE);
 
-        var scrollPane = new VirtualizedScrollPane<>(codeArea);
-        getChildren().add(AnchorUtil.setAnchors(scrollPane, 0.0, 0.0, 0.0, 0.0));
+        consolePane = new VirtualizedScrollPane<>(codeArea);
+        getChildren().add(AnchorUtil.setAnchors(consolePane, 0.0, 0.0, 0.0, 0.0));
 
         ContextMenu ctx = new ContextMenu();
         MenuItem copy = new MenuItem("Copy");
@@ -50,6 +198,64 @@ public class LogViewer extends AnchorPane {
         });
         ctx.getItems().add(copy);
         codeArea.setContextMenu(ctx);
+        codeArea.setOnMouseClicked(e -> {
+            if (e.getButton() == MouseButton.PRIMARY && e.isStillSincePress()) toggleBlock(codeArea.getCurrentParagraph());
+        });
+
+        store.setEvictionListener(history::append);
+
+        localClassifier.subscribe(STYLE_RULES, CONSOLE_PRIORITY, true, (server, stream, line, matches) -> {
+            classified = styleFor(matches, classified);
+            return false;
+        });
+    }
+
+    /**
+     * Subscribes the console to a server's pattern engine. Lines are classified on the engine's thread
+     * as part of its single scan, the FX thread only has to render them. Each stream goes through its own
+     * {@link FloodControl}, so a stream spamming lines is thinned out before it reaches the console.
+     */
+    public LogPatternEngine.Subscription attach(LogPatternEngine engine) {
+        // Lines without a level keep the style of the line before them, per server
+        String[] previous = {"log-default"};
+        var floodControls = new FloodControl[ServerOutputListener.Stream.values().length];
+        var trackers = new ExceptionAggregator.Tracker[floodControls.length];
+        var ansiParsers = new AnsiParser[floodControls.length];
+        // A stdout line between the frames of a stderr trace does not split it
+        var blockTrackers = new BlockTracker[floodControls.length];
+        int floodLimit = floodLinesPerSecond;
+        for (int i = 0; i < floodControls.length; i++) {
+            floodControls[i] = new FloodControl(floodLimit);
+            trackers[i] = exceptions.newTracker();
+            ansiParsers[i] = new AnsiParser();
+            blockTrackers[i] = new BlockTracker();
+        }
+
+        return engine.subscribe(STYLE_RULES, CONSOLE_PRIORITY, true, (server, stream, line, matches) -> {
+            int index = stream.ordinal();
+            // Everything after this point sees the line without escapes
+            AnsiParser.Spans ansi = ansiParsers[index].parse(line);
+            CharSequence text = ansi == null ? line : ansiParsers[index].text();
+
+            // Every exception is counted, even those flood control hides
+            int role = trackers[index].accept(text, System.currentTimeMillis());
+            // Stack frames take the style of the exception they belong to
+            if (role != ExceptionAggregator.LINE_BLOCK_CONTINUATION) previous[0] = styleFor(matches, previous[0]);
+
+            FloodControl floodControl = floodControls[index];
+            if (floodControl.admit(text, System.nanoTime(), this::appendFloodNotice)) {
+                enqueue(text.toString(), previous[0], true, role, ansi, blockTrackers[index]);
+            }
+            if (floodControl.isFlooding() && floodingStreams.add(floodControl)) Platform.runLater(floodTicker::play);
+            return false;
+        });
+    }
+
+    /** Lines per second per stream above which server output is thinned out, applies to servers started later. */
+    public void setFloodThreshold(int linesPerSecond) {
+        if (linesPerSecond <= 0) throw new IllegalArgumentException("linesPerSecond must be > 0");
+
+        this.floodLinesPerSecond = linesPerSecond;
     }
 
     public static void registerActive(LogViewer viewer) {
@@ -60,7 +266,7 @@ public class LogViewer extends AnchorPane {
         LogViewer viewer = ACTIVE_INSTANCE;
         if (viewer == null) return;
 
-        Platform.runLater(() -> viewer.appendSystemMessage(message));
+        viewer.appendSystemMessage(message);
     }
 
     /** Raw console line piping (BuildTools/server output). */
@@ -68,72 +274,762 @@ public class LogViewer extends AnchorPane {
         LogViewer viewer = ACTIVE_INSTANCE;
         if (viewer == null) return;
 
-        Platform.runLater(() -> viewer.appendLine(line));
+        viewer.appendLine(line);
     }
 
+    /**
+     * Caps the in-memory console. Once either limit is exceeded the oldest lines are evicted in batches
+     * of a tenth of the line limit, so trimming does not run on every frame.
+     */
+    public void setLimits(int maxLines, long maxBytes) {
+        if (maxLines <= 0) throw new IllegalArgumentException("maxLines must be > 0");
+        if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes must be > 0");
+
+        this.maxLines = maxLines;
+        this.maxBytes = maxBytes;
+        store.setLimits(maxLines, storeChars(maxBytes));
+    }
+
+    /** Caps the compressed history of evicted lines, the oldest chunks are dropped beyond it. */
+    public void setHistoryLimit(long maxCompressedBytes) {
+        history.setBudget(maxCompressedBytes);
+    }
+
+    /** @return the number of lines currently shown by the console, the frames of folded traces not included */
+    public int retainedLines() {
+        return paragraphs.size();
+    }
+
+    /** @return an estimate of the memory used by the console: its document and the store behind it */
+    public long estimatedMemoryBytes() {
+        return documentBytes() + store.memoryBytes();
+    }
+
+    private long documentBytes() {
+        return estimateBytes(codeArea.getLength(), codeArea.getParagraphs().size());
+    }
+
+    /** @return the total number of lines evicted to stay within the limits */
+    public long evictedLines() {
+        return evictedLines;
+    }
+
+    /**
+     * Selects a line of the {@link #getStore() store} and scrolls it into view. The console stops following
+     * new output until {@link #followOutput()} is called.
+     *
+     * @return false if the line was evicted from the console or is not rendered yet
+     */
+    public boolean scrollTo(long sequence) {
+        Long folded = foldedFrames.get(sequence);
+        if (folded != null) {
+            unfoldBlock(folded);
+            expandedBlocks.add(folded);
+        }
+
+        int paragraph = paragraphOf(sequence);
+        if (paragraph < 0) return false;
+
+        codeArea.selectRange(paragraph, 0, paragraph, codeArea.getParagraphLength(paragraph));
+        codeArea.showParagraphInViewport(paragraph);
+        return true;
+    }
+
+    /** Moves the caret back to the end, so the console scrolls with new output again. */
+    public void followOutput() {
+        codeArea.moveTo(codeArea.getLength());
+        codeArea.requestFollowCaret();
+    }
+
+    /** @return the paragraph showing the line, or -1 if it is not in the document */
+    private int paragraphOf(long sequence) {
+        return paragraphs.indexOf(sequence);
+    }
+
+    /**
+     * Shows a log file instead of the console. The file is memory-mapped and indexed in the background, only
+     * the lines scrolled into view are read and styled, so even multi-gigabyte files open instantly and use
+     * a fixed amount of memory. Must be called on the FX thread.
+     */
     public void loadFile(Path path) throws IOException {
-        List<String> lines = Files.readAllLines(path);
-        codeArea.clear();
-        lastStyle = "log-default";
-        for (String line : lines) {
-            appendLine(line);
+        closeFile();
+
+        var lines = new LazyLines();
+        openFile = MappedLogFile.open(path, count -> Platform.runLater(() -> lines.grow(count)));
+        lines.reader = openFile::line;
+        showLines(lines);
+    }
+
+    /**
+     * Shows a session recorded by {@link SessionLog} instead of the console. The session is read in the
+     * background into a compressed history of its own, lines show up as they are read. Must be called on the
+     * FX thread, {@link #closeFile()} goes back to the console.
+     */
+    public void loadSession(Path directory) throws IOException {
+        closeFile();
+
+        var reader = new SessionLogReader(directory);
+        var session = new CompressedHistory(Long.MAX_VALUE);
+        var reading = new AtomicBoolean(true);
+
+        var lines = new LazyLines();
+        lines.reader = session::line;
+        showLines(lines);
+        sessionReading = reading;
+
+        Thread.ofVirtual().name("ServerMaster-session-read").start(() -> {
+            long[] count = {0};
+            long[] published = {System.nanoTime()};
+            try {
+                reader.read(0, (arrival, stream, line) -> {
+                    String text = stream == SessionLog.STREAM_SYSTEM ? "[ServerMaster] " + line : line;
+                    session.append(count[0]++, text.toCharArray(), 0, text.length());
+
+                    long now = System.nanoTime();
+                    if (now - published[0] >= SESSION_PUBLISH_NANOS) {
+                        published[0] = now;
+                        int shown = (int) Math.min(count[0], Integer.MAX_VALUE);
+                        Platform.runLater(() -> lines.grow(shown));
+                    }
+                    return reading.get();
+                });
+            } catch (IOException e) {
+                Constants.LOGGER.log(Level.WARNING, "Could not read the session " + directory, e);
+            }
+
+            int shown = (int) Math.min(count[0], Integer.MAX_VALUE);
+            Platform.runLater(() -> lines.grow(shown));
+        });
+    }
+
+    /**
+     * Shows everything still known about this session, the compressed history followed by the console's
+     * lines, instead of the console. History chunks are only inflated when they are scrolled into view.
+     * Must be called on the FX thread, {@link #closeFile()} goes back to the console.
+     */
+    public void showHistory() {
+        closeFile();
+
+        long first;
+        long end;
+        synchronized (store) {
+            first = history.lineCount() > 0 ? history.firstSequence() : store.firstSequence();
+            end = store.nextSequence();
         }
+
+        var lines = new LazyLines();
+        lines.reader = index -> lineAt(first + index);
+        lines.grow((int) Math.min(end - first, Integer.MAX_VALUE));
+        showLines(lines);
     }
 
-    public void appendLine(String line) {
-        int start = codeArea.getLength();
-        codeArea.appendText(line + System.lineSeparator());
-        int end = codeArea.getLength();
+    /** @return whether a file or the history is shown instead of the console */
+    public boolean isShowingLines() {
+        return filePane != null;
+    }
 
-        String style = determineStyleClass(line);
-        safeSetStyleClass(start, end, style);
+    /** @return the compression ratio and cache hit rate of the history, for display */
+    public String historySummary() {
+        return String.format("%,d lines in history, %.1f MB compressed (%.1fx), %.0f%% cache hits",
+                history.lineCount(), history.compressedBytes() / (1024.0 * 1024.0), history.compressionRatio(), history.cacheHitRate() * 100);
+    }
 
-        var matcher = TIMESTAMP.matcher(line);
-        while (matcher.find()) {
-            int absStart = start + matcher.start();
-            int absEnd = start + matcher.end();
-            safeSetStyleClass(absStart, absEnd, "log-timestamp");
+    /** Closes the file opened with {@link #loadFile(Path)} or the history and shows the console again. */
+    public void closeFile() {
+        if (filePane == null) return;
+
+        if (sessionReading != null) {
+            sessionReading.set(false);
+            sessionReading = null;
+        }
+        if (openFile != null) {
+            try {
+                openFile.close();
+            } catch (IOException ignored) {
+            }
+            openFile = null;
         }
+        filePane = null;
+        getChildren().setAll(consolePane);
+    }
 
-        codeArea.requestFollowCaret();
+    private void showLines(LazyLines lines) {
+        VirtualFlow<String, Cell<String, Text>> flow = VirtualFlow.createVertical(lines, this::fileCell);
+        filePane = new VirtualizedScrollPane<>(flow);
+        filePane.getStyleClass().add("log-cell");
+        getChildren().setAll(AnchorUtil.setAnchors(filePane, 0.0, 0.0, 0.0, 0.0));
+    }
+
+    /** @return the line from the store or the history, or an empty line if it was dropped meanwhile */
+    private String lineAt(long sequence) {
+        // The store evicts into the history while locked, holding its lock keeps the line where it is
+        synchronized (store) {
+            if (store.contains(sequence)) return store.line(sequence);
+            if (history.contains(sequence)) return history.line(sequence);
+            return "";
+        }
+    }
+
+    private Cell<String, Text> fileCell(String line) {
+        var text = new Text(line);
+        text.setStyle("-fx-font-family: 'Monospaced'; -fx-font-size: 12px;");
+        text.getStyleClass().add(classify(line, "log-default"));
+        return Cell.wrapNode(text);
+    }
+
+    /**
+     * Queues a line, styled by its content. Text with line breaks is queued as one line per line, every line
+     * in the console is one paragraph. Safe to call from any thread.
+     */
+    public void appendLine(String line) {
+        if (line.indexOf('\n') >= 0) {
+            // Kept together, a line from another thread does not land in the middle
+            synchronized (appendLock) {
+                for (String part : splitLines(line)) appendLine(part);
+            }
+            return;
+        }
+
+        AnsiParser.Spans ansi;
+        String text = line;
+        synchronized (localAnsi) {
+            ansi = localAnsi.parse(line);
+            if (ansi != null) text = localAnsi.text();
+        }
+        enqueue(text, null, true, ExceptionAggregator.LINE_PLAIN, ansi, null);
     }
 
     public void clearConsole() {
+        closeFile();
+        synchronized (appendLock) {
+            pending.clear();
+            store.clear();
+            history.clear();
+        }
         codeArea.clear();
+        paragraphs.clear();
+        blocks.clear();
+        expandedBlocks.clear();
+        blocksToFold.clear();
+        foldedFrames.clear();
     }
 
     public void appendSystemMessage(String message) {
+        SessionLog.recordSystem(message);
         appendStyledLine("[ServerMaster] " + message, "log-system");
     }
 
+    private void appendFloodNotice(String notice) {
+        // Only for the console, the session log already has every line the notice is about
+        appendStyledLine("[ServerMaster] " + notice, "log-system");
+    }
+
+    /** Queues a line with a fixed style, text with line breaks as one line per line. Safe to call from any thread. */
     public void appendStyledLine(String text, String styleClass) {
-        int start = codeArea.getLength();
-        codeArea.appendText(text + System.lineSeparator());
-        int end = codeArea.getLength();
+        if (text.indexOf('\n') >= 0) {
+            synchronized (appendLock) {
+                for (String part : splitLines(text)) enqueue(part, styleClass, false, ExceptionAggregator.LINE_PLAIN, null, null);
+            }
+            return;
+        }
 
-        safeSetStyleClass(start, end, styleClass);
+        enqueue(text, styleClass, false, ExceptionAggregator.LINE_PLAIN, null, null);
     }
 
-    private void safeSetStyleClass(int start, int end, String styleClass) {
-        int docLen = codeArea.getLength();
+    /** Splits at '\n', without the '\r' of "\r\n" and without an empty line after a trailing break. */
+    private static List<String> splitLines(String text) {
+        var lines = new ArrayList<String>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) end = text.length();
 
-        int safeStart = Math.max(0, Math.min(start, docLen));
-        int safeEnd = Math.max(safeStart, Math.min(end, docLen));
+            int lineEnd = end > start && text.charAt(end - 1) == '\r' ? end - 1 : end;
+            lines.add(text.substring(start, lineEnd));
+            start = end + 1;
+        }
+        return lines;
+    }
 
-        if (safeStart < safeEnd) {
-            codeArea.setStyleClass(safeStart, safeEnd, styleClass);
+    private void enqueue(String text, String styleClass, boolean timestamps, int blockRole, AnsiParser.Spans ansi,
+                         BlockTracker blockTracker) {
+        // The store and the queue must see lines in the same order
+        synchronized (appendLock) {
+            long sequence = store.append(text);
+            pending.add(new PendingLine(text, styleClass, timestamps, blockRole, ansi, sequence, blockTracker));
+        }
+        if (renderScheduled.compareAndSet(false, true)) {
+            Platform.runLater(renderLoop::start);
         }
     }
 
+    /**
+     * Drains the queued lines into one styled document and appends it with a single replace,
+     * followed by a single caret follow. The timer stops itself once nothing is left to render.
+     */
+    private void renderPending() {
+        var builder = new ReadOnlyStyledDocumentBuilder<Collection<String>, String, Collection<String>>(
+                codeArea.getSegOps(), codeArea.getInitialParagraphStyle());
+
+        int count = 0;
+        PendingLine line;
+        while (count < MAX_LINES_PER_FRAME && (line = pending.poll()) != null) {
+            builder.addParagraph(segments(line));
+            paragraphs.add(line.sequence());
+            lastRenderedSequence = line.sequence();
+            trackBlock(line);
+            count++;
+        }
+
+        if (count > 0) {
+            // Every line ends with a line break, so the document always ends in an empty paragraph
+            builder.addParagraph("", style(lastStyle));
+
+            int end = codeArea.getLength();
+            codeArea.replace(end, end, builder.build());
+            trimToLimits();
+            for (long start : blocksToFold) {
+                foldBlock(start);
+            }
+            blocksToFold.clear();
+            codeArea.requestFollowCaret();
+        }
+
+        if (pending.isEmpty()) {
+            renderLoop.stop();
+            renderScheduled.set(false);
+            lastPulse = 0;
+
+            // A line may have been queued between the isEmpty check and the flag reset
+            if (!pending.isEmpty() && renderScheduled.compareAndSet(false, true)) {
+                renderLoop.start();
+            } else {
+                runRenderedCallbacks();
+            }
+        }
+    }
+
+    private void tickFloodControls() {
+        long now = System.nanoTime();
+        for (FloodControl floodControl : floodingStreams) {
+            floodControl.tick(now, this::appendFloodNotice);
+            if (!floodControl.isFlooding()) floodingStreams.remove(floodControl);
+        }
+        // A stream that starts flooding now plays the ticker again, after this
+        if (floodingStreams.isEmpty()) floodTicker.stop();
+    }
+
+    private void recordFrame(long pulse, long nanos) {
+        frames++;
+        renderNanos += nanos;
+        maxRenderNanos = Math.max(maxRenderNanos, nanos);
+        if (lastPulse != 0 && pulse - lastPulse > FRAME_BUDGET_NANOS + FRAME_BUDGET_NANOS / 2) droppedFrames++;
+        // Cleared when the loop stops, the gap until it starts again is no frame
+        if (renderScheduled.get()) lastPulse = pulse;
+    }
+
+    /** Must be called on the FX thread. */
+    public FrameTimes frameTimes() {
+        return new FrameTimes(frames, droppedFrames, renderNanos, maxRenderNanos);
+    }
+
+    /** Starts measuring {@link #frameTimes()} afresh. Must be called on the FX thread. */
+    public void resetFrameTimes() {
+        frames = 0;
+        droppedFrames = 0;
+        renderNanos = 0;
+        maxRenderNanos = 0;
+    }
+
+    /**
+     * Runs the callback on the FX thread once every line queued so far is rendered, right away if nothing is
+     * waiting. Safe to call from any thread.
+     */
+    public void whenRendered(Runnable callback) {
+        Platform.runLater(() -> {
+            renderedCallbacks.add(callback);
+            if (!renderScheduled.get()) runRenderedCallbacks();
+        });
+    }
+
+    private void runRenderedCallbacks() {
+        if (renderedCallbacks.isEmpty()) return;
+
+        var callbacks = List.copyOf(renderedCallbacks);
+        renderedCallbacks.clear();
+        for (Runnable callback : callbacks) {
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                Constants.LOGGER.log(Level.WARNING, "Console render callback failed", e);
+            }
+        }
+    }
+
+    private void trimToLimits() {
+        int lines = retainedLines();
+        // The store keeps to its own share through its char limit
+        long bytes = documentBytes();
+        long budget = documentBudget(maxBytes);
+        if (lines <= maxLines && bytes <= budget) return;
+
+        int evict = Math.max(lines - maxLines, 0) + Math.max(1, maxLines / 10);
+        if (bytes > budget) {
+            // Drop the same share of lines as the share of memory we are over by, plus the batch margin
+            double overShare = 1.0 - (double) budget / bytes;
+            evict = Math.max(evict, (int) Math.ceil(lines * overShare) + Math.max(1, maxLines / 10));
+        }
+        evict = Math.min(evict, lines);
+
+        codeArea.deleteText(0, codeArea.getAbsolutePosition(evict, 0));
+        paragraphs.removeFirst(evict);
+        evictedLines += evict;
+
+        long firstRetained = paragraphs.size() > 0 ? paragraphs.get(0) : lastRenderedSequence + 1;
+        var evictedBlocks = blocks.headMap(firstRetained);
+        for (var block : evictedBlocks.entrySet()) {
+            if (expandedBlocks.remove(block.getKey())) continue;
+
+            // The frames of a folded block go with its first line
+            for (long frame : block.getValue().frames()) {
+                if (foldedFrames.remove(frame) != null) evictedLines++;
+            }
+        }
+        evictedBlocks.clear();
+    }
+
+    /** Follows stack trace blocks through the rendered lines, a block is folded once a line after it shows up. */
+    private void trackBlock(PendingLine line) {
+        BlockTracker tracker = line.blockTracker();
+        if (tracker == null) return;
+
+        switch (line.blockRole()) {
+            case ExceptionAggregator.LINE_BLOCK_START -> {
+                closeBlock(tracker);
+                tracker.start = line.sequence();
+                tracker.styleClass = line.styleClass();
+            }
+            case ExceptionAggregator.LINE_BLOCK_CONTINUATION -> {
+                if (tracker.start >= 0) tracker.frames.add(line.sequence());
+            }
+            default -> closeBlock(tracker);
+        }
+    }
+
+    private void closeBlock(BlockTracker tracker) {
+        if (tracker.start >= 0 && tracker.frames.size() > 0) {
+            blocks.put(tracker.start, new Block(tracker.frames.toArray(), tracker.styleClass));
+            blocksToFold.add(tracker.start);
+        }
+        tracker.start = -1;
+        tracker.frames.clear();
+    }
+
+    /** Takes the frames of a block out of the document, only its exception line stays visible. */
+    private void foldBlock(long start) {
+        Block block = blocks.get(start);
+        int head = paragraphOf(start);
+        if (block == null || head < 0) return;
+
+        // Back to front in runs of adjacent frames, so the paragraphs of the frames still to go do not move
+        long[] frames = block.frames();
+        int i = frames.length - 1;
+        while (i >= 0) {
+            int last = paragraphOf(frames[i]);
+            if (last < 0) {
+                i--;
+                continue;
+            }
+
+            int first = last;
+            foldedFrames.put(frames[i--], start);
+            while (i >= 0 && paragraphOf(frames[i]) == first - 1) {
+                foldedFrames.put(frames[i--], start);
+                first--;
+            }
+
+            // From the end of the paragraph before, so the paragraph after keeps its own style
+            codeArea.deleteText(codeArea.getAbsolutePosition(first - 1, codeArea.getParagraphLength(first - 1)),
+                    codeArea.getAbsolutePosition(last, codeArea.getParagraphLength(last)));
+            paragraphs.remove(first, last - first + 1);
+        }
+        codeArea.setParagraphStyle(head, style("log-fold-head"));
+    }
+
+    /** Puts the frames of a folded block back, read from the store or the history. */
+    private void unfoldBlock(long start) {
+        Block block = blocks.get(start);
+        if (block == null) return;
+
+        long[] frames = block.frames();
+        int i = 0;
+        while (i < frames.length) {
+            if (!foldedFrames.containsKey(frames[i])) {
+                i++;
+                continue;
+            }
+
+            // Frames between the same two paragraphs go back in one insert
+            int at = paragraphs.insertionPoint(frames[i]);
+            var builder = new ReadOnlyStyledDocumentBuilder<Collection<String>, String, Collection<String>>(
+                    codeArea.getSegOps(), codeArea.getInitialParagraphStyle());
+            builder.addParagraph("", style(block.styleClass()));
+
+            int runStart = i;
+            do {
+                foldedFrames.remove(frames[i]);
+                var frame = new PendingLine(lineAt(frames[i]), block.styleClass(), true, ExceptionAggregator.LINE_BLOCK_CONTINUATION,
+                        null, frames[i], null);
+                builder.addParagraph(segments(frame));
+                i++;
+            } while (i < frames.length && foldedFrames.containsKey(frames[i]) && paragraphs.insertionPoint(frames[i]) == at);
+
+            codeArea.insert(codeArea.getAbsolutePosition(at - 1, codeArea.getParagraphLength(at - 1)), builder.build());
+            paragraphs.insert(at, frames, runStart, i - runStart);
+        }
+
+        // The exception line loses the look foldBlock gave it
+        int head = paragraphOf(start);
+        if (head >= 0) codeArea.setParagraphStyle(head, style(block.styleClass()));
+    }
+
+    private void toggleBlock(int paragraph) {
+        if (paragraph < 0 || paragraph >= paragraphs.size()) return;
+
+        long start = paragraphs.get(paragraph);
+        if (!blocks.containsKey(start)) return;
+
+        if (expandedBlocks.remove(start)) {
+            foldBlock(start);
+        } else {
+            unfoldBlock(start);
+            expandedBlocks.add(start);
+        }
+    }
+
+    private static long documentBudget(long maxBytes) {
+        return (long) (maxBytes * DOCUMENT_SHARE);
+    }
+
+    private static int storeChars(long maxBytes) {
+        long storeBudget = maxBytes - documentBudget(maxBytes);
+        return (int) Math.max(1, Math.min(storeBudget / STORE_BYTES_PER_CHAR, Integer.MAX_VALUE - 8));
+    }
+
+    private static long estimateBytes(long chars, long paragraphs) {
+        return chars * Character.BYTES + paragraphs * PARAGRAPH_OVERHEAD_BYTES;
+    }
+
+    /**
+     * Splits a line into styled segments in one pass over its ANSI runs, cutting timestamps out of each run.
+     * Every segment carries the line's level style plus the ANSI style of its run.
+     */
+    private List<StyledSegment<String, Collection<String>>> segments(PendingLine line) {
+        String text = line.text();
+        String lineStyle = line.styleClass() != null ? line.styleClass() : determineStyleClass(text);
+        AnsiParser.Spans ansi = line.ansi();
+
+        var segments = new ArrayList<StyledSegment<String, Collection<String>>>(3);
+        int runs = ansi == null ? 1 : ansi.size();
+        int runStart = 0;
+        for (int run = 0; run < runs; run++) {
+            int runEnd = ansi == null ? text.length() : ansi.ends()[run];
+            int ansiStyle = ansi == null ? AnsiParser.DEFAULT_STYLE : ansi.styles()[run];
+            addSegments(segments, text, runStart, runEnd, lineStyle, ansiStyle, line.timestamps());
+            runStart = runEnd;
+        }
+
+        if (segments.isEmpty()) segments.add(new StyledSegment<>("", style(lineStyle)));
+        return segments;
+    }
+
+    private void addSegments(List<StyledSegment<String, Collection<String>>> segments, String text, int start, int end,
+                             String lineStyle, int ansiStyle, boolean timestamps) {
+        Collection<String> runStyle = style(lineStyle, ansiStyle);
+
+        int last = start;
+        if (timestamps) {
+            for (int at = text.indexOf('[', start); at >= 0 && at + TIMESTAMP_LENGTH <= end; at = text.indexOf('[', at + 1)) {
+                if (!isTimestamp(text, at)) continue;
+
+                if (at > last) segments.add(new StyledSegment<>(text.substring(last, at), runStyle));
+                segments.add(new StyledSegment<>(text.substring(at, at + TIMESTAMP_LENGTH), style("log-timestamp", ansiStyle)));
+                last = at + TIMESTAMP_LENGTH;
+                at = last - 1;
+            }
+        }
+
+        if (end > last) segments.add(new StyledSegment<>(text.substring(last, end), runStyle));
+    }
+
+    private Collection<String> style(String styleClass) {
+        return styleCache.computeIfAbsent(styleClass, List::of);
+    }
+
+    private Collection<String> style(String styleClass, int ansiStyle) {
+        if (ansiStyle == AnsiParser.DEFAULT_STYLE) return style(styleClass);
+
+        // console.css declares the ANSI classes after the level ones, so an explicit color wins
+        return ansiStyleCache.computeIfAbsent(ansiStyle, key -> new HashMap<>()).computeIfAbsent(styleClass, key -> {
+            var classes = new ArrayList<String>();
+            classes.add(styleClass);
+            classes.addAll(AnsiParser.styleClasses(ansiStyle));
+            return List.copyOf(classes);
+        });
+    }
+
     private String determineStyleClass(String line) {
-        if (line.contains(" INFO]: Done (")) return lastStyle = "log-success";
-        if (line.contains("Server empty for 60 seconds, pausing")) return lastStyle = "log-paused";
-        if (line.contains("FATAL")) return lastStyle = "log-fatal";
-        if (line.contains("ERROR") || line.contains("[STDERR]:")) return lastStyle = "log-error";
-        if (line.contains("WARN")) return lastStyle = "log-warn";
-        if (line.contains("DEBUG")) return lastStyle = "log-debug";
-        if (line.contains("TRACE")) return lastStyle = "log-trace";
-        if (line.contains("INFO")) return lastStyle = "log-info";
-        return lastStyle;
+        return lastStyle = classify(line, lastStyle);
+    }
+
+    private String classify(String line, String previous) {
+        classified = previous;
+        localClassifier.dispatch(null, ServerOutputListener.Stream.STDOUT, line);
+        return classified;
+    }
+
+    private static String styleFor(MatchSet matches, String previous) {
+        if (matches.has(DONE)) return "log-success";
+        if (matches.has(PAUSED)) return "log-paused";
+        if (matches.has(FATAL)) return "log-fatal";
+        if (matches.has(ERROR) || matches.has(STDERR)) return "log-error";
+        if (matches.has(WARN)) return "log-warn";
+        if (matches.has(DEBUG)) return "log-debug";
+        if (matches.has(TRACE)) return "log-trace";
+        if (matches.has(INFO)) return "log-info";
+        return previous;
+    }
+
+    /** Matches "[HH:MM:SS]" at {@code start}. */
+    private static boolean isTimestamp(String text, int start) {
+        if (start + TIMESTAMP_LENGTH > text.length()) return false;
+        if (text.charAt(start + 3) != ':' || text.charAt(start + 6) != ':' || text.charAt(start + 9) != ']') return false;
+
+        for (int offset : TIMESTAMP_DIGITS) {
+            char c = text.charAt(start + offset);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    /**
+     * Lines as a list, read only when the flow asks for them. Grows as the background index of an open file
+     * finds more lines.
+     */
+    private static final class LazyLines extends ObservableListBase<String> {
+        private IntFunction<String> reader;
+        private int size;
+
+        void grow(int count) {
+            if (count <= size) return;
+
+            beginChange();
+            nextAdd(size, count);
+            size = count;
+            endChange();
+        }
+
+        @Override
+        public String get(int index) {
+            return reader.apply(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * @param styleClass   the style, or null to classify the line when it is rendered
+     * @param timestamps   whether timestamps inside the line get their own style
+     * @param blockRole    the line's place in a stack trace, one of the {@code ExceptionAggregator.LINE_*} constants
+     * @param ansi         the ANSI style runs of the text, or null if it had none
+     * @param sequence     the line's sequence number in the {@link LogStore}
+     * @param blockTracker the stack trace blocks of the line's stream, or null for lines that are never folded
+     */
+    private record PendingLine(String text, String styleClass, boolean timestamps, int blockRole, AnsiParser.Spans ansi,
+                               long sequence, BlockTracker blockTracker) {
+    }
+
+    /** @param frames the sequence numbers of the block's frames, ascending */
+    private record Block(long[] frames, String styleClass) {
+    }
+
+    /** The stack trace of one stream that is still growing, only used on the FX thread. */
+    private static final class BlockTracker {
+        private long start = -1;
+        private String styleClass;
+        private final SequenceList frames = new SequenceList();
+    }
+
+    /**
+     * Ascending sequence numbers in a growable array. Appending and dropping from the front are cheap, which
+     * is all the console does per frame; folding inserts and removes in the middle.
+     */
+    private static final class SequenceList {
+        private long[] values = new long[1024];
+        private int head;
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        long get(int index) {
+            return values[head + index];
+        }
+
+        void add(long value) {
+            ensureCapacity(1);
+            values[head + size++] = value;
+        }
+
+        void removeFirst(int count) {
+            head += count;
+            size -= count;
+        }
+
+        void remove(int from, int count) {
+            System.arraycopy(values, head + from + count, values, head + from, size - from - count);
+            size -= count;
+        }
+
+        void insert(int at, long[] source, int offset, int count) {
+            ensureCapacity(count);
+            System.arraycopy(values, head + at, values, head + at + count, size - at);
+            System.arraycopy(source, offset, values, head + at, count);
+            size += count;
+        }
+
+        /** @return the index of the value, or -1 */
+        int indexOf(long value) {
+            int found = Arrays.binarySearch(values, head, head + size, value);
+            return found < 0 ? -1 : found - head;
+        }
+
+        /** @return the index the value has or would have */
+        int insertionPoint(long value) {
+            int found = Arrays.binarySearch(values, head, head + size, value);
+            return (found < 0 ? -found - 1 : found) - head;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOfRange(values, head, head + size);
+        }
+
+        void clear() {
+            head = 0;
+            size = 0;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (head + size + extra <= values.length) return;
+
+            long[] target = size + extra <= values.length / 2 ? values : new long[Math.max(values.length * 2, size + extra)];
+            System.arraycopy(values, head, target, 0, size);
+            values = target;
+            head = 0;
+        }
     }
 }
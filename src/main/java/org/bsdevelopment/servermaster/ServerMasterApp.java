@@ -70,11 +70,12 @@ public class ServerMasterApp extends Application {
     @Override
     public void stop() {
         stopBuildToolsIfRunning();
-        ServerHandlerAPI.killServer();
+        ServerHandlerAPI.killAllServers();
+        if (instanceCatalog != null) instanceCatalog.close();
     }
 
     private void initiateStartup() throws IOException {
-        instanceCatalog = new InstanceCatalog(SettingsService.get().getServerPath());
+        reloadInstanceCatalog();
         serverWrapper = new ServerWrapper(SettingsService.get().getServerPath());
 
         var selection = new ServerSelection("", "", "");
@@ -82,7 +83,7 @@ public class ServerMasterApp extends Application {
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             stopBuildToolsIfRunning();
-            ServerHandlerAPI.killServer();
+            ServerHandlerAPI.killAllServers();
             try {
                 Thread.sleep(1000);
             } catch (InterruptedException ignore) {
@@ -90,6 +91,13 @@ public class ServerMasterApp extends Application {
         }, "servermaster-shutdown"));
     }
 
+    /** Replaces the catalog after the server folder changed, the old one stops watching its folder. */
+    public static void reloadInstanceCatalog() {
+        InstanceCatalog previous = instanceCatalog;
+        instanceCatalog = new InstanceCatalog(SettingsService.get().getServerPath(), () -> SettingsService.get().getJavaPath());
+        if (previous != null) previous.close();
+    }
+
     public static ReadOnlyBooleanProperty applicationLockedProperty() {
         return APPLICATION_LOCKED;
     }
@@ -124,7 +132,7 @@ public class ServerMasterApp extends Application {
         SettingsService.load(Constants.WORKING_PATH.resolve("configuration.json").toFile());
 
         try {
-            if (SettingsService.get().isInitialized()) instanceCatalog = new InstanceCatalog(SettingsService.get().getServerPath());
+            if (SettingsService.get().isInitialized()) reloadInstanceCatalog();
             launch(args);
         } catch (Throwable t) {
             t.printStackTrace();
@@ -0,0 +1,136 @@
+package org.bsdevelopment.servermaster.components;
+
+import atlantafx.base.theme.Styles;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.TextField;
+import javafx.scene.input.KeyCode;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import org.bsdevelopment.servermaster.LogViewer;
+import org.bsdevelopment.servermaster.log.LogLevel;
+import org.bsdevelopment.servermaster.log.LogQuery;
+import org.bsdevelopment.servermaster.log.LogStore;
+import org.bsdevelopment.servermaster.utils.FX;
+
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Searches the console's {@link LogStore} and steps through the hits, newest first.
+ */
+public final class ConsoleSearchBar extends HBox {
+    private static final String ALL_LEVELS = "All levels";
+
+    private final LogViewer console;
+    private final TextField field = new TextField();
+    private final CheckBox regex = new CheckBox("Regex");
+    private final ComboBox<String> level = new ComboBox<>();
+    private final Label status = new Label();
+
+    private long[] hits = new long[0];
+    private int current = -1;
+    private String summary = "";
+
+    public ConsoleSearchBar(LogViewer console) {
+        this.console = Objects.requireNonNull(console, "console");
+
+        setSpacing(10);
+        setAlignment(Pos.CENTER_LEFT);
+
+        field.setPromptText("Search console...");
+        HBox.setHgrow(field, Priority.ALWAYS);
+
+        level.getItems().add(ALL_LEVELS);
+        for (LogLevel value : LogLevel.values()) {
+            if (value != LogLevel.UNKNOWN) level.getItems().add(value.name());
+        }
+        level.setValue(ALL_LEVELS);
+
+        var previous = new Button("▲");
+        previous.getStyleClass().addAll(Styles.BUTTON_OUTLINED);
+        var next = new Button("▼");
+        next.getStyleClass().addAll(Styles.BUTTON_OUTLINED);
+
+        field.setOnAction(e -> step(1));
+        field.setOnKeyPressed(e -> {
+            if (e.getCode() == KeyCode.ESCAPE) clear();
+        });
+        field.textProperty().addListener((obs, o, v) -> search());
+        regex.selectedProperty().addListener((obs, o, v) -> search());
+        level.valueProperty().addListener((obs, o, v) -> search());
+        previous.setOnAction(e -> step(1));
+        next.setOnAction(e -> step(-1));
+
+        status.getStyleClass().add(Styles.TEXT_MUTED);
+        status.setMinWidth(140);
+
+        getChildren().addAll(FX.inputGroup(field, previous, next), regex, level, status);
+    }
+
+    public void clear() {
+        field.clear();
+        hits = new long[0];
+        current = -1;
+        status.setText("");
+        console.followOutput();
+    }
+
+    private void search() {
+        String text = field.getText() == null ? "" : field.getText();
+        if (text.isEmpty()) {
+            clear();
+            return;
+        }
+
+        LogQuery query = regex.isSelected() ? LogQuery.regex(text) : LogQuery.substring(text);
+        if (!ALL_LEVELS.equals(level.getValue())) query = query.levels(EnumSet.of(LogLevel.valueOf(level.getValue())));
+
+        LogStore.SearchResult result;
+        try {
+            result = console.getStore().search(query);
+        } catch (PatternSyntaxException e) {
+            hits = new long[0];
+            current = -1;
+            status.setText("Invalid pattern");
+            return;
+        }
+
+        hits = result.sequences();
+        current = -1;
+        summary = describe(result);
+        status.setText(summary);
+        step(1);
+    }
+
+    /**
+     * @param direction 1 for the next older hit, -1 for the next newer one
+     */
+    private void step(int direction) {
+        if (hits.length == 0) return;
+
+        // Hits are oldest first, start at the newest
+        for (int tries = 0; tries < hits.length; tries++) {
+            current = current < 0 ? hits.length - 1 : Math.floorMod(current - direction, hits.length);
+            if (console.scrollTo(hits[current])) {
+                status.setText((hits.length - current) + " / " + hits.length + " · " + summary);
+                return;
+            }
+        }
+        status.setText("Hits are no longer in the console");
+    }
+
+    private static String describe(LogStore.SearchResult result) {
+        if (result.total() == 0) return "No hits";
+
+        var text = new StringBuilder().append(result.total()).append(" hits");
+        int[] levels = result.levelCounts();
+        if (levels[LogLevel.WARN.ordinal()] > 0) text.append(", ").append(levels[LogLevel.WARN.ordinal()]).append(" warn");
+        if (levels[LogLevel.ERROR.ordinal()] > 0) text.append(", ").append(levels[LogLevel.ERROR.ordinal()]).append(" error");
+        return text.toString();
+    }
+}
@@ -3,6 +3,7 @@ package org.bsdevelopment.servermaster.components;
 import atlantafx.base.theme.Styles;
 import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
+import javafx.beans.binding.BooleanBinding;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.geometry.Pos;
@@ -10,6 +11,8 @@ import javafx.scene.control.Button;
 import javafx.scene.control.ComboBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
+import javafx.stage.DirectoryChooser;
+import lombok.Getter;
 import org.bsdevelopment.servermaster.Constants;
 import org.bsdevelopment.servermaster.ServerMasterApp;
 import org.bsdevelopment.servermaster.config.AppSettings;
@@ -17,33 +20,60 @@ import org.bsdevelopment.servermaster.config.SettingsService;
 import org.bsdevelopment.servermaster.instance.server.ServerHandlerAPI;
 import org.bsdevelopment.servermaster.instance.server.ServerLaunchConfig;
 import org.bsdevelopment.servermaster.instance.server.gamerule.GameRuleFileApplier;
-import org.bsdevelopment.servermaster.instance.server.thread.ServerOutputListener;
+import org.bsdevelopment.servermaster.log.LogArchiveAnalytics;
+import org.bsdevelopment.servermaster.log.LogPatternEngine;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public final class ServerSelectionPane extends VBox {
     private final ComboBox<String> type;
     private final ComboBox<String> version;
     private final ComboBox<String> build;
     private final Button start;
+    private final Button attach;
+    private final ComboBox<String> instances;
 
     private final ServerSelection selection;
-    private final ServerOutputListener outputListener;
-    private final Runnable onStart;
+    private final Function<LogPatternEngine, LogPatternEngine.Subscription> outputSetup;
+    private final Consumer<String> onConsoleSwitch;
+
+    // The servers started or attached from here that are still running, only touched on the FX thread
+    private final Map<String, Launch> launches = new HashMap<>();
+    private final Set<String> pendingRestarts = new HashSet<>();
+    private LogPatternEngine.Subscription consoleSubscription;
 
     private final BooleanProperty serverRunning;
     private final BooleanProperty versionEnabled = new SimpleBooleanProperty(false);
     private final BooleanProperty buildEnabled = new SimpleBooleanProperty(false);
     private final BooleanProperty startEnabled = new SimpleBooleanProperty(false);
-
-    public ServerSelectionPane(ServerSelection selection, BooleanProperty serverRunning, ServerOutputListener outputListener, Runnable onStart) throws IOException {
+    // The instance the console shows and commands go to
+    @Getter private volatile String activeInstanceId;
+    private volatile Path activeLogsDirectory;
+
+    /** What a running server was started from, a restart starts the same again. Attached servers have no type. */
+    private record Launch(String serverType, String version, String build, LogPatternEngine engine, Path logsDirectory) {}
+
+    /**
+     * @param serverRunning   set to whether the selected server is running
+     * @param outputSetup     subscribes the console to the pattern engine of the server it shows
+     * @param onConsoleSwitch called with a message before the console shows another server
+     */
+    public ServerSelectionPane(ServerSelection selection, BooleanProperty serverRunning,
+                               Function<LogPatternEngine, LogPatternEngine.Subscription> outputSetup, Consumer<String> onConsoleSwitch) throws IOException {
         this.selection = Objects.requireNonNull(selection, "selection");
         this.serverRunning = Objects.requireNonNull(serverRunning, "serverRunning");
-        this.outputListener = Objects.requireNonNull(outputListener, "outputListener");
-        this.onStart = Objects.requireNonNull(onStart, "onStart");
+        this.outputSetup = Objects.requireNonNull(outputSetup, "outputSetup");
+        this.onConsoleSwitch = Objects.requireNonNull(onConsoleSwitch, "onConsoleSwitch");
 
         setSpacing(10);
         setAlignment(Pos.TOP_CENTER);
@@ -57,11 +87,20 @@ public final class ServerSelectionPane extends VBox {
         start.getStyleClass().addAll(Styles.BUTTON_OUTLINED, Styles.ACCENT);
         start.setMaxWidth(Double.MAX_VALUE);
 
+        attach = new Button("ATTACH TO SERVER");
+        attach.getStyleClass().addAll(Styles.BUTTON_OUTLINED);
+        attach.setMaxWidth(Double.MAX_VALUE);
+
+        instances = blankCombo("Running Servers");
+
+        // Any number of servers run side by side, starting one more is always possible
         var locked = ServerMasterApp.applicationLockedProperty();
-        type.disableProperty().bind(serverRunning.or(locked));
-        version.disableProperty().bind(Bindings.or(serverRunning.or(locked), versionEnabled.not()));
-        build.disableProperty().bind(Bindings.or(serverRunning.or(locked), buildEnabled.not()));
-        start.disableProperty().bind(Bindings.or(serverRunning.or(locked), startEnabled.not()));
+        type.disableProperty().bind(locked);
+        version.disableProperty().bind(Bindings.or(locked, versionEnabled.not()));
+        build.disableProperty().bind(Bindings.or(locked, buildEnabled.not()));
+        start.disableProperty().bind(Bindings.or(locked, startEnabled.not()));
+        attach.disableProperty().bind(locked);
+        instances.disableProperty().bind(Bindings.isEmpty(instances.getItems()));
 
         // Refresh lists when the user OPENS the dropdown
         type.setOnShowing(e -> refreshTypes());
@@ -126,15 +165,73 @@ public final class ServerSelectionPane extends VBox {
         version.valueProperty().addListener((obs, o, v) -> selection.setServerVersion(v == null ? "" : v));
         build.valueProperty().addListener((obs, o, v) -> selection.setServerBuild(v == null ? "" : v));
 
-        getChildren().addAll(type, version, build, start);
+        getChildren().addAll(type, version, build, start, attach, instances);
         VBox.setVgrow(start, Priority.NEVER);
 
+        instances.setOnAction(actionEvent -> {
+            String instanceId = instances.getValue();
+            if (instanceId != null && !instanceId.equals(activeInstanceId)) showInstance(instanceId);
+        });
+
         start.setOnAction(actionEvent -> startSelectedServer());
+        attach.setOnAction(actionEvent -> {
+            DirectoryChooser dc = new DirectoryChooser();
+            dc.setTitle("Select the Folder of a Running Server");
+            File dir = dc.showDialog(getScene().getWindow());
+            if (dir != null) attachServer(dir.toPath());
+        });
     }
 
-    public void startSelectedServer() {
-        if (serverRunning.get()) return;
+    /**
+     * Follows a server that was started outside ServerMaster, its console shows the server's logs/latest.log.
+     */
+    public void attachServer(Path serverDirectory) {
+        var engine = new LogPatternEngine();
+        switchConsole(engine, "Attaching to " + serverDirectory + " ...");
+
+        String instanceId = ServerHandlerAPI.attachServer(
+                serverDirectory,
+                SettingsService.get().getConsoleBatchMaxLines(),
+                SettingsService.get().getConsoleSessionsKept(),
+                engine,
+                (server, statusCode) -> Platform.runLater(() -> serverStopped(server.getInstanceId()))
+        );
+        track(instanceId, new Launch(null, null, null, engine, serverDirectory.resolve("logs")));
+    }
+
+    /** @return true while any server started or attached from here is running */
+    public BooleanBinding anyServerRunning() {
+        return Bindings.isNotEmpty(instances.getItems());
+    }
+
+    /**
+     * Stops the server and starts the same type, version and build again once it is down.
+     */
+    public void restartServer(String instanceId) {
+        Launch launch = launches.get(instanceId);
+        if (launch == null || launch.serverType() == null) return;
+
+        pendingRestarts.add(instanceId);
+        ServerHandlerAPI.stopServer(instanceId);
+    }
+
+    /** Forgets a restart that was asked for, the server stays down once it stopped. */
+    public void cancelRestart(String instanceId) {
+        pendingRestarts.remove(instanceId);
+    }
+
+    /**
+     * @return the statistics of the archived logs of the selected server, or the last one if none runs; null before the first
+     */
+    public LogArchiveAnalytics logAnalytics() {
+        String instanceId = activeInstanceId;
+        Path logsDirectory = activeLogsDirectory;
+        if (instanceId == null || logsDirectory == null) return null;
+
+        return new LogArchiveAnalytics(logsDirectory, ServerMasterApp.serverWrapper().instanceDirectory(instanceId).logArchiveIndex());
+    }
 
+    public void startSelectedServer() {
         String selectedType = type.getValue();
         String selectedVersion = version.getValue();
         String selectedBuild = build.isVisible() ? build.getValue() : "";
@@ -143,29 +240,82 @@ public final class ServerSelectionPane extends VBox {
         if (selectedVersion == null || selectedVersion.isBlank()) return;
         if (build.isVisible() && (selectedBuild == null || selectedBuild.isBlank())) return;
 
-        onStart.run();
-        serverRunning.set(true);
+        startServer(selectedType, selectedVersion, selectedBuild == null ? "" : selectedBuild);
+    }
 
+    private void startServer(String serverType, String serverVersion, String serverBuild) {
         AppSettings settings = SettingsService.get();
         ServerLaunchConfig config = new ServerLaunchConfig(
                 settings.getJavaPath(),
                 settings.getMemory(),
                 settings.getPort(),
                 true,
-                List.of()
+                List.of(),
+                settings.getConsoleBatchWindowMs(),
+                settings.getConsoleBatchMaxLines(),
+                settings.isConsoleRecordOutput(),
+                settings.getConsoleSessionsKept()
         );
 
         Path gameruleFile = Constants.WORKING_PATH.resolve("gamerules.json");
-        ServerOutputListener wrapped = GameRuleFileApplier.wrap(outputListener, gameruleFile);
-
-        ServerHandlerAPI.startServer(
-                selectedType,
-                selectedVersion,
-                selectedBuild == null ? "" : selectedBuild,
+        var engine = new LogPatternEngine();
+        GameRuleFileApplier.attach(engine, gameruleFile);
+        // The console listens before the server writes its first line
+        switchConsole(engine, "Starting server...");
+
+        String instanceId = ServerHandlerAPI.startServer(
+                serverType,
+                serverVersion,
+                serverBuild,
                 config,
-                wrapped,
-                (server, statusCode) -> Platform.runLater(() -> serverRunning.set(false))
+                engine,
+                (server, statusCode) -> Platform.runLater(() -> serverStopped(server.getInstanceId()))
         );
+        track(instanceId, new Launch(serverType, serverVersion, serverBuild, engine,
+                ServerMasterApp.serverWrapper().instanceDirectory(instanceId).logsDirectory()));
+    }
+
+    private void track(String instanceId, Launch launch) {
+        launches.put(instanceId, launch);
+        instances.getItems().add(instanceId);
+        select(instanceId, launch);
+    }
+
+    /** Shows a server that is already running, its earlier output is in its session log. */
+    private void showInstance(String instanceId) {
+        Launch launch = launches.get(instanceId);
+        if (launch == null) return;
+
+        switchConsole(launch.engine(), "Showing the console of " + instanceId + ", earlier output is in its session log");
+        select(instanceId, launch);
+    }
+
+    private void select(String instanceId, Launch launch) {
+        activeInstanceId = instanceId;
+        activeLogsDirectory = launch.logsDirectory();
+        instances.setValue(instanceId);
+        serverRunning.set(true);
+    }
+
+    private void switchConsole(LogPatternEngine engine, String message) {
+        if (consoleSubscription != null) consoleSubscription.unsubscribe();
+        onConsoleSwitch.accept(message);
+        consoleSubscription = outputSetup.apply(engine);
+    }
+
+    private void serverStopped(String instanceId) {
+        Launch launch = launches.remove(instanceId);
+        instances.getItems().remove(instanceId);
+
+        // The console keeps showing the stopped server until another one is selected
+        if (instanceId.equals(activeInstanceId)) {
+            serverRunning.set(false);
+            instances.setValue(null);
+        }
+
+        if (pendingRestarts.remove(instanceId) && launch != null) {
+            startServer(launch.serverType(), launch.version(), launch.build());
+        }
     }
 
     private void refreshTypes() {
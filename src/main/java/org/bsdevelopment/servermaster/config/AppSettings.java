@@ -2,6 +2,10 @@ package org.bsdevelopment.servermaster.config;
 
 import lombok.Getter;
 import lombok.Setter;
+import org.bsdevelopment.servermaster.LogViewer;
+import org.bsdevelopment.servermaster.instance.server.ServerLaunchConfig;
+import org.bsdevelopment.servermaster.log.SessionLog;
+import org.bsdevelopment.servermaster.utils.MemoryUnit;
 
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -20,6 +24,15 @@ public class AppSettings {
 
     private boolean skipStartupWindow = false;
 
+    private long consoleBatchWindowMs = ServerLaunchConfig.DEFAULT_BATCH_WINDOW_MS;
+    private int consoleBatchMaxLines = ServerLaunchConfig.DEFAULT_BATCH_MAX_LINES;
+    private int consoleMaxLines = LogViewer.DEFAULT_MAX_LINES;
+    private long consoleMaxMemoryMb = MemoryUnit.MEGABYTE.convert(LogViewer.DEFAULT_MAX_BYTES);
+    private long consoleHistoryMb = MemoryUnit.MEGABYTE.convert(LogViewer.DEFAULT_HISTORY_BYTES);
+    private int consoleFloodLinesPerSecond = LogViewer.DEFAULT_FLOOD_LINES_PER_SECOND;
+    private boolean consoleRecordOutput = false;
+    private int consoleSessionsKept = SessionLog.DEFAULT_SESSIONS_KEPT;
+
     private List<String> recentCommands = new ArrayList<>();
 
     public boolean isInitialized() {
@@ -3,7 +3,11 @@ package org.bsdevelopment.servermaster.config;
 import com.eclipsesource.json.JsonArray;
 import com.eclipsesource.json.JsonValue;
 import org.bsdevelopment.servermaster.Constants;
+import org.bsdevelopment.servermaster.LogViewer;
+import org.bsdevelopment.servermaster.instance.server.ServerLaunchConfig;
+import org.bsdevelopment.servermaster.log.SessionLog;
 import org.bsdevelopment.servermaster.utils.JsonFile;
+import org.bsdevelopment.servermaster.utils.MemoryUnit;
 
 import java.io.File;
 import java.nio.file.Path;
@@ -25,6 +29,14 @@ public final class SettingsService {
 
                 setDefault("java-path", Constants.JAVA_MANAGER.getPrimaryInstallation().getJavaExecutable().getAbsolutePath());
                 setDefault("skip-startup-window", false);
+                setDefault("console-batch-window-ms", ServerLaunchConfig.DEFAULT_BATCH_WINDOW_MS);
+                setDefault("console-batch-max-lines", ServerLaunchConfig.DEFAULT_BATCH_MAX_LINES);
+                setDefault("console-max-lines", LogViewer.DEFAULT_MAX_LINES);
+                setDefault("console-max-memory-mb", MemoryUnit.MEGABYTE.convert(LogViewer.DEFAULT_MAX_BYTES));
+                setDefault("console-history-mb", MemoryUnit.MEGABYTE.convert(LogViewer.DEFAULT_HISTORY_BYTES));
+                setDefault("console-flood-lines-per-second", LogViewer.DEFAULT_FLOOD_LINES_PER_SECOND);
+                setDefault("console-record-output", false);
+                setDefault("console-sessions-kept", SessionLog.DEFAULT_SESSIONS_KEPT);
 
                 setDefault("recent-commands", new JsonArray());
             }
@@ -42,6 +54,14 @@ public final class SettingsService {
         settings.setMemory(memory);
         settings.setPort(port);
         settings.setSkipStartupWindow(file.getBoolean("skip-startup-window", false));
+        settings.setConsoleBatchWindowMs(Math.max(0, file.getLong("console-batch-window-ms", ServerLaunchConfig.DEFAULT_BATCH_WINDOW_MS)));
+        settings.setConsoleBatchMaxLines(Math.max(1, file.getInteger("console-batch-max-lines", ServerLaunchConfig.DEFAULT_BATCH_MAX_LINES)));
+        settings.setConsoleMaxLines(Math.max(1, file.getInteger("console-max-lines", LogViewer.DEFAULT_MAX_LINES)));
+        settings.setConsoleMaxMemoryMb(Math.max(1, file.getLong("console-max-memory-mb", MemoryUnit.MEGABYTE.convert(LogViewer.DEFAULT_MAX_BYTES))));
+        settings.setConsoleHistoryMb(Math.max(1, file.getLong("console-history-mb", MemoryUnit.MEGABYTE.convert(LogViewer.DEFAULT_HISTORY_BYTES))));
+        settings.setConsoleFloodLinesPerSecond(Math.max(1, file.getInteger("console-flood-lines-per-second", LogViewer.DEFAULT_FLOOD_LINES_PER_SECOND)));
+        settings.setConsoleRecordOutput(file.getBoolean("console-record-output", false));
+        settings.setConsoleSessionsKept(Math.max(1, file.getInteger("console-sessions-kept", SessionLog.DEFAULT_SESSIONS_KEPT)));
 
         if (!javaPath.isBlank()) {
             settings.setJavaPath(Path.of(javaPath));
@@ -62,6 +82,14 @@ public final class SettingsService {
         file.set("server-path", settings.getServerPath() != null ? settings.getServerPath().toString() : "");
         file.set("server-port", settings.getPort());
         file.set("skip-startup-window", settings.isSkipStartupWindow());
+        file.set("console-batch-window-ms", settings.getConsoleBatchWindowMs());
+        file.set("console-batch-max-lines", settings.getConsoleBatchMaxLines());
+        file.set("console-max-lines", settings.getConsoleMaxLines());
+        file.set("console-max-memory-mb", settings.getConsoleMaxMemoryMb());
+        file.set("console-history-mb", settings.getConsoleHistoryMb());
+        file.set("console-flood-lines-per-second", settings.getConsoleFloodLinesPerSecond());
+        file.set("console-record-output", settings.isConsoleRecordOutput());
+        file.set("console-sessions-kept", settings.getConsoleSessionsKept());
         file.set("java-path", settings.getJavaPath() != null ? settings.getJavaPath().toString() : Constants.JAVA_MANAGER.getPrimaryInstallation().getJavaExecutable().getAbsolutePath());
 
         file.set("recent-commands", writeRecentCommands(settings.getRecentCommands()));
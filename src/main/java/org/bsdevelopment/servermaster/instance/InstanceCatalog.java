@@ -1,30 +1,98 @@
 package org.bsdevelopment.servermaster.instance;
 
+import org.bsdevelopment.servermaster.Constants;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
-public final class InstanceCatalog {
+/**
+ * The server jars in {@code instance/<type>/}, indexed in memory as type → version → builds.
+ * <p>
+ * A type folder is listed once, the first time it is asked for. After that a {@link WatchService} on
+ * {@code instance/} and the listed type folders keeps the index up to date one file at a time, so the
+ * lookups behind the server dropdowns never touch the disk. Without a watch service (not every file system
+ * has one) every lookup lists the folder again, as before.
+ * <p>
+ * The index is saved to a snapshot next to {@code instance/} together with the modification time of every
+ * folder, and loaded from it on startup so the dropdowns are filled without listing anything. A background
+ * check then compares the folder times and lists the changed folders again, in parallel. The same check runs
+ * every {@value #RECHECK_INTERVAL_MS} ms after that, network mounts often deliver no watch events for changes
+ * made by another machine.
+ */
+public final class InstanceCatalog implements Closeable {
     private static final Pattern PAPER_LIKE = Pattern.compile("(?i)^(paper|purpur|folia|leaves|pufferfish)-([0-9]+(?:\\.[0-9]+)+)-([0-9]+)\\.jar$");
     private static final Pattern SPIGOT = Pattern.compile("(?i)^spigot-([0-9]+(?:\\.[0-9]+)+)\\.jar$");
+    private static final String SNAPSHOT_FILE = "instance-catalog.snapshot";
+    private static final int SNAPSHOT_MAGIC = 0x534D4943;
+    private static final int SNAPSHOT_VERSION = 1;
+    // A folder changed within this long before it was listed may change again without its time changing
+    private static final long MODIFIED_TIME_SLACK_MS = 2000;
+    private static final long RECHECK_INTERVAL_MS = 30_000;
     private final Path serverRoot;
+    private final JarStore jarStore;
+    private final PaperclipCache paperclip;
+
+    // Guarded by this
+    private final Map<String, TypeIndex> index = new HashMap<>();
+    private final Map<WatchKey, TypeIndex> typeKeys = new HashMap<>();
+    // Type folders not indexed yet, watched only so a new paperclip build is prepared before its first start
+    private final Map<WatchKey, String> unindexedTypes = new HashMap<>();
+    private List<String> types;
+    private long typesModified = -1;
+    private boolean dirty;
+    private final WatchService watcher;
+    private WatchKey rootKey;
+    private volatile boolean closed;
 
-    public InstanceCatalog(Path serverRoot) {
+    /**
+     * @param javaExecutable the java paperclip jars are prepared with, see {@link PaperclipCache}
+     */
+    public InstanceCatalog(Path serverRoot, Supplier<Path> javaExecutable) {
         this.serverRoot = serverRoot;
+        this.jarStore = new JarStore(serverRoot.resolve("jars"));
+        this.paperclip = new PaperclipCache(serverRoot.resolve("paperclip"), jarStore, javaExecutable);
         try {
             Files.createDirectories(instanceRoot());
         } catch (IOException e) {
             throw new RuntimeException("Failed to create 'instance' directory: " + instanceRoot(), e);
         }
+
+        this.watcher = openWatcher();
+        if (watcher != null) Thread.ofVirtual().name("ServerMaster-catalog-watch").start(this::watch);
+
+        // Without a watch nothing would keep the snapshot current
+        if (watcher != null) {
+            boolean loaded = loadSnapshot();
+            Thread.ofVirtual().name("ServerMaster-catalog-check").start(() -> recheck(loaded));
+        }
+        Thread.ofVirtual().name("ServerMaster-jar-prune").start(jarStore::prune);
     }
 
     public Path instanceRoot() {
@@ -35,115 +103,615 @@ public final class InstanceCatalog {
         return instanceRoot().resolve(type);
     }
 
-    public List<String> listServerTypes() throws IOException {
+    public synchronized List<String> listServerTypes() throws IOException {
+        if (types != null) return types;
+
         Path root = instanceRoot();
         if (!Files.isDirectory(root)) return List.of();
 
+        long listedAt = System.currentTimeMillis();
+        long modified = modifiedTime(root);
+        List<String> listed;
         try (Stream<Path> s = Files.list(root)) {
-            return s.filter(Files::isDirectory)
+            listed = s.filter(Files::isDirectory)
                     .map(p -> p.getFileName().toString())
                     .sorted(String.CASE_INSENSITIVE_ORDER)
                     .toList();
         }
-    }
-
-    public List<Entry> listEntries(String type) throws IOException {
-        Path dir = typeDir(type);
-        if (!Files.isDirectory(dir)) return List.of();
 
-        List<Entry> out = new ArrayList<>();
-        try (Stream<Path> s = Files.list(dir)) {
-            for (Path path : s.filter(Files::isRegularFile).toList()) {
-                String name = path.getFileName().toString();
-                if (!name.toLowerCase(Locale.ROOT).endsWith(".jar")) continue;
-                parseJarName(type, name, path).ifPresent(out::add);
-            }
+        if (watcher != null && rootKey != null && rootKey.isValid()) {
+            types = listed;
+            typesModified = trustedTime(modified, listedAt);
+            dirty = true;
         }
+        return listed;
+    }
 
-        out.sort(Comparator
-                .comparing(Entry::version, InstanceCatalog::compareVersionsLoose)
-                .thenComparing(e -> e.build().orElse(Integer.MIN_VALUE))
-                .thenComparing(e -> e.jarFileName().toLowerCase(Locale.ROOT)));
+    public synchronized List<Entry> listEntries(String type) throws IOException {
+        TypeIndex typeIndex = typeIndex(type);
+        return typeIndex == null ? List.of() : typeIndex.sorted();
+    }
 
-        return out;
+    public JarStore jarStore() {
+        return jarStore;
     }
 
-    public Path copyToRuntimeJar(String type, String version, Integer build) throws IOException {
+    /**
+     * Puts the matching jar in place as {@code runtimeJar}, linked from the {@link JarStore} where possible.
+     * For a paperclip jar the patched files prepared by the {@link PaperclipCache} are linked next to it.
+     */
+    public Path linkRuntimeJar(String type, String version, Integer build, Path runtimeJar) throws IOException {
         Entry entry = findJar(type, version, build)
                 .orElseThrow(() -> new IOException("No matching jar found for: type=" + type + ", version=" + version + ", build=" + build));
 
-        Path runtimeJar = serverRoot.resolve("server.jar");
-        Files.createDirectories(serverRoot);
-        Files.copy(entry.jarPath(), runtimeJar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        jarStore.materialize(entry.jarPath(), runtimeJar);
+        if (isPaperclip(entry.jarFileName()) && !paperclip.link(entry.jarPath(), runtimeJar.getParent())) {
+            Constants.LOGGER.fine(() -> entry.jarFileName() + " is not prepared yet, this start patches it");
+        }
         return runtimeJar;
     }
 
-    public List<String> listVersions(String type) throws IOException {
-        return listEntries(type).stream()
-                .map(Entry::version)
-                .distinct()
-                .sorted((a, b) -> compareVersionsLoose(b, a))
-                .toList();
+    private static boolean isPaperclip(String fileName) {
+        return PAPER_LIKE.matcher(fileName).matches();
     }
 
-    public List<Integer> listBuilds(String type, String version) throws IOException {
-        return listEntries(type).stream()
-                .filter(e -> e.version().equals(version))
-                .map(Entry::build)
-                .flatMap(Optional::stream)
-                .distinct()
-                .sorted(Comparator.reverseOrder())
-                .toList();
+    public synchronized List<String> listVersions(String type) throws IOException {
+        TypeIndex typeIndex = typeIndex(type);
+        return typeIndex == null ? List.of() : typeIndex.versions();
     }
 
-    public Optional<Entry> findJar(String type, String version, Integer build) throws IOException {
+    public synchronized List<Integer> listBuilds(String type, String version) throws IOException {
+        TypeIndex typeIndex = typeIndex(type);
+        return typeIndex == null ? List.of() : typeIndex.builds(version);
+    }
+
+    /**
+     * @param build the build to look for, or null for the spigot jar of the version or else its highest build
+     */
+    public synchronized Optional<Entry> findJar(String type, String version, Integer build) throws IOException {
+        TypeIndex typeIndex = typeIndex(type);
+        if (typeIndex == null) return Optional.empty();
+
+        if (build != null) return Optional.ofNullable(typeIndex.jar(version, build));
+
+        Entry spigot = typeIndex.jar(version, null);
+        return spigot != null ? Optional.of(spigot) : Optional.ofNullable(typeIndex.latestBuild(version));
+    }
+
+    /** Stops watching the instance folder and saves the snapshot. */
+    @Override
+    public void close() {
+        closed = true;
+        paperclip.close();
+        if (watcher == null) return;
+        try {
+            watcher.close();
+        } catch (IOException ignored) {
+        }
+        writeSnapshot();
+    }
+
+    /** @return the index of the type, listing its folder if it is not indexed yet; null without a folder */
+    private TypeIndex typeIndex(String type) throws IOException {
+        TypeIndex cached = index.get(type);
+        if (cached != null) return cached;
+
         Path dir = typeDir(type);
-        if (!Files.isDirectory(dir)) return Optional.empty();
+        if (!Files.isDirectory(dir)) return null;
 
-        String typeLower = type.toLowerCase(Locale.ROOT);
+        var typeIndex = new TypeIndex(type);
+        // Registered before listing, so no jar added in between is missed
+        typeIndex.key = register(dir);
+        typeIndex.list(dir);
+
+        if (typeIndex.key != null) {
+            index.put(type, typeIndex);
+            typeKeys.put(typeIndex.key, typeIndex);
+            dirty = true;
+        }
+        return typeIndex;
+    }
 
-        if (build != null) {
-            Path candidate = dir.resolve(typeLower + "-" + version + "-" + build + ".jar");
-            if (Files.isRegularFile(candidate)) {
-                return Optional.of(new Entry(type, version, Optional.of(build), candidate.getFileName().toString(), candidate));
+    private WatchKey register(Path dir) {
+        if (watcher == null) return null;
+        try {
+            return dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | ClosedWatchServiceException e) {
+            Constants.LOGGER.log(Level.FINE, "Could not watch " + dir, e);
+            return null;
+        }
+    }
+
+    /** Checks the snapshot if one was loaded, then the indexed folders every {@link #RECHECK_INTERVAL_MS}. */
+    private void recheck(boolean snapshotLoaded) {
+        if (snapshotLoaded) checkSnapshot();
+        try {
+            while (true) {
+                Thread.sleep(RECHECK_INTERVAL_MS);
+                if (closed) return;
+                checkSnapshot();
             }
-            return Optional.empty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+    }
 
-        Path spigotCandidate = dir.resolve("spigot-" + version + ".jar");
-        if (Files.isRegularFile(spigotCandidate)) {
-            return Optional.of(new Entry(type, version, Optional.empty(), spigotCandidate.getFileName().toString(), spigotCandidate));
+    /**
+     * Brings the indexed types up to date, the ones loaded from the snapshot or listed since. Every folder is
+     * checked on its own virtual thread, on a network mount most of the time goes into waiting for the server.
+     */
+    private void checkSnapshot() {
+        Path root = instanceRoot();
+        List<TypeIndex> loaded;
+        long recordedTypes;
+        synchronized (this) {
+            loaded = List.copyOf(index.values());
+            recordedTypes = typesModified;
         }
 
-        Pattern expected = Pattern.compile("(?i)^" + Pattern.quote(typeLower) + "-" + Pattern.quote(version) + "-([0-9]+)\\.jar$");
+        try {
+            long modified = modifiedTime(root);
+            if (modified != recordedTypes || recordedTypes < 0) {
+                synchronized (this) {
+                    types = null;
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                types = null;
+            }
+        }
 
-        Entry best = null;
-        int bestBuild = Integer.MIN_VALUE;
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (TypeIndex snapshot : loaded) {
+                executor.execute(() -> checkType(snapshot));
+            }
+        }
 
-        try (Stream<Path> s = Files.list(dir)) {
-            for (Path p : s.filter(Files::isRegularFile).toList()) {
-                String fileName = p.getFileName().toString();
-                Matcher m = expected.matcher(fileName);
-                if (!m.matches()) continue;
-
-                int b;
-                try {
-                    b = Integer.parseInt(m.group(1));
-                } catch (NumberFormatException ignored) {
-                    continue;
+        synchronized (this) {
+            if (dirty) writeSnapshot();
+        }
+    }
+
+    private void checkType(TypeIndex snapshot) {
+        Path dir = typeDir(snapshot.type);
+        var fresh = new TypeIndex(snapshot.type);
+        fresh.touched = new HashSet<>();
+
+        try {
+            if (!Files.isDirectory(dir)) {
+                synchronized (this) {
+                    index.remove(snapshot.type, snapshot);
+                    dirty = true;
                 }
+                return;
+            }
 
-                if (b > bestBuild) {
-                    bestBuild = b;
-                    best = new Entry(type, version, Optional.of(b), fileName, p);
+            // Registered before the time is compared, so no change in between is missed
+            fresh.key = register(dir);
+            if (fresh.key != null) {
+                synchronized (this) {
+                    typeKeys.put(fresh.key, fresh);
                 }
             }
+
+            long modified = modifiedTime(dir);
+            if (modified == snapshot.modified && snapshot.modified >= 0) {
+                fresh.copy(snapshot);
+            } else {
+                Constants.LOGGER.fine(() -> "Listing " + dir + " again, it changed since the catalog snapshot");
+                fresh.list(dir);
+            }
+        } catch (IOException e) {
+            Constants.LOGGER.log(Level.WARNING, "Could not check " + dir + " against the catalog snapshot", e);
+            synchronized (this) {
+                index.remove(snapshot.type, snapshot);
+                discard(fresh);
+            }
+            return;
         }
 
-        return Optional.ofNullable(best);
+        synchronized (this) {
+            // Jars that came or went while listing are looked at again
+            for (String fileName : fresh.touched) {
+                Path path = dir.resolve(fileName);
+                if (Files.isRegularFile(path)) fresh.put(fileName, path);
+                else fresh.remove(fileName);
+            }
+            fresh.touched = null;
+            if (fresh.modified != snapshot.modified) dirty = true;
+
+            // Builds that arrived without an event, a mount may not send any
+            for (Entry entry : fresh.listed.values()) {
+                if (!snapshot.listed.containsKey(entry.jarFileName()) && isPaperclip(entry.jarFileName())) paperclip.prepareLater(entry.jarPath());
+            }
+
+            if (fresh.key != null && fresh.key.isValid() && index.get(snapshot.type) == snapshot) {
+                index.put(snapshot.type, fresh);
+            } else {
+                // Deleted, not watchable or events were lost meanwhile, the next lookup lists the folder
+                index.remove(snapshot.type, snapshot);
+                discard(fresh);
+            }
+        }
+    }
+
+    /**
+     * Drops the index a check built. A folder registered twice has one key, if the folder was indexed again
+     * meanwhile its index keeps that key.
+     */
+    private void discard(TypeIndex fresh) {
+        if (fresh.key == null) return;
+
+        TypeIndex current = index.get(fresh.type);
+        if (current != null && current.key == fresh.key) typeKeys.put(fresh.key, current);
+        else forget(fresh.key);
+    }
+
+    /** @return whether a snapshot was loaded */
+    private boolean loadSnapshot() {
+        Path file = serverRoot.resolve(SNAPSHOT_FILE);
+        if (!Files.isRegularFile(file)) return false;
+
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) return false;
+            // The server folder may have moved, the snapshot's file paths would be wrong then
+            if (!in.readUTF().equals(instanceRoot().toAbsolutePath().toString())) return false;
+
+            long rootModified = in.readLong();
+            int typeCount = in.readInt();
+            List<String> loadedTypes = new ArrayList<>(Math.max(typeCount, 0));
+            for (int i = 0; i < typeCount; i++) loadedTypes.add(in.readUTF());
+
+            Map<String, TypeIndex> loaded = new HashMap<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                var typeIndex = new TypeIndex(in.readUTF());
+                typeIndex.modified = in.readLong();
+                Path dir = typeDir(typeIndex.type);
+                for (int f = in.readInt(); f > 0; f--) {
+                    String fileName = in.readUTF();
+                    typeIndex.put(fileName, dir.resolve(fileName));
+                }
+                loaded.put(typeIndex.type, typeIndex);
+            }
+
+            synchronized (this) {
+                if (typeCount >= 0) {
+                    types = List.copyOf(loadedTypes);
+                    typesModified = rootModified;
+                }
+                index.putAll(loaded);
+            }
+            return true;
+        } catch (IOException e) {
+            Constants.LOGGER.log(Level.WARNING, "Ignoring the unreadable catalog snapshot " + file, e);
+            return false;
+        }
+    }
+
+    private synchronized void writeSnapshot() {
+        Path file = serverRoot.resolve(SNAPSHOT_FILE);
+        Path temp = serverRoot.resolve(SNAPSHOT_FILE + ".tmp");
+
+        try {
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeUTF(instanceRoot().toAbsolutePath().toString());
+
+                out.writeLong(types == null ? -1 : typesModified);
+                out.writeInt(types == null ? -1 : types.size());
+                if (types != null) {
+                    for (String type : types) out.writeUTF(type);
+                }
+
+                out.writeInt(index.size());
+                for (TypeIndex typeIndex : index.values()) {
+                    out.writeUTF(typeIndex.type);
+                    out.writeLong(typeIndex.modified);
+                    out.writeInt(typeIndex.listed.size() + typeIndex.unlisted.size());
+                    for (String fileName : typeIndex.listed.keySet()) out.writeUTF(fileName);
+                    for (String fileName : typeIndex.unlisted.keySet()) out.writeUTF(fileName);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            Constants.LOGGER.log(Level.WARNING, "Could not write the catalog snapshot " + file, e);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static long modifiedTime(Path path) throws IOException {
+        return Files.getLastModifiedTime(path).toMillis();
+    }
+
+    /** @return the modification time if it can be trusted to change with the next change, otherwise -1 */
+    private static long trustedTime(long modified, long listedAt) {
+        return listedAt - modified < MODIFIED_TIME_SLACK_MS ? -1 : modified;
+    }
+
+    private WatchService openWatcher() {
+        try {
+            WatchService service = instanceRoot().getFileSystem().newWatchService();
+            rootKey = instanceRoot().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+            return service;
+        } catch (IOException | UnsupportedOperationException e) {
+            Constants.LOGGER.log(Level.WARNING, "Cannot watch " + instanceRoot() + ", server jars are listed on every lookup", e);
+            return null;
+        }
+    }
+
+    private void watch() {
+        watchUnindexedTypes();
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                synchronized (this) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        onEvent(key, event);
+                    }
+                    if (!key.reset()) forget(key);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // closed
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void onEvent(WatchKey key, WatchEvent<?> event) {
+        if (key == rootKey) {
+            // A type folder came or went, listing instance/ again is cheap
+            types = null;
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                TypeIndex removed = index.remove(event.context().toString());
+                if (removed != null) forget(removed.key);
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                Path dir = typeDir(event.context().toString());
+                if (Files.isDirectory(dir)) watchUnindexedType(dir, true);
+            }
+            return;
+        }
+
+        TypeIndex typeIndex = typeKeys.get(key);
+        if (typeIndex == null) {
+            String type = unindexedTypes.get(key);
+            if (type == null || event.kind() != StandardWatchEventKinds.ENTRY_CREATE) return;
+
+            // The first install of a type nothing looked up yet is prepared too
+            Path path = typeDir(type).resolve(event.context().toString());
+            if (isPaperclip(path.getFileName().toString()) && Files.isRegularFile(path)) paperclip.prepareLater(path);
+            return;
+        }
+        dirty = true;
+
+        if (typeIndex.touched != null && event.kind() != StandardWatchEventKinds.OVERFLOW) {
+            // Still being listed, see checkType
+            String fileName = event.context().toString();
+            typeIndex.touched.add(fileName);
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && isPaperclip(fileName)) {
+                paperclip.prepareLater(typeDir(typeIndex.type).resolve(fileName));
+            }
+            return;
+        }
+
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            // Events were lost, list the folder again on the next lookup
+            forget(key);
+            return;
+        }
+
+        String fileName = event.context().toString();
+        if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+            typeIndex.remove(fileName);
+        } else {
+            Path path = typeDir(typeIndex.type).resolve(fileName);
+            if (!Files.isRegularFile(path)) return;
+
+            typeIndex.put(fileName, path);
+            // A new build, patched before its first start
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && isPaperclip(fileName)) paperclip.prepareLater(path);
+        }
+    }
+
+    /** Watches the type folders that are not indexed, indexing them would list every one of them. */
+    private void watchUnindexedTypes() {
+        try (Stream<Path> s = Files.list(instanceRoot())) {
+            for (Path dir : s.filter(Files::isDirectory).toList()) watchUnindexedType(dir, false);
+        } catch (IOException e) {
+            Constants.LOGGER.log(Level.FINE, "Could not watch the type folders in " + instanceRoot(), e);
+        }
+    }
+
+    /**
+     * @param prepareExisting whether to prepare the paperclip jars already in the folder, for a folder that was
+     *                        just created with its jars in it
+     */
+    private synchronized void watchUnindexedType(Path dir, boolean prepareExisting) {
+        String type = dir.getFileName().toString();
+        if (index.containsKey(type)) return;
+
+        // Registered before listing, so no jar added in between is missed
+        WatchKey key = register(dir);
+        if (key == null || typeKeys.containsKey(key)) return;
+        unindexedTypes.put(key, type);
+        if (!prepareExisting) return;
+
+        try (Stream<Path> s = Files.list(dir)) {
+            for (Path path : s.filter(p -> isPaperclip(p.getFileName().toString())).filter(Files::isRegularFile).toList()) {
+                paperclip.prepareLater(path);
+            }
+        } catch (IOException e) {
+            Constants.LOGGER.log(Level.FINE, "Could not list " + dir, e);
+        }
+    }
+
+    private void forget(WatchKey key) {
+        if (key == null) return;
+        if (key == rootKey) {
+            types = null;
+            return;
+        }
+
+        key.cancel();
+        unindexedTypes.remove(key);
+        TypeIndex typeIndex = typeKeys.remove(key);
+        if (typeIndex != null) index.remove(typeIndex.type, typeIndex);
+    }
+
+    /**
+     * The jars of one type folder. The sorted views are built from the jars in memory after a change.
+     */
+    private final class TypeIndex {
+        private final String type;
+        // Jars named <type>-<version>-<build>.jar that the dropdowns do not list but findJar finds
+        private final Pattern named;
+        private final Map<String, Entry> listed = new HashMap<>();
+        private final Map<String, Entry> unlisted = new HashMap<>();
+        private WatchKey key;
+        // The folder's modification time when it was listed, -1 if it cannot be trusted
+        private long modified = -1;
+        // While listing in the background, the jars that changed meanwhile
+        private Set<String> touched;
+
+        private List<Entry> sorted;
+        private List<String> versions;
+        private Map<String, List<Integer>> builds;
+        private Map<String, Entry> jars;
+
+        private TypeIndex(String type) {
+            this.type = type;
+            this.named = Pattern.compile("(?i)^" + Pattern.quote(type.toLowerCase(Locale.ROOT)) + "-(.+)-([0-9]+)\\.jar$");
+        }
+
+        private void list(Path dir) throws IOException {
+            long listedAt = System.currentTimeMillis();
+            long dirModified = modifiedTime(dir);
+
+            try (Stream<Path> s = Files.list(dir)) {
+                for (Path path : s.filter(Files::isRegularFile).toList()) {
+                    put(path.getFileName().toString(), path);
+                }
+            }
+            modified = trustedTime(dirModified, listedAt);
+        }
+
+        private void copy(TypeIndex other) {
+            listed.putAll(other.listed);
+            unlisted.putAll(other.unlisted);
+            modified = other.modified;
+            sorted = null;
+        }
+
+        private void put(String fileName, Path path) {
+            remove(fileName);
+            if (!fileName.toLowerCase(Locale.ROOT).endsWith(".jar")) return;
+
+            Optional<Entry> entry = parseJarName(type, fileName, path);
+            if (entry.isPresent()) {
+                listed.put(fileName, entry.get());
+                return;
+            }
+
+            Matcher m = named.matcher(fileName);
+            if (!m.matches()) return;
+            try {
+                unlisted.put(fileName, new Entry(type, m.group(1), Optional.of(Integer.parseInt(m.group(2))), fileName, path));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+
+        private void remove(String fileName) {
+            listed.remove(fileName);
+            unlisted.remove(fileName);
+            sorted = null;
+        }
+
+        private List<Entry> sorted() {
+            derive();
+            return sorted;
+        }
+
+        private List<String> versions() {
+            derive();
+            return versions;
+        }
+
+        private List<Integer> builds(String version) {
+            derive();
+            return builds.getOrDefault(version, List.of());
+        }
+
+        private Entry jar(String version, Integer build) {
+            derive();
+            return jars.get(jarKey(version, build));
+        }
+
+        private Entry latestBuild(String version) {
+            derive();
+            Entry best = null;
+            for (Entry entry : unlisted.values()) {
+                if (entry.version().equals(version) && (best == null || entry.build().get() > best.build().get())) best = entry;
+            }
+            List<Integer> listedBuilds = builds.getOrDefault(version, List.of());
+            if (!listedBuilds.isEmpty() && (best == null || listedBuilds.getFirst() > best.build().get())) {
+                best = jars.get(jarKey(version, listedBuilds.getFirst()));
+            }
+            return best;
+        }
+
+        private void derive() {
+            if (sorted != null) return;
+
+            List<Entry> out = new ArrayList<>(listed.values());
+            out.sort(Comparator
+                    .comparing(Entry::version, InstanceCatalog::compareVersionsLoose)
+                    .thenComparing(e -> e.build().orElse(Integer.MIN_VALUE))
+                    .thenComparing(e -> e.jarFileName().toLowerCase(Locale.ROOT)));
+
+            versions = out.stream()
+                    .map(Entry::version)
+                    .distinct()
+                    .sorted((a, b) -> compareVersionsLoose(b, a))
+                    .toList();
+
+            Map<String, List<Integer>> byVersion = new HashMap<>();
+            for (String version : versions) {
+                byVersion.put(version, out.stream()
+                        .filter(e -> e.version().equals(version))
+                        .map(Entry::build)
+                        .flatMap(Optional::stream)
+                        .distinct()
+                        .sorted(Comparator.reverseOrder())
+                        .toList());
+            }
+
+            // The jar named after the folder wins over another flavour with the same version and build
+            Map<String, Entry> byKey = new HashMap<>();
+            for (Entry entry : out) {
+                String key = jarKey(entry.version(), entry.build().orElse(null));
+                if (entry.jarFileName().toLowerCase(Locale.ROOT).startsWith(type.toLowerCase(Locale.ROOT) + "-")) byKey.put(key, entry);
+                else byKey.putIfAbsent(key, entry);
+            }
+            for (Entry entry : unlisted.values()) byKey.putIfAbsent(jarKey(entry.version(), entry.build().orElse(null)), entry);
+
+            sorted = List.copyOf(out);
+            builds = byVersion;
+            jars = byKey;
+        }
+
+        private static String jarKey(String version, Integer build) {
+            return build == null ? version : version + "#" + build;
+        }
     }
 
-    private Optional<Entry> parseJarName(String folderType, String jarFileName, Path jarPath) {
+    private static Optional<Entry> parseJarName(String folderType, String jarFileName, Path jarPath) {
         Matcher m1 = PAPER_LIKE.matcher(jarFileName);
         if (m1.matches()) {
             String version = m1.group(2);
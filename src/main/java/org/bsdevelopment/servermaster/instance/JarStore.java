@@ -0,0 +1,293 @@
+package org.bsdevelopment.servermaster.instance;
+
+import org.bsdevelopment.servermaster.Constants;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+
+/**
+ * Jars filed under their SHA-256, as {@code <root>/<first two hex digits>/<sha256>.jar}: the server jars, and
+ * the libraries and vanilla jars paperclip extracts (see {@link PaperclipCache}), which are mostly the same
+ * across builds.
+ * <p>
+ * A jar is added by hard-linking it into the store, so the store itself costs no space. A second jar with
+ * the same content, in another type folder or under another name, is replaced by a link to the stored one.
+ * Runtime jars are hard links to the stored jar too: starting a server again only checks that its
+ * {@code server.jar} already is that file, instead of copying 50 to 100 MB.
+ * <p>
+ * Where hard links are not possible (another drive, FAT) runtime jars are copied as before, but a copy
+ * whose digest is known to match is not copied again. Digests are kept in {@code digests.idx}, keyed by
+ * the file's size and modification time, so a jar is only hashed once.
+ */
+public final class JarStore {
+    private static final String INDEX_FILE = "digests.idx";
+    private static final int INDEX_MAGIC = 0x534D4A53;
+    private static final int INDEX_VERSION = 1;
+    private static final int READ_BUFFER_BYTES = 1024 * 1024;
+
+    private final Path root;
+    private final Map<Path, Digest> digests = new HashMap<>();
+    private boolean dirty;
+
+    private record Digest(long size, long modifiedMillis, String sha256) {
+        private boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size() && modifiedMillis == attributes.lastModifiedTime().toMillis();
+        }
+    }
+
+    public JarStore(Path root) {
+        this.root = root;
+        readIndex();
+    }
+
+    public Path root() {
+        return root;
+    }
+
+    /** @return the SHA-256 of the jar in hex, hashed only if the jar changed since it was last hashed */
+    public synchronized String digest(Path jar) throws IOException {
+        Path key = jar.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+
+        Digest known = digests.get(key);
+        if (known != null && known.matches(attributes)) return known.sha256();
+
+        String sha256 = hash(key);
+        remember(key, attributes, sha256);
+        return sha256;
+    }
+
+    /**
+     * Remembers the digest of a jar that was hashed while it was written, the installer hashes downloads
+     * on the fly.
+     */
+    public synchronized void remember(Path jar, String sha256) throws IOException {
+        Path key = jar.toAbsolutePath().normalize();
+        remember(key, Files.readAttributes(key, BasicFileAttributes.class), sha256);
+        writeIndex();
+    }
+
+    /**
+     * Files the jar in the store. If the store already has a jar with the same content, {@code jar} is
+     * replaced by a link to it.
+     *
+     * @return the stored jar, or {@code jar} itself if it cannot be linked into the store
+     */
+    public synchronized Path add(Path jar) throws IOException {
+        try {
+            return store(jar, digest(jar));
+        } finally {
+            writeIndex();
+        }
+    }
+
+    /**
+     * {@link #add(Path) Adds} every jar, writing the digests once at the end.
+     *
+     * @return how many of them had the content of a jar already in the store
+     */
+    public synchronized int addAll(List<Path> jars) throws IOException {
+        int shared = 0;
+        try {
+            for (Path jar : jars) {
+                String sha256 = digest(jar);
+                if (Files.isRegularFile(blobPath(sha256))) shared++;
+                store(jar, sha256);
+            }
+        } finally {
+            writeIndex();
+        }
+        return shared;
+    }
+
+    /**
+     * Makes {@code target} a jar with the content of {@code jar}: a hard link to the stored jar if possible,
+     * otherwise a copy. Nothing is done if the target already has that content.
+     */
+    public synchronized Path materialize(Path jar, Path target) throws IOException {
+        try {
+            String sha256 = digest(jar);
+            Path stored = store(jar, sha256);
+
+            if (Files.isRegularFile(target)) {
+                if (Files.isSameFile(stored, target)) return target;
+                if (digest(target).equals(sha256)) return target;
+            }
+
+            Files.createDirectories(target.getParent());
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            Files.deleteIfExists(temp);
+            if (!link(temp, stored)) {
+                Files.copy(stored, temp, StandardCopyOption.COPY_ATTRIBUTES);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            Path key = target.toAbsolutePath().normalize();
+            remember(key, Files.readAttributes(key, BasicFileAttributes.class), sha256);
+            return target;
+        } finally {
+            writeIndex();
+        }
+    }
+
+    /**
+     * Deletes the stored jars nothing links to any more, their last jar in {@code instance/} and every runtime
+     * jar using them are gone. Only works where the file system reports link counts.
+     *
+     * @return how many jars were deleted
+     */
+    public synchronized int prune() {
+        if (!Files.isDirectory(root)) return 0;
+
+        int deleted = 0;
+        try (Stream<Path> s = Files.walk(root, 2)) {
+            for (Path blob : s.filter(p -> p.getFileName().toString().endsWith(".jar")).toList()) {
+                Object links = Files.getAttribute(blob, "unix:nlink");
+                if (!(links instanceof Integer count) || count > 1) continue;
+
+                Files.delete(blob);
+                deleted++;
+            }
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return deleted;
+        } catch (IOException e) {
+            Constants.LOGGER.log(Level.WARNING, "Could not clean up the jar store " + root, e);
+        }
+
+        // Forget the digests of files that are gone, they would never match again
+        if (digests.keySet().removeIf(path -> !Files.exists(path))) dirty = true;
+        writeIndex();
+        return deleted;
+    }
+
+    private Path store(Path jar, String sha256) throws IOException {
+        Path blob = blobPath(sha256);
+
+        if (Files.isRegularFile(blob) && !digest(blob).equals(sha256)) {
+            // Changed in place through one of its links, it is no longer what its name says
+            Constants.LOGGER.warning(() -> "Stored jar " + blob + " was modified, replacing it");
+            Files.delete(blob);
+        }
+
+        if (!Files.isRegularFile(blob)) {
+            Files.createDirectories(blob.getParent());
+            if (!link(blob, jar)) return jar;
+
+            remember(blob, Files.readAttributes(blob, BasicFileAttributes.class), sha256);
+            return blob;
+        }
+
+        if (!Files.isSameFile(blob, jar)) {
+            // Same content filed twice, keep one copy
+            Path temp = jar.resolveSibling(jar.getFileName() + ".link");
+            Files.deleteIfExists(temp);
+            if (link(temp, blob)) {
+                Files.move(temp, jar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Path key = jar.toAbsolutePath().normalize();
+                remember(key, Files.readAttributes(key, BasicFileAttributes.class), sha256);
+                Constants.LOGGER.fine(() -> "Deduplicated " + jar + " into " + blob);
+            }
+        }
+        return blob;
+    }
+
+    private Path blobPath(String sha256) {
+        return root.resolve(sha256.substring(0, 2)).resolve(sha256 + ".jar");
+    }
+
+    /** @return whether the link was created, false if the file system cannot link the two */
+    private static boolean link(Path link, Path existing) throws IOException {
+        try {
+            Files.createLink(link, existing);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (UnsupportedOperationException | IOException e) {
+            Constants.LOGGER.log(Level.FINE, "Could not hard-link " + existing + ", copying instead", e);
+            return false;
+        }
+    }
+
+    private void remember(Path key, BasicFileAttributes attributes, String sha256) {
+        digests.put(key.toAbsolutePath().normalize(), new Digest(attributes.size(), attributes.lastModifiedTime().toMillis(), sha256));
+        dirty = true;
+    }
+
+    private static String hash(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[READ_BUFFER_BYTES];
+            int read;
+            while ((read = in.read(buffer)) != -1) digest.update(buffer, 0, read);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private void readIndex() {
+        Path file = root.resolve(INDEX_FILE);
+        if (!Files.isRegularFile(file)) return;
+
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) return;
+
+            for (int i = in.readInt(); i > 0; i--) {
+                Path path = Path.of(in.readUTF());
+                digests.put(path, new Digest(in.readLong(), in.readLong(), in.readUTF()));
+            }
+        } catch (IOException | RuntimeException e) {
+            // Only a cache, the jars are hashed again
+            Constants.LOGGER.log(Level.WARNING, "Ignoring the unreadable jar digests " + file, e);
+            digests.clear();
+        }
+    }
+
+    private void writeIndex() {
+        if (!dirty) return;
+
+        Path file = root.resolve(INDEX_FILE);
+        Path temp = root.resolve(INDEX_FILE + ".tmp");
+        try {
+            Files.createDirectories(root);
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(INDEX_VERSION);
+                out.writeInt(digests.size());
+                for (Map.Entry<Path, Digest> entry : digests.entrySet()) {
+                    out.writeUTF(entry.getKey().toString());
+                    out.writeLong(entry.getValue().size());
+                    out.writeLong(entry.getValue().modifiedMillis());
+                    out.writeUTF(entry.getValue().sha256());
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            Constants.LOGGER.log(Level.WARNING, "Could not write the jar digests " + file, e);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package org.bsdevelopment.servermaster.instance;
+
+import org.bsdevelopment.servermaster.Constants;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+
+/**
+ * Paper and its forks ship as a paperclip launcher that, on the first start, downloads the vanilla jar and
+ * patches it into {@code cache/}, {@code versions/} and {@code libraries/} of the server folder. That takes
+ * many seconds and happens again in every new instance.
+ * <p>
+ * This cache runs the patch step once per build, in the background, as soon as the jar shows up, and keeps
+ * the result in {@code <root>/<sha256 of the jar>/}. Starting an instance hard-links the prepared files into
+ * its folder, where paperclip finds them up to date and starts right away.
+ * <p>
+ * The libraries and the vanilla jar are mostly the same from one build to the next. They are filed in the
+ * {@link JarStore}, so every artifact is kept and hashed once, and all builds and instances link to that
+ * one copy.
+ */
+public final class PaperclipCache {
+    private static final List<String> OUTPUTS = List.of("cache", "versions", "libraries");
+    private static final String COMPLETE = ".complete";
+    private static final long PATCH_TIMEOUT_MINUTES = 10;
+    // A jar that is still being copied must not be patched half written
+    private static final long SETTLE_MS = 2000;
+
+    private final Path root;
+    private final JarStore jarStore;
+    private final Supplier<Path> javaExecutable;
+    private final Set<Path> pending = new HashSet<>();
+    // One patch at a time, each one downloads a vanilla jar and keeps a JVM busy
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("ServerMaster-paperclip").factory());
+
+    /**
+     * @param javaExecutable the java to run paperclip with, null for the {@code java} on the path
+     */
+    public PaperclipCache(Path root, JarStore jarStore, Supplier<Path> javaExecutable) {
+        this.root = root;
+        this.jarStore = jarStore;
+        this.javaExecutable = javaExecutable;
+    }
+
+    /** Prepares the jar in the background, unless it already is or is being prepared. */
+    public void prepareLater(Path jar) {
+        Path key = jar.toAbsolutePath().normalize();
+        synchronized (pending) {
+            if (!pending.add(key)) return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    prepare(key);
+                } catch (IOException e) {
+                    Constants.LOGGER.log(Level.WARNING, "Could not prepare " + key.getFileName() + ", its first start patches it instead", e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    synchronized (pending) {
+                        pending.remove(key);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            // Shut down
+            synchronized (pending) {
+                pending.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Links the prepared files of the jar into the server folder. A file the folder already has is replaced,
+     * unless it is that prepared file (or, where links are not possible, a copy of it).
+     *
+     * @return false if the jar is not prepared yet, it is then prepared for the next start
+     */
+    public boolean link(Path jar, Path serverFolder) throws IOException {
+        Path prepared = root.resolve(jarStore.digest(jar));
+        if (!Files.isRegularFile(prepared.resolve(COMPLETE))) {
+            prepareLater(jar);
+            return false;
+        }
+
+        for (String output : OUTPUTS) {
+            Path from = prepared.resolve(output);
+            if (!Files.isDirectory(from)) continue;
+
+            try (Stream<Path> s = Files.walk(from)) {
+                for (Path file : s.filter(Files::isRegularFile).toList()) {
+                    Path target = serverFolder.resolve(prepared.relativize(file).toString());
+                    if (isLinked(file, target)) continue;
+
+                    // Replaced in one step, a stale file left by an older build never survives half way
+                    Files.createDirectories(target.getParent());
+                    Path temp = target.resolveSibling(target.getFileName() + ".link");
+                    Files.deleteIfExists(temp);
+                    try {
+                        Files.createLink(temp, file);
+                    } catch (UnsupportedOperationException | IOException e) {
+                        Files.copy(file, temp, StandardCopyOption.COPY_ATTRIBUTES);
+                    }
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+        }
+        return true;
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /** @return whether the target is the prepared file, or a copy of it with its size and time */
+    private static boolean isLinked(Path prepared, Path target) throws IOException {
+        if (!Files.isRegularFile(target)) return false;
+        if (Files.isSameFile(prepared, target)) return true;
+
+        BasicFileAttributes from = Files.readAttributes(prepared, BasicFileAttributes.class);
+        BasicFileAttributes to = Files.readAttributes(target, BasicFileAttributes.class);
+        return from.size() == to.size() && from.lastModifiedTime().equals(to.lastModifiedTime());
+    }
+
+    private void prepare(Path jar) throws IOException, InterruptedException {
+        if (!awaitSettled(jar)) return;
+
+        String sha256 = jarStore.digest(jar);
+        Path prepared = root.resolve(sha256);
+        if (Files.isRegularFile(prepared.resolve(COMPLETE))) return;
+
+        Path work = root.resolve(sha256 + ".tmp");
+        deleteTree(work);
+        deleteTree(prepared);
+        Files.createDirectories(work);
+
+        Path serverJar = jarStore.materialize(jar, work.resolve("server.jar"));
+        Path java = javaExecutable == null ? null : javaExecutable.get();
+
+        var pb = new ProcessBuilder(java == null ? "java" : java.toAbsolutePath().toString(),
+                "-Dpaperclip.patchonly=true", "-jar", serverJar.getFileName().toString());
+        pb.directory(work.toFile());
+        pb.redirectErrorStream(true);
+
+        long start = System.nanoTime();
+        Constants.LOGGER.info(() -> "Preparing " + jar.getFileName() + " in the background");
+        Process process = pb.start();
+        try {
+            Thread.ofVirtual().name("ServerMaster-paperclip-output").start(() -> {
+                try (var reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String text = line;
+                        Constants.LOGGER.fine(() -> "[paperclip] " + text);
+                    }
+                } catch (IOException ignored) {
+                }
+            });
+
+            if (!process.waitFor(PATCH_TIMEOUT_MINUTES, TimeUnit.MINUTES)) throw new IOException("Paperclip did not finish within " + PATCH_TIMEOUT_MINUTES + " minutes");
+            if (process.exitValue() != 0) throw new IOException("Paperclip failed (exit code " + process.exitValue() + ")");
+        } finally {
+            process.destroyForcibly();
+        }
+
+        if (OUTPUTS.stream().noneMatch(output -> Files.isDirectory(work.resolve(output)))) {
+            deleteTree(work);
+            throw new IOException("Paperclip produced nothing, " + jar.getFileName() + " may not be a paperclip jar");
+        }
+
+        Files.delete(serverJar);
+        Files.createFile(work.resolve(COMPLETE));
+        Files.move(work, prepared, StandardCopyOption.ATOMIC_MOVE);
+
+        int shared = share(prepared);
+        Constants.LOGGER.info(() -> "Prepared " + jar.getFileName() + " in " + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start)
+                + " s, " + shared + " of the jars it extracted were already stored");
+    }
+
+    /** Replaces the extracted jars by links into the jar store. */
+    private int share(Path prepared) throws IOException {
+        List<Path> jars = new ArrayList<>();
+        for (String output : OUTPUTS) {
+            Path dir = prepared.resolve(output);
+            if (!Files.isDirectory(dir)) continue;
+
+            try (Stream<Path> s = Files.walk(dir)) {
+                s.filter(file -> file.getFileName().toString().endsWith(".jar")).filter(Files::isRegularFile).forEach(jars::add);
+            }
+        }
+        return jarStore.addAll(jars);
+    }
+
+    /** @return false if the jar is gone */
+    private static boolean awaitSettled(Path jar) throws InterruptedException {
+        BasicFileAttributes before = null;
+        while (true) {
+            BasicFileAttributes now;
+            try {
+                now = Files.readAttributes(jar, BasicFileAttributes.class);
+            } catch (IOException e) {
+                return false;
+            }
+
+            if (before != null && before.size() == now.size() && before.lastModifiedTime().equals(now.lastModifiedTime())) return true;
+            before = now;
+            Thread.sleep(SETTLE_MS);
+        }
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+
+        try (Stream<Path> s = Files.walk(dir)) {
+            for (Path path : s.sorted(Comparator.reverseOrder()).toList()) Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.bsdevelopment.servermaster.instance.server;
+
+import org.bsdevelopment.servermaster.Constants;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+
+/**
+ * The private working directory of a single server instance.
+ * <pre>
+ * serverRoot/
+ *   shared/                 read-only assets every instance gets (plugins, eula.txt, server-icon.png, ...)
+ *   jars/                   server jars by SHA-256, hard-linked as every instance's server.jar (see JarStore)
+ *   paperclip/              patched paperclip builds, linked into the instances that run them (see PaperclipCache)
+ *   runtime/&lt;instanceId&gt;/
+ *     server.jar
+ *     server.properties
+ *     logs/
+ *     sessions/             everything ServerMaster captured, one folder per start (see SessionLog)
+ *     log-archives.idx      statistics of the archives in logs/ (see LogArchiveAnalytics)
+ *     World_&lt;version&gt;/
+ * </pre>
+ * The files of {@code shared/} are symbolic links in the instances (copies where links are not possible), so
+ * only files servers never write belong there. Folders are copied into an instance the first time it is
+ * prepared: plugins keep their data in them, every instance writes to its own copy. The world always
+ * belongs to the instance.
+ */
+public record InstanceDirectory(String instanceId, Path root, Path sharedRoot, Path propertiesTemplate) {
+    public InstanceDirectory {
+        Objects.requireNonNull(instanceId, "instanceId");
+        Objects.requireNonNull(root, "root");
+        Objects.requireNonNull(sharedRoot, "sharedRoot");
+    }
+
+    public Path runtimeJar() {
+        return root.resolve("server.jar");
+    }
+
+    public Path serverProperties() {
+        return root.resolve("server.properties");
+    }
+
+    public Path logsDirectory() {
+        return root.resolve("logs");
+    }
+
+    public Path sessionsDirectory() {
+        return root.resolve("sessions");
+    }
+
+    public Path logArchiveIndex() {
+        return root.resolve("log-archives.idx");
+    }
+
+    /** @return the world folder a server of the version uses, its {@code level-name} */
+    public static String worldName(String version) {
+        return "World_" + version;
+    }
+
+    /**
+     * Creates the directory if needed, seeds its server.properties from the template and puts in every
+     * entry of the shared folder that the instance does not already have its own copy of: files as links,
+     * folders as a copy of their own.
+     */
+    public InstanceDirectory prepare() throws IOException {
+        Files.createDirectories(root);
+        Files.createDirectories(sharedRoot);
+
+        if (propertiesTemplate != null && Files.isRegularFile(propertiesTemplate) && !Files.exists(serverProperties())) {
+            Files.copy(propertiesTemplate, serverProperties());
+        }
+
+        try (Stream<Path> s = Files.list(sharedRoot)) {
+            for (Path shared : s.toList()) {
+                Path target = root.resolve(shared.getFileName().toString());
+                if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) continue;
+
+                if (Files.isDirectory(shared)) copyTree(shared, target);
+                else linkShared(shared, target);
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Moves the world a server of the version left in {@code serverRoot}, back when every server ran there,
+     * into this instance. The first instance of the version started afterwards gets it, as its own.
+     *
+     * @return whether a world was moved
+     */
+    public boolean adoptLegacyWorld(Path serverRoot, String version) throws IOException {
+        String name = worldName(version);
+        Path legacy = serverRoot.resolve(name);
+        Path target = root.resolve(name);
+        if (!Files.isDirectory(legacy, LinkOption.NOFOLLOW_LINKS) || Files.exists(target, LinkOption.NOFOLLOW_LINKS)) return false;
+
+        Files.move(legacy, target);
+        Constants.LOGGER.info(() -> "Moved the world " + legacy + " into the instance " + instanceId);
+        return true;
+    }
+
+    /**
+     * Moves the {@code plugins} folder servers left in {@code serverRoot}, back when every server ran there,
+     * into {@code shared/}, from where every instance gets a copy. Nothing is moved if {@code shared/} already
+     * has one. The worlds are moved into the instances one by one, see {@link #adoptLegacyWorld}.
+     */
+    public static void migrateLegacyLayout(Path serverRoot, Path sharedRoot) {
+        Path from = serverRoot.resolve("plugins");
+        if (!Files.isDirectory(from, LinkOption.NOFOLLOW_LINKS)) return;
+
+        Path to = sharedRoot.resolve("plugins");
+        if (Files.exists(to, LinkOption.NOFOLLOW_LINKS)) {
+            Constants.LOGGER.warning(() -> from + " is left where it is, " + to + " already exists");
+            return;
+        }
+
+        try {
+            Files.createDirectories(sharedRoot);
+            Files.move(from, to);
+            Constants.LOGGER.info(() -> "Moved " + from + " to " + to + ", every instance gets a copy of it");
+        } catch (IOException e) {
+            Constants.LOGGER.log(Level.WARNING, "Could not move " + from + " to " + to, e);
+        }
+    }
+
+    private static void linkShared(Path shared, Path target) throws IOException {
+        try {
+            Files.createSymbolicLink(target, shared.toAbsolutePath());
+        } catch (FileAlreadyExistsException ignored) {
+            // another launch of the same instance got there first
+        } catch (UnsupportedOperationException | IOException e) {
+            // Symlinks need extra privileges on Windows, fall back to a copy
+            Constants.LOGGER.log(Level.FINE, "Could not link shared asset " + shared + ", copying instead", e);
+            Files.copy(shared, target, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+    }
+
+    /** Copies the folder next to the target first, an interrupted copy never passes for a complete one. */
+    private static void copyTree(Path source, Path target) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        deleteTree(temp);
+
+        try (Stream<Path> s = Files.walk(source)) {
+            for (Path path : s.toList()) {
+                Path copy = temp.resolve(source.relativize(path).toString());
+                if (Files.isDirectory(path)) Files.createDirectories(copy);
+                else Files.copy(path, copy, StandardCopyOption.COPY_ATTRIBUTES);
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        if (!Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) return;
+
+        try (Stream<Path> s = Files.walk(dir)) {
+            for (Path path : s.sorted(Comparator.reverseOrder()).toList()) Files.delete(path);
+        }
+    }
+}
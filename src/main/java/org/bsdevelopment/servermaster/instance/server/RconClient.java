@@ -0,0 +1,132 @@
+package org.bsdevelopment.servermaster.instance.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Minimal client for the Minecraft RCON protocol, used to send commands to servers ServerMaster did not start
+ * and therefore has no stdin for. Connects on first use and again after the connection was lost.
+ * <p>
+ * A packet is {@code [length][requestId][type][payload][0][0]}, all ints little-endian. A reply longer than
+ * 4096 characters is split over several packets with no marker on the last one, so once the first of them
+ * arrived an empty command is sent: its reply comes after the last packet of the command's reply. Vanilla
+ * takes one packet per read from the socket, an empty command sent along with the command would be lost.
+ */
+public final class RconClient implements Closeable {
+    private static final int TYPE_COMMAND = 2;
+    private static final int TYPE_LOGIN = 3;
+    private static final int AUTH_FAILED = -1;
+    private static final int TIMEOUT_MS = 5000;
+    private static final int MAX_COMMAND_BYTES = 4096;
+    // Replies are split every 4096 characters, which take up to three bytes each in UTF-8
+    private static final int MAX_REPLY_PACKET_BYTES = 3 * 4096 + 14;
+
+    private final String host;
+    private final int port;
+    private final String password;
+
+    private Socket socket;
+    private DataInputStream in;
+    private OutputStream out;
+    private int nextRequestId = 1;
+
+    private record Packet(int id, byte[] payload) {}
+
+    public RconClient(String host, int port, String password) {
+        this.host = Objects.requireNonNull(host, "host");
+        this.port = port;
+        this.password = Objects.requireNonNull(password, "password");
+    }
+
+    /**
+     * Runs a command and waits for its reply.
+     *
+     * @return the server's reply, may be empty
+     */
+    public synchronized String command(String command) throws IOException {
+        try {
+            if (socket == null) connect();
+            return receive(send(TYPE_COMMAND, command));
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (socket == null) return;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+        socket = null;
+        in = null;
+        out = null;
+    }
+
+    private void connect() throws IOException {
+        socket = new Socket();
+        socket.connect(new InetSocketAddress(host, port), TIMEOUT_MS);
+        socket.setSoTimeout(TIMEOUT_MS);
+        in = new DataInputStream(socket.getInputStream());
+        out = socket.getOutputStream();
+
+        int id = send(TYPE_LOGIN, password);
+        int replyId = readPacket().id();
+        if (replyId == AUTH_FAILED || replyId != id) throw new IOException("RCON login to " + host + ":" + port + " was refused, check rcon.password");
+    }
+
+    private int send(int type, String payload) throws IOException {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_COMMAND_BYTES) throw new IOException("Command is too long for RCON");
+
+        int id = nextRequestId++;
+        var packet = ByteBuffer.allocate(bytes.length + 14).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(bytes.length + 10).putInt(id).putInt(type).put(bytes).put((byte) 0).put((byte) 0);
+        out.write(packet.array());
+        out.flush();
+        return id;
+    }
+
+    /** Collects the packets of the reply to {@code id} until the reply to the empty command after it arrives. */
+    private String receive(int id) throws IOException {
+        // Decoded at the end, a packet may end in the middle of a character
+        var reply = new ByteArrayOutputStream();
+        // Request ids start at 1, no reply has id 0
+        int end = 0;
+        while (true) {
+            Packet packet = readPacket();
+            if (end != 0 && packet.id() == end) return reply.toString(StandardCharsets.UTF_8);
+            // Anything else is not part of the reply (some servers send an empty packet first), skip it
+            if (packet.id() != id) continue;
+
+            reply.writeBytes(packet.payload());
+            if (end == 0) end = send(TYPE_COMMAND, "");
+        }
+    }
+
+    private Packet readPacket() throws IOException {
+        byte[] header = new byte[12];
+        in.readFully(header);
+        var buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+        int length = buffer.getInt();
+        int id = buffer.getInt();
+        buffer.getInt();
+
+        if (length < 10 || length > MAX_REPLY_PACKET_BYTES) throw new IOException("Invalid RCON packet length " + length);
+        byte[] body = new byte[length - 8];
+        in.readFully(body);
+        return new Packet(id, Arrays.copyOf(body, body.length - 2));
+    }
+}
@@ -4,6 +4,9 @@ import lombok.Getter;
 import org.bsdevelopment.servermaster.Constants;
 import org.bsdevelopment.servermaster.LogViewer;
 import org.bsdevelopment.servermaster.ServerMasterApp;
+import org.bsdevelopment.servermaster.log.SessionLog;
+import org.bsdevelopment.servermaster.instance.server.thread.ConsoleRecorder;
+import org.bsdevelopment.servermaster.instance.server.thread.LogTailer;
 import org.bsdevelopment.servermaster.instance.server.thread.ServerOutputListener;
 import org.bsdevelopment.servermaster.instance.server.thread.ServerThread;
 import org.bsdevelopment.servermaster.instance.server.thread.ServerThreadCallback;
@@ -17,18 +20,26 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 
 public class Server {
+    @Getter private final String instanceId;
     @Getter private final String name;
     private final String serverType;
     private final String serverVersion;
     private final String build;
     @Getter private int port = 25565;
     @Getter private ServerThread thread;
+    // Set instead of the thread for a server ServerMaster attached to, see attach
+    @Getter private LogTailer tailer;
+    private RconClient rcon;
+    private ExecutorService commands;
     @Getter private boolean running;
 
-    public Server(String name, String serverType, String serverVersion, String build, ServerThread thread, boolean running) {
+    public Server(String instanceId, String name, String serverType, String serverVersion, String build, ServerThread thread, boolean running) {
+        this.instanceId = instanceId;
         this.name = name;
         this.serverType = serverType;
         this.serverVersion = serverVersion;
@@ -38,36 +49,158 @@ public class Server {
     }
 
     public void start(ServerLaunchConfig config, ServerOutputListener outputListener, ServerThreadCallback callback) throws IOException {
-        this.port = config.port();
-
         var wrapper = ServerMasterApp.serverWrapper();
-        wrapper.setServer(this);
 
-        Path serverRoot = wrapper.serverRoot();
-        Path runtimeJar = wrapper.runtimeJarPath();
+        this.port = wrapper.addServer(this, config.port());
+        if (port != config.port()) {
+            LogViewer.system("Port " + config.port() + " is in use, starting '" + instanceId + "' on port " + port);
+        }
+
+        InstanceDirectory directory = wrapper.instanceDirectory(instanceId);
+        Path runtimeJar = directory.runtimeJar();
 
         if (!Files.exists(runtimeJar)) {
-            throw new IOException("Missing runtime jar: " + runtimeJar + " (expected instanceCatalog.copyToRuntimeJar(...) to run first)");
+            throw new IOException("Missing runtime jar: " + runtimeJar + " (expected instanceCatalog.linkRuntimeJar(...) to run first)");
         }
 
-        updateServerProperties(serverRoot);
+        updateServerProperties(directory.serverProperties());
 
         List<String> options = getJavaOptions(config, runtimeJar);
 
         ProcessBuilder pb = new ProcessBuilder(options);
-        pb.directory(serverRoot.toFile());
+        pb.directory(directory.root().toFile());
+
+        // Every line is persisted before anyone else sees it, including the ones the console never shows
+        SessionLog sessionLog = SessionLog.open(directory.sessionsDirectory(), config.sessionsKept());
+        ServerOutputListener output = outputListener == null ? sessionLog : ServerOutputListener.fanOut(sessionLog, outputListener);
+
+        ConsoleRecorder recorder = null;
+        try {
+            if (config.recordOutput()) {
+                recorder = ConsoleRecorder.create(sessionLog.directory().resolve(ConsoleRecorder.FILE_NAME));
+                LogViewer.system("Recording the console to " + recorder.file());
+            }
+
+            running = true;
+            thread = new ServerThread(this, pb, config.outputBatchWindowMs(), config.outputBatchMaxLines(), output, (server, statusCode) -> {
+                running = false;
+                callback.call(server, statusCode);
+                wrapper.removeServer(instanceId);
+            }, recorder);
+        } catch (IOException | RuntimeException e) {
+            // The thread closes both once the server's output ends, without it nobody does
+            running = false;
+            if (recorder != null) recorder.close();
+            sessionLog.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Follows a server that was started outside ServerMaster (systemd, a panel, ...) through its
+     * {@code logs/latest.log}. Its output goes through the same listeners as a started server's; commands are
+     * sent over RCON when the server's properties enable it.
+     *
+     * @param callback called when ServerMaster stops following the server, which keeps running
+     */
+    public void attach(Path serverDirectory, int batchMaxLines, int sessionsKept, ServerOutputListener outputListener, ServerThreadCallback callback) throws IOException {
+        var wrapper = ServerMasterApp.serverWrapper();
+
+        Properties properties = new Properties();
+        Path propertiesFile = serverDirectory.resolve("server.properties");
+        if (Files.isRegularFile(propertiesFile)) {
+            try (var in = Files.newInputStream(propertiesFile)) {
+                properties.load(in);
+            }
+        }
+
+        this.port = parsePort(properties.getProperty("server-port"), port);
+        if (Boolean.parseBoolean(properties.getProperty("enable-rcon")) && !properties.getProperty("rcon.password", "").isEmpty()) {
+            String host = properties.getProperty("server-ip", "");
+            rcon = new RconClient(host.isBlank() ? "127.0.0.1" : host, parsePort(properties.getProperty("rcon.port"), 25575),
+                    properties.getProperty("rcon.password"));
+            commands = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("ServerMaster-rcon").factory());
+        } else {
+            LogViewer.system("RCON is not enabled in " + propertiesFile + ", commands cannot be sent to this server");
+        }
+
+        wrapper.addServer(this);
+
+        // The server directory is not ours, the session goes into ServerMaster's own folder for the instance
+        SessionLog sessionLog = SessionLog.open(wrapper.instanceDirectory(instanceId).sessionsDirectory(), sessionsKept);
+        ServerOutputListener output = outputListener == null ? sessionLog : ServerOutputListener.fanOut(sessionLog, outputListener);
 
         running = true;
-        thread = new ServerThread(this, pb, outputListener, (server, statusCode) -> {
+        try {
+            tailer = new LogTailer(this, serverDirectory.resolve("logs").resolve("latest.log"), batchMaxLines, output, (server, statusCode) -> {
+                running = false;
+                if (rcon != null) {
+                    commands.shutdown();
+                    rcon.close();
+                }
+                callback.call(server, statusCode);
+                wrapper.removeServer(instanceId);
+            });
+        } catch (RuntimeException e) {
             running = false;
-            callback.call(server, statusCode);
-            wrapper.removeServer();
+            sessionLog.close();
+            throw e;
+        }
+    }
+
+    /** Sends a command to the server's console, or over RCON for an attached server. */
+    public void sendCommand(String command) {
+        if (thread != null) {
+            thread.sendMessage(command);
+            return;
+        }
+        if (tailer == null) return;
+        if (rcon == null) {
+            LogViewer.system("Unable to send '" + command + "', RCON is not enabled for this server");
+            return;
+        }
+
+        // One at a time and in order, replies show up in the console
+        commands.execute(() -> {
+            try {
+                String reply = rcon.command(command);
+                if (!reply.isBlank()) LogViewer.system(reply);
+            } catch (IOException e) {
+                Constants.LOGGER.log(Level.WARNING, "RCON command failed: '" + command + "'", e);
+                LogViewer.system("RCON command failed: " + e.getMessage());
+            }
         });
     }
 
-    private void updateServerProperties(Path serverRoot) {
+    public void stop() {
+        if (thread != null) {
+            thread.stopServer();
+        } else if (tailer != null) {
+            sendCommand("stop");
+        }
+    }
+
+    /** Kills a started server. An attached server is not ours to kill, ServerMaster only stops following it. */
+    public void kill() {
+        if (thread != null) {
+            thread.killServer();
+        } else if (tailer != null) {
+            tailer.close();
+        }
+    }
+
+    private static int parsePort(String value, int fallback) {
+        if (value == null || value.isBlank()) return fallback;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private void updateServerProperties(Path propertiesFile) {
         Properties prop = new Properties();
-        File serverProp = serverRoot.resolve("server.properties").toFile();
+        File serverProp = propertiesFile.toFile();
 
         try {
             if (!serverProp.createNewFile()) {
@@ -76,7 +209,7 @@ public class Server {
                 }
             }
 
-            String worldName = "World_" + serverVersion;
+            String worldName = InstanceDirectory.worldName(serverVersion);
 
             LogViewer.system("Updating level-name to " + worldName);
             prop.setProperty("level-name", worldName);
@@ -104,7 +237,7 @@ public class Server {
         options.add("-jar");
         options.add(jarPath.toAbsolutePath().toString());
         options.add("--port");
-        options.add(String.valueOf(config.port()));
+        options.add(String.valueOf(port));
         options.add("nogui");
         return options;
     }
@@ -2,6 +2,7 @@ package org.bsdevelopment.servermaster.instance.server;
 
 public class ServerBuilder {
     private final String name;
+    private String instanceId;
     private String serverType;
     private String serverVersion;
     private String serverBuild;
@@ -10,6 +11,11 @@ public class ServerBuilder {
         this.name = name;
     }
 
+    public ServerBuilder instanceId(String instanceId) {
+        this.instanceId = instanceId;
+        return this;
+    }
+
     public ServerBuilder version(String version) {
         this.serverVersion = version;
         return this;
@@ -26,10 +32,11 @@ public class ServerBuilder {
     }
 
     public Server build() {
+        if (instanceId == null) throw new IllegalStateException("instance id needs to be set!");
         if (serverType == null) throw new IllegalStateException("server type needs to be set!");
         if (serverVersion == null) throw new IllegalStateException("version needs to be set!");
         if (serverBuild == null) throw new IllegalStateException("server build needs to be set!");
 
-        return new Server(name, serverType, serverVersion, serverBuild, null, false);
+        return new Server(instanceId, name, serverType, serverVersion, serverBuild, null, false);
     }
 }
@@ -6,23 +6,35 @@ import org.bsdevelopment.servermaster.instance.server.thread.ServerOutputListene
 import org.bsdevelopment.servermaster.instance.server.thread.ServerThreadCallback;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.logging.Level;
 
 public final class ServerHandlerAPI {
-    public static int startServer(String serverType, String version, String build,
-                                  ServerLaunchConfig config, ServerOutputListener output, ServerThreadCallback onExit) {
+    /**
+     * Starts a new server instance alongside any that are already running.
+     *
+     * @return the instance id of the new server, used to address it in the other calls of this API
+     */
+    public static String startServer(String serverType, String version, String build,
+                                     ServerLaunchConfig config, ServerOutputListener output, ServerThreadCallback onExit) {
         Objects.requireNonNull(serverType, "serverType");
         Objects.requireNonNull(version, "version");
         Objects.requireNonNull(config, "config");
         Objects.requireNonNull(onExit, "onExit");
 
-        var server = new ServerBuilder(serverType + "(" + version + ")").serverType(serverType).version(version)
+        var wrapper = ServerMasterApp.serverWrapper();
+        String instanceId = wrapper.nextInstanceId(serverType, version);
+
+        var server = new ServerBuilder(serverType + "(" + version + ")").instanceId(instanceId).serverType(serverType).version(version)
                 .build(build == null ? "" : build).build();
 
         try {
             Integer buildNumber = parseBuildNumber(build);
-            ServerMasterApp.instanceCatalog.copyToRuntimeJar(serverType, version, buildNumber);
+            var directory = wrapper.instanceDirectory(instanceId).prepare();
+            directory.adoptLegacyWorld(wrapper.serverRoot(), version);
+            ServerMasterApp.instanceCatalog.linkRuntimeJar(serverType, version, buildNumber, directory.runtimeJar());
 
             server.start(config, output, onExit);
         } catch (IOException | RuntimeException e) {
@@ -33,29 +45,68 @@ public final class ServerHandlerAPI {
             } catch (Throwable ignored) {}
 
             try {
-                ServerMasterApp.serverWrapper().removeServer();
+                wrapper.removeServer(instanceId);
             } catch (Throwable ignored) {}
         }
 
-        return config.port();
+        return instanceId;
     }
 
-    public static void sendServerCommand(String command) {
-        var server = ServerMasterApp.serverWrapper().getServer();
-        if (server == null || server.getThread() == null) return;
-        server.getThread().sendMessage(command);
+    /**
+     * Attaches to a server that runs outside ServerMaster, following the {@code logs/latest.log} in its directory.
+     *
+     * @param sessionsKept how many of the server's session logs to keep
+     * @param onDetach     called when ServerMaster stops following the server
+     * @return the instance id of the attached server
+     */
+    public static String attachServer(Path serverDirectory, int batchMaxLines, int sessionsKept, ServerOutputListener output, ServerThreadCallback onDetach) {
+        Objects.requireNonNull(serverDirectory, "serverDirectory");
+        Objects.requireNonNull(onDetach, "onDetach");
+
+        var wrapper = ServerMasterApp.serverWrapper();
+        String directoryName = serverDirectory.toAbsolutePath().normalize().getFileName().toString();
+        String instanceId = wrapper.nextInstanceId("attached", directoryName);
+
+        var server = new ServerBuilder(directoryName).instanceId(instanceId).serverType("attached").version(directoryName)
+                .build("").build();
+
+        try {
+            server.attach(serverDirectory, batchMaxLines, sessionsKept, output, onDetach);
+        } catch (IOException | RuntimeException e) {
+            Constants.LOGGER.log(Level.SEVERE, "Could not attach to " + serverDirectory, e);
+
+            try {
+                onDetach.call(server, 2);
+            } catch (Throwable ignored) {}
+
+            try {
+                wrapper.removeServer(instanceId);
+            } catch (Throwable ignored) {}
+        }
+
+        return instanceId;
+    }
+
+    public static void sendServerCommand(String instanceId, String command) {
+        findServer(instanceId).ifPresent(server -> server.sendCommand(command));
     }
 
-    public static void stopServer() {
-        var server = ServerMasterApp.serverWrapper().getServer();
-        if (server == null || server.getThread() == null) return;
-        server.getThread().stopServer();
+    public static void stopServer(String instanceId) {
+        findServer(instanceId).ifPresent(Server::stop);
+    }
+
+    public static void killServer(String instanceId) {
+        findServer(instanceId).ifPresent(Server::kill);
+    }
+
+    public static void killAllServers() {
+        for (Server server : ServerMasterApp.serverWrapper().getServers()) {
+            killServer(server.getInstanceId());
+        }
     }
 
-    public static void killServer() {
-        var server = ServerMasterApp.serverWrapper().getServer();
-        if (server == null || server.getThread() == null) return;
-        server.getThread().killServer();
+    private static Optional<Server> findServer(String instanceId) {
+        return ServerMasterApp.serverWrapper().getServer(instanceId);
     }
 
     private static Integer parseBuildNumber(String build) throws IOException {
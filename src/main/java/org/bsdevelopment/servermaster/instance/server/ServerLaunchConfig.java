@@ -1,13 +1,26 @@
 package org.bsdevelopment.servermaster.instance.server;
 
+import org.bsdevelopment.servermaster.log.SessionLog;
+
 import java.nio.file.Path;
 import java.util.List;
 
-public record ServerLaunchConfig(Path javaExecutable, long ramMb, int port, boolean autoAcceptEula, List<String> additionalJvmArgs) {
+public record ServerLaunchConfig(Path javaExecutable, long ramMb, int port, boolean autoAcceptEula, List<String> additionalJvmArgs,
+                                 long outputBatchWindowMs, int outputBatchMaxLines, boolean recordOutput, int sessionsKept) {
+    public static final long DEFAULT_BATCH_WINDOW_MS = 50;
+    public static final int DEFAULT_BATCH_MAX_LINES = 2000;
+
+    public ServerLaunchConfig(Path javaExecutable, long ramMb, int port, boolean autoAcceptEula, List<String> additionalJvmArgs) {
+        this(javaExecutable, ramMb, port, autoAcceptEula, additionalJvmArgs, DEFAULT_BATCH_WINDOW_MS, DEFAULT_BATCH_MAX_LINES, false, SessionLog.DEFAULT_SESSIONS_KEPT);
+    }
+
     public ServerLaunchConfig {
         if (javaExecutable == null) throw new IllegalArgumentException("javaExecutable is required");
         if (ramMb <= 0) throw new IllegalArgumentException("ramMb must be > 0");
         if (port <= 0 || port > 65535) throw new IllegalArgumentException("port must be 1-65535");
+        if (outputBatchWindowMs < 0) throw new IllegalArgumentException("outputBatchWindowMs must be >= 0");
+        if (outputBatchMaxLines <= 0) throw new IllegalArgumentException("outputBatchMaxLines must be > 0");
+        if (sessionsKept <= 0) throw new IllegalArgumentException("sessionsKept must be > 0");
 
         additionalJvmArgs = (additionalJvmArgs == null) ? List.of() : List.copyOf(additionalJvmArgs);
     }
@@ -1,26 +1,45 @@
 package org.bsdevelopment.servermaster.instance.server;
 
+import java.io.IOException;
+import java.net.ServerSocket;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public final class ServerWrapper {
 
     private final Path serverRoot;
-    private final AtomicReference<Server> serverRef = new AtomicReference<>();
+    private final ConcurrentMap<String, Server> servers = new ConcurrentHashMap<>();
+    private final Set<String> reservedIds = ConcurrentHashMap.newKeySet();
+    // The port of every registered server, guarded by this so a port is looked up and taken in one step
+    private final Map<String, Integer> ports = new HashMap<>();
 
     public ServerWrapper(Path serverRoot) {
         this.serverRoot = Objects.requireNonNull(serverRoot, "serverRoot");
+        // Servers ran in serverRoot itself before every instance had its own directory
+        InstanceDirectory.migrateLegacyLayout(serverRoot, sharedRoot());
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            Server server = serverRef.get();
-            if (server == null) return;
+            if (servers.isEmpty()) return;
 
-            var thread = server.getThread();
-            if (thread == null) return;
+            for (Server server : servers.values()) {
+                var thread = server.getThread();
+                if (thread == null) continue;
+
+                try {
+                    thread.killServer();
+                } catch (Throwable ignored) {}
+            }
 
             try {
-                thread.killServer();
                 Thread.sleep(750);
             } catch (Throwable ignored) {}
         }));
@@ -30,24 +49,98 @@ public final class ServerWrapper {
         return serverRoot;
     }
 
-    public Path runtimeJarPath() {
-        return serverRoot.resolve("server.jar");
+    public Path sharedRoot() {
+        return serverRoot.resolve("shared");
+    }
+
+    public InstanceDirectory instanceDirectory(String instanceId) {
+        return new InstanceDirectory(instanceId, serverRoot.resolve("runtime").resolve(instanceId), sharedRoot(),
+                serverRoot.resolve("server.properties"));
+    }
+
+    /**
+     * Reserves a unique instance id for a server of the given type and version. The lowest free
+     * number is used, so the first instance of a type/version always gets the same id (and therefore
+     * the same {@link InstanceDirectory}) across launches. The id is filesystem safe.
+     */
+    public String nextInstanceId(String serverType, String version) {
+        String base = (serverType + "-" + version).toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9._-]", "_");
+
+        int index = 1;
+        while (!reservedIds.add(base + "-" + index)) {
+            index++;
+        }
+        return base + "-" + index;
+    }
+
+    public Optional<Server> getServer(String instanceId) {
+        if (instanceId == null) return Optional.empty();
+        return Optional.ofNullable(servers.get(instanceId));
+    }
+
+    public Collection<Server> getServers() {
+        return Collections.unmodifiableCollection(servers.values());
+    }
+
+    /** Registers a server on the port it already has, one ServerMaster did not start and cannot move. */
+    public synchronized void addServer(Server server) {
+        Objects.requireNonNull(server, "server");
+        register(server, server.getPort());
+    }
+
+    /**
+     * Registers a server and reserves a port for it in one step, two servers starting at once never get the
+     * same port.
+     *
+     * @return {@code preferredPort} if it is free, otherwise the next port above it that is
+     * @throws IOException if every port from {@code preferredPort} on is taken
+     */
+    public synchronized int addServer(Server server, int preferredPort) throws IOException {
+        Objects.requireNonNull(server, "server");
+
+        int port = findFreePort(preferredPort);
+        register(server, port);
+        return port;
+    }
+
+    private void register(Server server, int port) {
+        if (servers.putIfAbsent(server.getInstanceId(), server) != null) {
+            throw new IllegalStateException("A server is already registered for instance '" + server.getInstanceId() + "'");
+        }
+        ports.put(server.getInstanceId(), port);
+    }
+
+    public synchronized void removeServer(String instanceId) {
+        if (instanceId == null) return;
+        servers.remove(instanceId);
+        ports.remove(instanceId);
+        reservedIds.remove(instanceId);
     }
 
-    public Server getServer() {
-        return serverRef.get();
+    public boolean isServerRunning(String instanceId) {
+        return getServer(instanceId).map(Server::isRunning).orElse(false);
     }
 
-    public void setServer(Server server) {
-        serverRef.set(Objects.requireNonNull(server, "server"));
+    public boolean isAnyServerRunning() {
+        for (Server server : servers.values()) {
+            if (server.isRunning()) return true;
+        }
+        return false;
     }
 
-    public void removeServer() {
-        serverRef.set(null);
+    private int findFreePort(int preferredPort) throws IOException {
+        for (int port = preferredPort; port <= 65535; port++) {
+            if (!ports.containsValue(port) && canBind(port)) return port;
+        }
+        throw new IOException("No free port between " + preferredPort + " and 65535");
     }
 
-    public boolean isServerRunning() {
-        Server s = serverRef.get();
-        return s != null && s.isRunning();
+    /** Catches what is listening outside ServerMaster, and servers of ours that are still shutting down. */
+    private static boolean canBind(int port) {
+        try (ServerSocket ignored = new ServerSocket(port)) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
     }
 }
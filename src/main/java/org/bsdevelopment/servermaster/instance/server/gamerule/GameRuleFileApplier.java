@@ -8,6 +8,9 @@ import org.bsdevelopment.servermaster.LogViewer;
 import org.bsdevelopment.servermaster.instance.server.Server;
 import org.bsdevelopment.servermaster.instance.server.ServerHandlerAPI;
 import org.bsdevelopment.servermaster.instance.server.thread.ServerOutputListener;
+import org.bsdevelopment.servermaster.log.LogPatternEngine;
+import org.bsdevelopment.servermaster.log.MatchSet;
+import org.bsdevelopment.servermaster.log.PatternRules;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -35,23 +38,33 @@ import java.util.regex.Pattern;
  *   ]
  * }
  * </pre>
+ * The applier subscribes to the server's {@link LogPatternEngine} and unsubscribes once every rule was
+ * applied, so its patterns stop costing anything for the rest of the session.
  */
-public final class GameRuleFileApplier implements ServerOutputListener {
-    private static final Pattern SERVER_READY = Pattern.compile(".*\\bDone \\(.*\\)!.*");
-    private static final Pattern UNKNOWN_GAMERULE_1 = Pattern.compile(".*Unknown game rule.*", Pattern.CASE_INSENSITIVE);
-    private static final Pattern UNKNOWN_GAMERULE_2 = Pattern.compile(".*No game rule called.*", Pattern.CASE_INSENSITIVE);
-    private static final Pattern UNKNOWN_GAMERULE_3 = Pattern.compile(".*Incorrect argument for command.*", Pattern.CASE_INSENSITIVE);
-    private static final Pattern UNKNOWN_GAMERULE_4 = Pattern.compile(".*gamerule (.*) (.*)<--\\[HERE\\].*", Pattern.CASE_INSENSITIVE);
-    private static final Pattern INVALID_VALUE = Pattern.compile(
-            ".*(Invalid|Expected).*(true|false|boolean|integer|int).*",
-            Pattern.CASE_INSENSITIVE
+public final class GameRuleFileApplier {
+    /** Runs before the console, so the command feedback it swallows is never shown. */
+    public static final int PRIORITY = 100;
+
+    private static final PatternRules RULES = new PatternRules();
+    private static final int SERVER_READY = RULES.pattern(Pattern.compile("\\bDone \\(.*\\)!"), "Done (");
+    private static final int UNKNOWN_GAMERULE_1 = RULES.literalIgnoreCase("Unknown game rule");
+    private static final int UNKNOWN_GAMERULE_2 = RULES.literalIgnoreCase("No game rule called");
+    private static final int UNKNOWN_GAMERULE_3 = RULES.literalIgnoreCase("Incorrect argument for command");
+    private static final int UNKNOWN_GAMERULE_4 = RULES.pattern(
+            Pattern.compile("gamerule (.*) (.*)<--\\[HERE\\]", Pattern.CASE_INSENSITIVE),
+            "<--[HERE]"
     );
+    private static final int INVALID_VALUE = RULES.pattern(
+            Pattern.compile("(Invalid|Expected).*(true|false|boolean|integer|int)", Pattern.CASE_INSENSITIVE),
+            "Invalid", "Expected"
+    );
+    private static final int INCORRECT_ARGUMENT = RULES.literal(" INFO]: Incorrect argument for command");
     private static final long RESPONSE_TIMEOUT_MS = 650;
     private static final long BETWEEN_RULES_MS = 120;
 
-    private final ServerOutputListener delegate;
     private final LoadedRules data;
     private final ScheduledExecutorService scheduler;
+    private volatile Server server;
     private Iterator<Map.Entry<String, String>> iterator;
     private volatile boolean started;
     private volatile boolean finished;
@@ -60,15 +73,18 @@ public final class GameRuleFileApplier implements ServerOutputListener {
     private List<String> currentNames;
     private int currentNameIndex;
     private ScheduledFuture<?> timeoutFuture;
+    private volatile LogPatternEngine.Subscription subscription;
 
-    public static ServerOutputListener wrap(ServerOutputListener outputListener, Path jsonFile) {
-        Objects.requireNonNull(outputListener, "Missing server output listener");
+    public static void attach(LogPatternEngine engine, Path jsonFile) {
+        Objects.requireNonNull(engine, "Missing log pattern engine");
         Objects.requireNonNull(jsonFile, "Missing gamerule JSON file");
 
         var loaded = loadRuleFile(jsonFile);
-        if (loaded.rules.isEmpty()) return outputListener;
+        if (loaded.rules.isEmpty()) return;
 
-        return new GameRuleFileApplier(outputListener, loaded);
+        var applier = new GameRuleFileApplier(loaded);
+        applier.subscription = engine.subscribe(RULES, PRIORITY, false, applier::onMatch);
+        if (applier.finished) applier.subscription.unsubscribe();
     }
 
     private record LoadedRules(LinkedHashMap<String, String> rules, Map<String, List<String>> aliasesByRuleName) {
@@ -133,24 +149,24 @@ public final class GameRuleFileApplier implements ServerOutputListener {
         return List.copyOf(list);
     }
 
-    private GameRuleFileApplier(ServerOutputListener delegate, LoadedRules data) {
-        this.delegate = delegate;
+    private GameRuleFileApplier(LoadedRules data) {
         this.data = data;
 
-        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
-            Thread t = new Thread(r, "ServerMaster-GameRule");
-            t.setDaemon(true);
-            return t;
-        });
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("ServerMaster-GameRule").factory());
     }
 
-    @Override
-    public void onLine(Server server, Stream stream, String line) {
-        if (!line.contains(" INFO]: Incorrect argument for command") && !UNKNOWN_GAMERULE_4.matcher(line).matches())
-            delegate.onLine(server, stream, line);
+    /**
+     * @return true for the server's feedback to our gamerule commands, which is kept out of the console
+     */
+    private boolean onMatch(Server server, ServerOutputListener.Stream stream, CharSequence line, MatchSet matches) {
+        handleLine(server, matches);
+        return matches.has(INCORRECT_ARGUMENT) || matches.has(UNKNOWN_GAMERULE_4);
+    }
 
-        if (!started && SERVER_READY.matcher(line).matches()) {
+    private void handleLine(Server server, MatchSet matches) {
+        if (!started && matches.has(SERVER_READY)) {
             started = true;
+            this.server = server;
             iterator = data.rules.entrySet().iterator();
             LogViewer.system("Server ready — applying gamerules from file...");
             scheduler.execute(this::applyNextRule);
@@ -160,14 +176,14 @@ public final class GameRuleFileApplier implements ServerOutputListener {
         if (!started || finished) return;
         if (currentCanonical == null) return;
 
-        if (UNKNOWN_GAMERULE_1.matcher(line).matches()
-                || UNKNOWN_GAMERULE_2.matcher(line).matches()
-                || UNKNOWN_GAMERULE_3.matcher(line).matches()) {
+        if (matches.has(UNKNOWN_GAMERULE_1)
+                || matches.has(UNKNOWN_GAMERULE_2)
+                || matches.has(UNKNOWN_GAMERULE_3)) {
             scheduler.execute(this::tryNextName);
             return;
         }
 
-        if (INVALID_VALUE.matcher(line).matches()) {
+        if (matches.has(INVALID_VALUE)) {
             scheduler.execute(this::skipInvalidValue);
         }
     }
@@ -177,6 +193,7 @@ public final class GameRuleFileApplier implements ServerOutputListener {
 
         if (iterator == null || !iterator.hasNext()) {
             finished = true;
+            if (subscription != null) subscription.unsubscribe();
             LogViewer.system("Gamerules applied.");
             scheduler.shutdown();
             return;
@@ -212,7 +229,7 @@ public final class GameRuleFileApplier implements ServerOutputListener {
         }
 
         String name = currentNames.get(currentNameIndex);
-        ServerHandlerAPI.sendServerCommand("gamerule " + name + " " + currentValue);
+        ServerHandlerAPI.sendServerCommand(server.getInstanceId(), "gamerule " + name + " " + currentValue);
 
         timeoutFuture = scheduler.schedule(() -> assumeSuccess(name), RESPONSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
     }
@@ -0,0 +1,121 @@
+package org.bsdevelopment.servermaster.instance.server.thread;
+
+import org.bsdevelopment.servermaster.Constants;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Level;
+
+/**
+ * Records the output of a server exactly as it is read from its pipes, with the arrival of every read in
+ * nanoseconds, so {@link ConsoleReplay} can feed the same bytes with the same timing through the output
+ * pipeline again without starting a server.
+ * <p>
+ * Layout: {@code [magic:4][version:1][startEpochMillis:8]}, then one record per read
+ * {@code [stream:1][nanosSincePreviousRead:varlong][length:varint][bytes:length]}. The reads of stdout and
+ * stderr are interleaved in arrival order.
+ */
+public final class ConsoleRecorder implements Closeable {
+    public static final String FILE_NAME = "console.rec";
+    static final int MAGIC = 0x534D5243;
+    static final int VERSION = 1;
+
+    private final Path file;
+    private final OutputStream out;
+    private long lastNanos = System.nanoTime();
+    private long bytes;
+    private boolean closed;
+
+    private ConsoleRecorder(Path file, OutputStream out) {
+        this.file = file;
+        this.out = out;
+    }
+
+    public static ConsoleRecorder create(Path file) throws IOException {
+        var out = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024);
+        writeInt(out, MAGIC);
+        out.write(VERSION);
+        writeLong(out, System.currentTimeMillis());
+        return new ConsoleRecorder(file, out);
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    /** @return {@code in}, recording everything that is read from it */
+    public InputStream tee(ServerOutputListener.Stream stream, InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) record(stream, new byte[]{(byte) b}, 0, 1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) record(stream, buffer, offset, read);
+                return read;
+            }
+        };
+    }
+
+    private synchronized void record(ServerOutputListener.Stream stream, byte[] buffer, int offset, int length) {
+        if (closed) return;
+
+        long now = System.nanoTime();
+        try {
+            out.write(stream.ordinal());
+            writeVarLong(out, now - lastNanos);
+            writeVarLong(out, length);
+            out.write(buffer, offset, length);
+            bytes += length;
+        } catch (IOException e) {
+            // The server's output must not suffer from a full disk
+            Constants.LOGGER.log(Level.WARNING, "Stopped recording the console to " + file, e);
+            close();
+        }
+        lastNanos = now;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+
+        closed = true;
+        try {
+            out.close();
+            Constants.LOGGER.fine(() -> "Recorded " + bytes + " bytes of console output to " + file);
+        } catch (IOException e) {
+            Constants.LOGGER.log(Level.WARNING, "Could not finish the console recording " + file, e);
+        }
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeLong(OutputStream out, long value) throws IOException {
+        writeInt(out, (int) (value >>> 32));
+        writeInt(out, (int) value);
+    }
+}
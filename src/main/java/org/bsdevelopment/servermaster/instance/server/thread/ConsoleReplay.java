@@ -0,0 +1,310 @@
+package org.bsdevelopment.servermaster.instance.server.thread;
+
+import org.bsdevelopment.servermaster.Constants;
+import org.bsdevelopment.servermaster.instance.server.Server;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Plays a {@link ConsoleRecorder} recording back through the same pipeline a running server's output takes:
+ * the recorded reads go through pipes into {@link LineScanner}, the {@link OutputBuffer} and the batching of
+ * {@link ServerThread}, and end up at the given {@link ServerOutputListener}. A reproducible load for the
+ * console and its listeners, with real traffic, without starting a server.
+ * <p>
+ * At a finite speed every read is delivered when it arrived in the recording, scaled by the speed. At
+ * {@link #MAX_SPEED} reads are delivered as fast as the pipeline takes them; like a real pipe, only a few
+ * reads are buffered.
+ */
+public final class ConsoleReplay {
+    public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+    private static final int PIPE_CHUNKS = 64;
+    // Far more than a single read of a process stream returns, a longer chunk means the recording is corrupt
+    private static final int MAX_CHUNK_BYTES = 16 * 1024 * 1024;
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final Server server;
+    private final Path recording;
+    private final double speed;
+    private final long batchWindowMs;
+    private final int batchMaxLines;
+    private final ServerOutputListener outputListener;
+    private final Consumer<Runnable> whenRendered;
+    private final Consumer<Stats> onFinished;
+    private final String name;
+    private volatile boolean cancelled;
+
+    /**
+     * @param recordedNanos  how long the recorded output took to arrive
+     * @param replayNanos    how long the replay took, from the first read to the last line rendered (or handed to
+     *                       the listener, without anything to render)
+     * @param listenerNanos  the CPU time spent in the listener's {@code onLines}, wall time where the JVM does
+     *                       not measure CPU time
+     * @param peakBacklog    the most lines that waited in the output buffer at once
+     * @param spilledBytes   the bytes the output buffer had to spill to disk
+     */
+    public record Stats(long lines, long bytes, long recordedNanos, long replayNanos, long listenerNanos,
+                        long peakBacklog, long spilledBytes) {
+        public double linesPerSecond() {
+            return replayNanos == 0 ? 0 : lines * 1e9 / replayNanos;
+        }
+    }
+
+    /**
+     * Starts the replay on a virtual thread.
+     *
+     * @param speed        1 for the recorded timing, 10 for ten times faster, {@link #MAX_SPEED} for no waiting
+     * @param whenRendered given a callback once the last line was handed to the listener, to run it when whatever
+     *                     the listener feeds has rendered that line; null if nothing renders the output
+     * @param onFinished   called with the results once the last line was rendered
+     */
+    public ConsoleReplay(Server server, Path recording, double speed, long batchWindowMs, int batchMaxLines,
+                         ServerOutputListener outputListener, Consumer<Runnable> whenRendered, Consumer<Stats> onFinished) {
+        if (!(speed > 0)) throw new IllegalArgumentException("speed must be > 0");
+
+        this.server = server;
+        this.recording = recording;
+        this.speed = speed;
+        this.batchWindowMs = batchWindowMs;
+        this.batchMaxLines = batchMaxLines;
+        this.outputListener = outputListener;
+        this.whenRendered = whenRendered;
+        this.onFinished = onFinished;
+        this.name = "ConsoleReplay#" + server.getName();
+
+        ProcessIO.execute(name, this::run);
+    }
+
+    /** Stops feeding the recording, the lines already read are still delivered. */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private void run() {
+        var outputBuffer = new OutputBuffer();
+        var stdout = new ChunkPipe();
+        var stderr = new ChunkPipe();
+        var openStreams = new AtomicInteger(2);
+        Runnable onStreamClosed = () -> {
+            if (openStreams.decrementAndGet() == 0) outputBuffer.close();
+        };
+
+        var measured = new MeasuringListener(outputListener);
+        ProcessIO.execute(name + "-stdout", new ServerThread.StreamRedirector(ServerOutputListener.Stream.STDOUT, stdout, outputBuffer, onStreamClosed));
+        ProcessIO.execute(name + "-stderr", new ServerThread.StreamRedirector(ServerOutputListener.Stream.STDERR, stderr, outputBuffer, onStreamClosed));
+
+        // A platform thread, the JVM does not measure the CPU time of virtual threads
+        Thread.ofPlatform().daemon().name(name + "-output")
+                .start(() -> ServerThread.dispatch(server, outputBuffer, batchWindowMs, batchMaxLines, measured));
+
+        long start = System.nanoTime();
+        long recordedNanos = 0;
+        long bytes = 0;
+        long peakBacklog = 0;
+
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(recording), 64 * 1024))) {
+            if (in.readInt() != ConsoleRecorder.MAGIC || in.readUnsignedByte() != ConsoleRecorder.VERSION) {
+                throw new IOException("Not a console recording: " + recording);
+            }
+            in.readLong();
+
+            int stream;
+            while (!cancelled && (stream = in.read()) >= 0) {
+                if (stream >= ServerOutputListener.Stream.values().length) throw new IOException("Malformed console recording");
+
+                recordedNanos += readVarLong(in);
+                long length = readVarLong(in);
+                if (length < 0 || length > MAX_CHUNK_BYTES) throw new IOException("Malformed console recording, a chunk of " + length + " bytes");
+                byte[] chunk = new byte[(int) length];
+                in.readFully(chunk);
+
+                if (speed != MAX_SPEED) {
+                    long due = start + (long) (recordedNanos / speed);
+                    long wait;
+                    while ((wait = due - System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+                }
+
+                (stream == ServerOutputListener.Stream.STDERR.ordinal() ? stderr : stdout).write(chunk);
+                bytes += chunk.length;
+                peakBacklog = Math.max(peakBacklog, outputBuffer.backlogLines());
+            }
+        } catch (EOFException e) {
+            Constants.LOGGER.warning(() -> "The console recording " + recording + " ends early, replayed what it has");
+        } catch (IOException e) {
+            Constants.LOGGER.log(Level.WARNING, "Could not replay " + recording, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stdout.finish();
+            stderr.finish();
+        }
+
+        measured.finish(bytes, recordedNanos, start, peakBacklog, outputBuffer);
+    }
+
+    private final class MeasuringListener implements ServerOutputListener {
+        private final ServerOutputListener target;
+        private final Object lock = new Object();
+        private long lines;
+        private long listenerNanos;
+        private long end;
+        private boolean closed;
+
+        private MeasuringListener(ServerOutputListener target) {
+            this.target = target;
+        }
+
+        @Override
+        public void onLine(Server server, Stream stream, String line) {
+            onLines(server, single(stream, line));
+        }
+
+        @Override
+        public void onLines(Server server, LineBatch batch) {
+            long beginCpu = threadCpuNanos();
+            long begin = System.nanoTime();
+            if (target != null) target.onLines(server, batch);
+            long now = System.nanoTime();
+            long cpu = beginCpu < 0 ? now - begin : threadCpuNanos() - beginCpu;
+
+            synchronized (lock) {
+                lines += batch.size();
+                listenerNanos += cpu;
+                end = now;
+            }
+        }
+
+        @Override
+        public void onClose(Server server) {
+            if (target != null) target.onClose(server);
+            synchronized (lock) {
+                closed = true;
+                lock.notifyAll();
+            }
+        }
+
+        /** Waits for the pipeline to drain and reports the results. */
+        private void finish(long bytes, long recordedNanos, long start, long peakBacklog, OutputBuffer outputBuffer) {
+            long lastLine;
+            synchronized (lock) {
+                try {
+                    while (!closed) lock.wait(TimeUnit.SECONDS.toMillis(1));
+                } catch (InterruptedException e) {
+                    // Still reported, whoever waits for the results must not wait forever
+                    Thread.currentThread().interrupt();
+                }
+                lastLine = end;
+            }
+
+            if (whenRendered == null) {
+                report(bytes, recordedNanos, lastLine - start, peakBacklog, outputBuffer);
+            } else {
+                whenRendered.accept(() -> report(bytes, recordedNanos, System.nanoTime() - start, peakBacklog, outputBuffer));
+            }
+        }
+
+        private void report(long bytes, long recordedNanos, long replayNanos, long peakBacklog, OutputBuffer outputBuffer) {
+            Stats stats;
+            synchronized (lock) {
+                stats = new Stats(lines, bytes, recordedNanos, Math.max(0, replayNanos), listenerNanos, peakBacklog, outputBuffer.spilledBytes());
+            }
+
+            Constants.LOGGER.info(() -> String.format("Replayed %d lines of %s in %d ms, %.0f lines/s", stats.lines(), recording,
+                    TimeUnit.NANOSECONDS.toMillis(stats.replayNanos()), stats.linesPerSecond()));
+            if (onFinished != null) onFinished.accept(stats);
+        }
+
+        private static long threadCpuNanos() {
+            return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+        }
+
+        private static LineBatch single(Stream stream, String line) {
+            var batch = new LineBatch(1);
+            batch.add(stream, line, System.currentTimeMillis());
+            return batch;
+        }
+    }
+
+    /**
+     * The reading end of a pipe fed with whole chunks. Holds a few chunks, after that writing waits like
+     * writing to a full pipe does.
+     */
+    private static final class ChunkPipe extends InputStream {
+        private static final byte[] EOF = new byte[0];
+
+        private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(PIPE_CHUNKS);
+        private byte[] current;
+        private int position;
+
+        void write(byte[] chunk) throws InterruptedException {
+            if (chunk.length > 0) chunks.put(chunk);
+        }
+
+        void finish() {
+            try {
+                chunks.put(EOF);
+            } catch (InterruptedException e) {
+                // Cancelled hard, the scanner only needs to see the end
+                chunks.clear();
+                chunks.offer(EOF);
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!next()) return -1;
+            return current[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+            if (!next()) return -1;
+
+            int count = Math.min(length, current.length - position);
+            System.arraycopy(current, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        private boolean next() throws IOException {
+            if (current == EOF) return false;
+            if (current != null && position < current.length) return true;
+
+            try {
+                current = chunks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Replay interrupted");
+            }
+            position = 0;
+            return current != EOF;
+        }
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed console recording");
+    }
+}
@@ -0,0 +1,131 @@
+package org.bsdevelopment.servermaster.instance.server.thread;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A chunk of output lines delivered to {@link ServerOutputListener#onLines} in one call.
+ * Batches are never reused, so listeners may hand them to another thread as is.
+ * <p>
+ * The lines are kept as their raw UTF-8 bytes, back to back in one array. A line is only decoded when it is
+ * read as a String, listeners that store bytes or can work on a {@link LineView} never pay for decoding.
+ */
+public final class LineBatch {
+    private ServerOutputListener.Stream[] streams;
+    private int[] offsets;
+    private int[] lengths;
+    private long[] arrivals;
+    private String[] decoded;
+    private byte[] bytes;
+    private int byteSize;
+    private int size;
+
+    public LineBatch(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        this.streams = new ServerOutputListener.Stream[capacity];
+        this.offsets = new int[capacity];
+        this.lengths = new int[capacity];
+        this.arrivals = new long[capacity];
+        this.decoded = new String[capacity];
+        this.bytes = new byte[capacity * 128];
+    }
+
+    /** Adds a copy of the line's bytes, the view may be reused afterwards. */
+    public void add(ServerOutputListener.Stream stream, LineView line, long arrivalMillis) {
+        add(stream, line.bytes(), line.byteOffset(), line.byteLength(), arrivalMillis);
+    }
+
+    /** Adds a copy of {@code length} UTF-8 bytes from {@code src}. */
+    public void add(ServerOutputListener.Stream stream, byte[] src, int offset, int length, long arrivalMillis) {
+        int index = reserve(stream, length, arrivalMillis);
+        System.arraycopy(src, offset, bytes, offsets[index], length);
+    }
+
+    public void add(ServerOutputListener.Stream stream, String line, long arrivalMillis) {
+        byte[] encoded = line.getBytes(StandardCharsets.UTF_8);
+        int index = reserve(stream, encoded.length, arrivalMillis);
+        System.arraycopy(encoded, 0, bytes, offsets[index], encoded.length);
+        decoded[index] = line;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** @return the line as text, decoded on the first call */
+    public String line(int index) {
+        checkIndex(index);
+
+        String line = decoded[index];
+        if (line == null) {
+            // Strings are immutable, two threads decoding the same line at once only do the work twice
+            line = new String(bytes, offsets[index], lengths[index], StandardCharsets.UTF_8);
+            decoded[index] = line;
+        }
+        return line;
+    }
+
+    /** Points {@code view} at the line's bytes, valid as long as the batch is. */
+    public LineView view(int index, LineView view) {
+        checkIndex(index);
+        view.set(bytes, offsets[index], lengths[index]);
+        return view;
+    }
+
+    public int byteLength(int index) {
+        checkIndex(index);
+        return lengths[index];
+    }
+
+    public byte[] copyBytes(int index) {
+        checkIndex(index);
+        return Arrays.copyOfRange(bytes, offsets[index], offsets[index] + lengths[index]);
+    }
+
+    public void writeTo(int index, OutputStream out) throws IOException {
+        checkIndex(index);
+        out.write(bytes, offsets[index], lengths[index]);
+    }
+
+    public ServerOutputListener.Stream stream(int index) {
+        checkIndex(index);
+        return streams[index];
+    }
+
+    /**
+     * @return the time (epoch millis) the line was read from the process
+     */
+    public long arrival(int index) {
+        checkIndex(index);
+        return arrivals[index];
+    }
+
+    private int reserve(ServerOutputListener.Stream stream, int length, long arrivalMillis) {
+        if (size == streams.length) {
+            int capacity = size * 2;
+            streams = Arrays.copyOf(streams, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            arrivals = Arrays.copyOf(arrivals, capacity);
+            decoded = Arrays.copyOf(decoded, capacity);
+        }
+        if (bytes.length - byteSize < length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, byteSize + length));
+
+        streams[size] = stream;
+        offsets[size] = byteSize;
+        lengths[size] = length;
+        arrivals[size] = arrivalMillis;
+        byteSize += length;
+        return size++;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+    }
+}
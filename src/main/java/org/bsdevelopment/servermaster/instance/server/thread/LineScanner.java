@@ -0,0 +1,84 @@
+package org.bsdevelopment.servermaster.instance.server.thread;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits a byte stream into lines without allocating per line.
+ * <p>
+ * Both {@code \n} and {@code \r} terminate a line. Empty lines and the bare {@code >} prompt that the
+ * server console prints are dropped before any decoding happens, every other line is handed to the
+ * handler as the same reusable {@link LineView}.
+ */
+public final class LineScanner {
+    private static final int INITIAL_BUFFER = 8192;
+    private static final int MAX_LINE_BYTES = 1 << 20;
+
+    private final InputStream in;
+    private final LineView view = new LineView();
+    private byte[] buffer = new byte[INITIAL_BUFFER];
+
+    public LineScanner(InputStream in) {
+        this.in = in;
+    }
+
+    @FunctionalInterface
+    public interface LineHandler {
+        void onLine(LineView line);
+    }
+
+    /**
+     * Reads until the end of the stream, calling {@code handler} for every non-noise line.
+     */
+    public void scan(LineHandler handler) throws IOException {
+        int start = 0;
+        int end = 0;
+
+        while (true) {
+            if (end == buffer.length) {
+                if (start > 0) {
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    start = 0;
+                } else if (buffer.length < MAX_LINE_BYTES) {
+                    byte[] grown = new byte[Math.min(buffer.length * 2, MAX_LINE_BYTES)];
+                    System.arraycopy(buffer, 0, grown, 0, end);
+                    buffer = grown;
+                } else {
+                    // A single line filled the whole buffer, hand it over as is
+                    emit(handler, 0, end);
+                    end = 0;
+                }
+            }
+
+            int read = in.read(buffer, end, buffer.length - end);
+            if (read < 0) break;
+
+            int scanFrom = end;
+            end += read;
+
+            for (int i = scanFrom; i < end; i++) {
+                byte b = buffer[i];
+                if (b != '\n' && b != '\r') continue;
+
+                emit(handler, start, i - start);
+                start = i + 1;
+            }
+
+            if (start == end) {
+                start = 0;
+                end = 0;
+            }
+        }
+
+        if (end > start) emit(handler, start, end - start);
+    }
+
+    private void emit(LineHandler handler, int offset, int length) {
+        if (length == 0) return;
+        if (length == 1 && buffer[offset] == '>') return;
+
+        view.set(buffer, offset, length);
+        handler.onLine(view);
+    }
+}
@@ -0,0 +1,131 @@
+package org.bsdevelopment.servermaster.instance.server.thread;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A reusable view over one line of process output.
+ * <p>
+ * The view points at the raw UTF-8 bytes inside the {@link LineScanner} buffer and is only valid for the
+ * duration of the listener call. The bytes are decoded lazily the first time the line is read as text, so
+ * consumers that only store the raw bytes never pay for decoding. Use {@link #toString()} to keep a copy.
+ */
+public final class LineView implements CharSequence {
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private byte[] bytes;
+    private int byteOffset;
+    private int byteLength;
+
+    private char[] chars = new char[256];
+    private int length;
+    private boolean decoded;
+
+    void set(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.byteOffset = offset;
+        this.byteLength = length;
+        this.decoded = false;
+    }
+
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    public int byteOffset() {
+        return byteOffset;
+    }
+
+    public int byteLength() {
+        return byteLength;
+    }
+
+    public byte[] copyBytes() {
+        return Arrays.copyOfRange(bytes, byteOffset, byteOffset + byteLength);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, byteOffset, byteLength);
+    }
+
+    @Override
+    public int length() {
+        decode();
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        decode();
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException(index);
+        return chars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        decode();
+        return CharBuffer.wrap(chars, 0, length).subSequence(start, end);
+    }
+
+    /**
+     * @return the index of the first occurrence of {@code needle}, or -1
+     */
+    public int indexOf(String needle) {
+        decode();
+
+        int max = length - needle.length();
+        outer:
+        for (int i = 0; i <= max; i++) {
+            for (int j = 0; j < needle.length(); j++) {
+                if (chars[i + j] != needle.charAt(j)) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    public boolean contains(String needle) {
+        return indexOf(needle) >= 0;
+    }
+
+    @Override
+    public String toString() {
+        decode();
+        return new String(chars, 0, length);
+    }
+
+    private void decode() {
+        if (decoded) return;
+        decoded = true;
+
+        // UTF-8 never produces more chars than bytes
+        if (chars.length < byteLength) chars = new char[Math.max(byteLength, chars.length * 2)];
+
+        // Most server output is plain ASCII, copy it straight across
+        int end = byteOffset + byteLength;
+        int i = byteOffset;
+        while (i < end && bytes[i] >= 0) {
+            chars[i - byteOffset] = (char) bytes[i];
+            i++;
+        }
+
+        if (i == end) {
+            length = byteLength;
+            return;
+        }
+
+        CharBuffer out = CharBuffer.wrap(chars);
+        decoder.reset();
+        decoder.decode(ByteBuffer.wrap(bytes, byteOffset, byteLength), out, true);
+        decoder.flush(out);
+        length = out.position();
+    }
+}
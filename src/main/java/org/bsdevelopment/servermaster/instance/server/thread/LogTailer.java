@@ -0,0 +1,224 @@
+package org.bsdevelopment.servermaster.instance.server.thread;
+
+import org.bsdevelopment.servermaster.Constants;
+import org.bsdevelopment.servermaster.instance.server.Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Follows the log file of a server ServerMaster did not start (run by systemd, a panel, ...) and hands its
+ * lines to an {@link ServerOutputListener} like {@link ServerThread} does for its process output.
+ * <p>
+ * The file's directory is watched with a {@link WatchService}; on every change the file is read from the last
+ * offset with positional reads. It is also checked every second without an event, some file systems never
+ * report one. When the file is replaced (log rotation, a new file at the same path) the rest of the old file
+ * is read before following the new one, when it is truncated it is read again from the start.
+ */
+public final class LogTailer {
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+    /** How much of the existing file is shown when attaching. */
+    private static final long INITIAL_TAIL_BYTES = 64 * 1024;
+    private static final long POLL_INTERVAL_MS = 1000;
+
+    private final Server server;
+    private final Path file;
+    private final int batchMaxLines;
+    private final ServerOutputListener outputListener;
+    private final ServerThreadCallback callback;
+    private volatile boolean closed;
+    private volatile WatchService watcher;
+
+    // Tailing thread state
+    private final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+    private byte[] partial = new byte[256];
+    private int partialLength;
+    private boolean skipFirstLine;
+    private FileChannel channel;
+    private Object identity;
+    private long position;
+
+    /**
+     * Starts following {@code file} on a virtual thread.
+     *
+     * @param callback called with status 0 once the tailer was {@link #close() closed} or failed
+     */
+    public LogTailer(Server server, Path file, int batchMaxLines, ServerOutputListener outputListener, ServerThreadCallback callback) {
+        this.server = Objects.requireNonNull(server, "server");
+        this.file = file.toAbsolutePath();
+        this.batchMaxLines = batchMaxLines;
+        this.outputListener = outputListener;
+        this.callback = callback;
+
+        ProcessIO.execute("LogTailer#" + server.getName(), this::run);
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    /** Stops following the file. The server itself keeps running. */
+    public void close() {
+        closed = true;
+
+        WatchService current = watcher;
+        if (current == null) return;
+        try {
+            current.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void run() {
+        try (WatchService service = file.getFileSystem().newWatchService()) {
+            watcher = service;
+            if (closed) return;
+
+            file.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            Constants.LOGGER.info(() -> "Following " + file);
+
+            boolean first = true;
+            while (!closed) {
+                readAvailable(first);
+                first = false;
+
+                WatchKey key = service.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    // Any change in the directory is worth a look, the checks in readAvailable are cheap
+                    key.pollEvents();
+                    key.reset();
+                }
+            }
+        } catch (ClosedWatchServiceException | ClosedByInterruptException e) {
+            // closed
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            Constants.LOGGER.log(Level.WARNING, "Stopped following " + file, e);
+        } finally {
+            closeChannel();
+            if (outputListener != null) outputListener.onClose(server);
+            if (callback != null) callback.call(server, 0);
+        }
+    }
+
+    private void readAvailable(boolean first) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            // Between moving the old file away and creating the new one
+            return;
+        }
+
+        // The file key identifies the file on Unix, creation time is the best we have elsewhere
+        Object current = attributes.fileKey() != null ? attributes.fileKey() : attributes.creationTime();
+        if (channel == null || !current.equals(identity)) {
+            if (channel != null) {
+                // The old file may have been written to after our last read
+                readToEnd();
+                flushPartial();
+                closeChannel();
+            }
+
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            identity = current;
+            position = 0;
+            if (first && attributes.size() > INITIAL_TAIL_BYTES) {
+                position = attributes.size() - INITIAL_TAIL_BYTES;
+                skipFirstLine = true;
+            }
+        } else if (channel.size() < position) {
+            // Truncated in place
+            flushPartial();
+            position = 0;
+        }
+
+        readToEnd();
+    }
+
+    private void readToEnd() throws IOException {
+        var batch = new LineBatch(Math.min(batchMaxLines, 256));
+
+        int read;
+        while ((read = channel.read(buffer.clear(), position)) > 0) {
+            position += read;
+            byte[] bytes = buffer.array();
+
+            int start = 0;
+            for (int i = 0; i < read; i++) {
+                if (bytes[i] != '\n') continue;
+
+                appendPartial(bytes, start, i - start);
+                emit(batch);
+                start = i + 1;
+
+                if (batch.size() >= batchMaxLines) {
+                    deliver(batch);
+                    batch = new LineBatch(Math.min(batchMaxLines, 256));
+                }
+            }
+            appendPartial(bytes, start, read - start);
+        }
+
+        deliver(batch);
+    }
+
+    private void emit(LineBatch batch) {
+        int length = partialLength;
+        if (length > 0 && partial[length - 1] == '\r') length--;
+        partialLength = 0;
+
+        if (skipFirstLine) {
+            // We started in the middle of a line
+            skipFirstLine = false;
+            return;
+        }
+        batch.add(ServerOutputListener.Stream.STDOUT, partial, 0, length, System.currentTimeMillis());
+    }
+
+    /** A last line without a line break, before following another file. */
+    private void flushPartial() {
+        if (partialLength == 0) return;
+
+        var batch = new LineBatch(1);
+        emit(batch);
+        deliver(batch);
+    }
+
+    private void appendPartial(byte[] bytes, int offset, int length) {
+        if (partialLength + length > partial.length) partial = Arrays.copyOf(partial, Math.max(partial.length * 2, partialLength + length));
+        System.arraycopy(bytes, offset, partial, partialLength, length);
+        partialLength += length;
+    }
+
+    private void deliver(LineBatch batch) {
+        if (batch.isEmpty() || outputListener == null) return;
+        outputListener.onLines(server, batch);
+    }
+
+    private void closeChannel() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        channel = null;
+    }
+}
@@ -0,0 +1,398 @@
+package org.bsdevelopment.servermaster.instance.server.thread;
+
+import org.bsdevelopment.servermaster.Constants;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+
+/**
+ * Decouples draining a server's output pipes from processing the lines.
+ * <p>
+ * The drain side ({@link #offer}) never waits for listeners: records go into a bounded in-memory ring,
+ * and once the ring is full they are appended to an on-disk spill segment instead. The consumer side
+ * ({@link #take}) reads the ring first and then the spill segment, so line order is preserved. When the
+ * consumer has caught up with the spill segment it is truncated and the ring is used again.
+ * <p>
+ * Record layout (ring and spill): {@code [stream:1][arrivalMillis:8][length:4][bytes:length]}
+ */
+public final class OutputBuffer {
+    public static final int DEFAULT_CAPACITY = 4 * 1024 * 1024;
+    private static final int HEADER = 13;
+    private static final ServerOutputListener.Stream[] STREAMS = ServerOutputListener.Stream.values();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    private final byte[] ring;
+    private int head;
+    private int tail;
+    private int used;
+
+    private Path spillFile;
+    private FileChannel spillChannel;
+    private final ByteBuffer spillWriteBuffer = ByteBuffer.allocate(64 * 1024);
+    private final ByteBuffer spillReadHeader = ByteBuffer.allocate(HEADER);
+    private long spillWritePosition;
+    private long spillReadPosition;
+    private boolean spilling;
+    // The part of backlogLines that is in the spill segment
+    private long spilledLines;
+
+    private long backlogLines;
+    private long spilledBytes;
+    private boolean closed;
+
+    private byte[] takeBuffer = new byte[1024];
+
+    public OutputBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public OutputBuffer(int capacity) {
+        this.ring = new byte[capacity];
+    }
+
+    /**
+     * Queues a line without waiting for consumers. Falls back to the spill segment when the ring is full.
+     */
+    public void offer(ServerOutputListener.Stream stream, LineView line) {
+        int length = line.byteLength();
+        long arrival = System.currentTimeMillis();
+
+        lock.lock();
+        try {
+            if (closed) return;
+
+            if (!spilling && ring.length - used >= HEADER + length) {
+                ringPut((byte) stream.ordinal());
+                ringPutLong(arrival);
+                ringPutInt(length);
+                ringPut(line.bytes(), line.byteOffset(), length);
+            } else if (!spill(stream, arrival, line)) {
+                return;
+            }
+
+            backlogLines++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until a line is available and hands it to {@code consumer}.
+     *
+     * @return false once the buffer has been closed and fully drained
+     */
+    public boolean take(LineView view, Consumer consumer) throws InterruptedException {
+        return poll(view, consumer, Long.MAX_VALUE) != Poll.CLOSED;
+    }
+
+    /**
+     * Waits up to {@code timeoutNanos} for a line and hands it to {@code consumer}.
+     */
+    public Poll poll(LineView view, Consumer consumer, long timeoutNanos) throws InterruptedException {
+        ServerOutputListener.Stream stream;
+        long arrival;
+
+        lock.lock();
+        try {
+            long remaining = timeoutNanos;
+            while (used == 0 && !hasSpilledRecords()) {
+                if (closed) return Poll.CLOSED;
+                if (remaining <= 0) return Poll.EMPTY;
+
+                if (remaining == Long.MAX_VALUE) notEmpty.await();
+                else remaining = notEmpty.awaitNanos(remaining);
+            }
+
+            int length;
+            if (used > 0) {
+                stream = STREAMS[ringGet()];
+                arrival = ringGetLong();
+                length = ringGetInt();
+                ensureTakeBuffer(length);
+                ringGet(takeBuffer, length);
+            } else {
+                int ordinal = readSpillHeader();
+                arrival = spillReadHeader.getLong(1);
+                length = spillReadHeader.getInt(9);
+                if (ordinal >= STREAMS.length || length < 0 || length > spillWritePosition + spillWriteBuffer.position() - spillReadPosition) {
+                    throw new IOException("Corrupt spill record at " + (spillReadPosition - HEADER));
+                }
+                stream = STREAMS[ordinal];
+                ensureTakeBuffer(length);
+                readSpill(length);
+            }
+
+            backlogLines--;
+            view.set(takeBuffer, 0, length);
+        } catch (IOException e) {
+            Constants.LOGGER.log(Level.WARNING, "Failed to read the output spill segment, dropping it", e);
+            resetSpill();
+            return Poll.EMPTY;
+        } finally {
+            lock.unlock();
+        }
+
+        consumer.accept(stream, view, arrival);
+        return Poll.LINE;
+    }
+
+    /**
+     * No more lines will be offered, {@link #take} returns false once the backlog is empty.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases the spill segment, call once the consumer has stopped.
+     */
+    public void dispose() {
+        lock.lock();
+        try {
+            closeSpill();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of bytes (ring and spill segment) waiting to be processed
+     */
+    public long backlogBytes() {
+        lock.lock();
+        try {
+            return used + (spillWritePosition + spillWriteBuffer.position() - spillReadPosition);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of lines waiting to be processed
+     */
+    public long backlogLines() {
+        lock.lock();
+        try {
+            return backlogLines;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the total number of bytes that had to be written to disk because consumers fell behind
+     */
+    public long spilledBytes() {
+        lock.lock();
+        try {
+            return spilledBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public enum Poll {
+        LINE,
+        EMPTY,
+        CLOSED
+    }
+
+    @FunctionalInterface
+    public interface Consumer {
+        void accept(ServerOutputListener.Stream stream, LineView line, long arrivalMillis);
+    }
+
+    /** @return false if the line was dropped */
+    private boolean spill(ServerOutputListener.Stream stream, long arrival, LineView line) {
+        // Where the record starts, counting the file and the bytes still in the write buffer
+        long recordStart = spillWritePosition + spillWriteBuffer.position();
+        try {
+            if (spillChannel == null) {
+                spillFile = Files.createTempFile("servermaster-output", ".spill");
+                spillFile.toFile().deleteOnExit();
+                spillChannel = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                Constants.LOGGER.fine(() -> "Output consumers fell behind, spilling to " + spillFile);
+            }
+
+            spilling = true;
+            int length = line.byteLength();
+
+            if (spillWriteBuffer.remaining() < HEADER) flushSpill();
+            spillWriteBuffer.put((byte) stream.ordinal()).putLong(arrival).putInt(length);
+
+            int offset = line.byteOffset();
+            int remaining = length;
+            while (remaining > 0) {
+                if (!spillWriteBuffer.hasRemaining()) flushSpill();
+                int chunk = Math.min(remaining, spillWriteBuffer.remaining());
+                spillWriteBuffer.put(line.bytes(), offset, chunk);
+                offset += chunk;
+                remaining -= chunk;
+            }
+
+            spilledBytes += HEADER + length;
+            spilledLines++;
+            return true;
+        } catch (IOException e) {
+            Constants.LOGGER.log(Level.WARNING, "Failed to spill server output to disk, dropping line", e);
+            discardSpillFrom(recordStart);
+            return false;
+        }
+    }
+
+    /**
+     * Forgets the part of a record that was already buffered or written, so the segment ends with the record
+     * before it. Whatever was written past that point is overwritten by the next record.
+     */
+    private void discardSpillFrom(long recordStart) {
+        if (recordStart >= spillWritePosition) {
+            spillWriteBuffer.position((int) (recordStart - spillWritePosition));
+        } else {
+            spillWritePosition = recordStart;
+            spillWriteBuffer.clear();
+        }
+    }
+
+    private void flushSpill() throws IOException {
+        spillWriteBuffer.flip();
+        try {
+            while (spillWriteBuffer.hasRemaining()) {
+                spillWritePosition += spillChannel.write(spillWriteBuffer, spillWritePosition);
+            }
+        } finally {
+            // Keeps what was not written, the file and the buffer stay one contiguous segment
+            spillWriteBuffer.compact();
+        }
+    }
+
+    private boolean hasSpilledRecords() {
+        return spilling && spillReadPosition < spillWritePosition + spillWriteBuffer.position();
+    }
+
+    private int readSpillHeader() throws IOException {
+        if (spillReadPosition + HEADER > spillWritePosition) flushSpill();
+
+        spillReadHeader.clear();
+        readFully(spillReadHeader);
+        return spillReadHeader.get(0) & 0xFF;
+    }
+
+    private void readSpill(int length) throws IOException {
+        if (spillReadPosition + length > spillWritePosition) flushSpill();
+
+        readFully(ByteBuffer.wrap(takeBuffer, 0, length));
+        spilledLines--;
+
+        // Caught up with the spill segment, go back to the in-memory ring
+        if (spillReadPosition == spillWritePosition && spillWriteBuffer.position() == 0) {
+            resetSpill();
+        }
+    }
+
+    private void readFully(ByteBuffer target) throws IOException {
+        while (target.hasRemaining()) {
+            int read = spillChannel.read(target, spillReadPosition);
+            if (read < 0) throw new IOException("Unexpected end of spill segment");
+            spillReadPosition += read;
+        }
+    }
+
+    /** Forgets the spill segment, along with the lines still in it when it could not be read. */
+    private void resetSpill() {
+        backlogLines -= spilledLines;
+        spilledLines = 0;
+        spilling = false;
+        spillReadPosition = 0;
+        spillWritePosition = 0;
+        spillWriteBuffer.clear();
+
+        try {
+            if (spillChannel != null) spillChannel.truncate(0);
+        } catch (IOException e) {
+            Constants.LOGGER.log(Level.FINE, "Failed to truncate the output spill segment", e);
+        }
+    }
+
+    private void closeSpill() {
+        if (spillChannel == null) return;
+
+        try {
+            spillChannel.close();
+            Files.deleteIfExists(spillFile);
+        } catch (IOException e) {
+            Constants.LOGGER.log(Level.FINE, "Failed to delete the output spill segment", e);
+        }
+
+        spillChannel = null;
+        spillFile = null;
+    }
+
+    private void ensureTakeBuffer(int length) {
+        if (takeBuffer.length < length) takeBuffer = new byte[Math.max(length, takeBuffer.length * 2)];
+    }
+
+    private void ringPut(byte b) {
+        ring[tail] = b;
+        tail = (tail + 1) % ring.length;
+        used++;
+    }
+
+    private void ringPutInt(int value) {
+        ringPut((byte) (value >>> 24));
+        ringPut((byte) (value >>> 16));
+        ringPut((byte) (value >>> 8));
+        ringPut((byte) value);
+    }
+
+    private void ringPut(byte[] src, int offset, int length) {
+        int first = Math.min(length, ring.length - tail);
+        System.arraycopy(src, offset, ring, tail, first);
+        System.arraycopy(src, offset + first, ring, 0, length - first);
+        tail = (tail + length) % ring.length;
+        used += length;
+    }
+
+    private void ringPutLong(long value) {
+        ringPutInt((int) (value >>> 32));
+        ringPutInt((int) value);
+    }
+
+    private int ringGet() {
+        int b = ring[head] & 0xFF;
+        head = (head + 1) % ring.length;
+        used--;
+        return b;
+    }
+
+    private int ringGetInt() {
+        return (ringGet() << 24) | (ringGet() << 16) | (ringGet() << 8) | ringGet();
+    }
+
+    private long ringGetLong() {
+        return ((long) ringGetInt() << 32) | (ringGetInt() & 0xFFFFFFFFL);
+    }
+
+    private void ringGet(byte[] dst, int length) {
+        int first = Math.min(length, ring.length - head);
+        System.arraycopy(ring, head, dst, 0, first);
+        System.arraycopy(ring, 0, dst, first, length - first);
+        head = (head + length) % ring.length;
+        used -= length;
+    }
+}
@@ -0,0 +1,69 @@
+package org.bsdevelopment.servermaster.instance.server.thread;
+
+import org.bsdevelopment.servermaster.Constants;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Shared executor for blocking process I/O (launching processes and draining their output streams).
+ * Every task runs on its own virtual thread, so no platform thread is dedicated to a server or BuildTools
+ * run.
+ * <p>
+ * Process streams are plain file descriptors, which the JDK cannot read without blocking. A virtual thread
+ * reading one is pinned to its carrier for the read, and the scheduler adds a carrier for the time being
+ * (up to {@code jdk.virtualThreadScheduler.maxPoolSize}), so the other virtual threads keep running. The
+ * carriers come and go with the reads that are actually waiting, the pool shrinks again once servers idle.
+ */
+public final class ProcessIO {
+    private static final ExecutorService EXECUTOR = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("ServerMaster-io-", 0).factory());
+    private static final Executor COUNTING_EXECUTOR = task -> execute(null, task);
+
+    private static final AtomicInteger ACTIVE_TASKS = new AtomicInteger();
+    private static final AtomicLong SUBMITTED_TASKS = new AtomicLong();
+
+    private ProcessIO() {
+    }
+
+    /**
+     * The executor used for process I/O, tasks submitted through it are included in {@link #activeTasks()}.
+     */
+    public static Executor executor() {
+        return COUNTING_EXECUTOR;
+    }
+
+    public static void execute(String name, Runnable task) {
+        SUBMITTED_TASKS.incrementAndGet();
+
+        EXECUTOR.execute(() -> {
+            if (name != null) Thread.currentThread().setName(name);
+            ACTIVE_TASKS.incrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable throwable) {
+                Constants.LOGGER.log(Level.WARNING, "Process I/O task failed", throwable);
+            } finally {
+                ACTIVE_TASKS.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * @return the number of I/O tasks currently running
+     */
+    public static int activeTasks() {
+        return ACTIVE_TASKS.get();
+    }
+
+    /**
+     * @return the total number of I/O tasks submitted since startup
+     */
+    public static long submittedTasks() {
+        return SUBMITTED_TASKS.get();
+    }
+}
@@ -11,4 +11,59 @@ public interface ServerOutputListener {
     }
 
     void onLine(Server server, Stream stream, String line);
+
+    /**
+     * Called with a reusable view of the line that is only valid during the call.
+     * Listeners that can work on the view (or its raw bytes) should override this to avoid creating a String.
+     */
+    default void onLine(Server server, Stream stream, LineView line) {
+        onLine(server, stream, line.toString());
+    }
+
+    /**
+     * Called by {@link ServerThread} with every line that arrived within one batch window. Listeners that
+     * hand lines to another thread (like the JavaFX thread) should override this to dispatch once per batch.
+     * By default every line is handed to {@link #onLine(Server, Stream, LineView)}, as a view of the batch.
+     */
+    default void onLines(Server server, LineBatch batch) {
+        var view = new LineView();
+        for (int i = 0; i < batch.size(); i++) {
+            onLine(server, batch.stream(i), batch.view(i, view));
+        }
+    }
+
+    /**
+     * Called once after the server's last line was delivered (or when it never started).
+     */
+    default void onClose(Server server) {
+    }
+
+    /**
+     * @return a listener that hands every line to each of {@code listeners}, in order
+     */
+    static ServerOutputListener fanOut(ServerOutputListener... listeners) {
+        ServerOutputListener[] targets = listeners.clone();
+
+        return new ServerOutputListener() {
+            @Override
+            public void onLine(Server server, Stream stream, String line) {
+                for (ServerOutputListener target : targets) target.onLine(server, stream, line);
+            }
+
+            @Override
+            public void onLine(Server server, Stream stream, LineView line) {
+                for (ServerOutputListener target : targets) target.onLine(server, stream, line);
+            }
+
+            @Override
+            public void onLines(Server server, LineBatch batch) {
+                for (ServerOutputListener target : targets) target.onLines(server, batch);
+            }
+
+            @Override
+            public void onClose(Server server) {
+                for (ServerOutputListener target : targets) target.onClose(server);
+            }
+        };
+    }
 }
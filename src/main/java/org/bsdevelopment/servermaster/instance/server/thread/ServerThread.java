@@ -1,72 +1,150 @@
 package org.bsdevelopment.servermaster.instance.server.thread;
 
+import lombok.Getter;
 import lombok.Setter;
 import org.bsdevelopment.servermaster.Constants;
 import org.bsdevelopment.servermaster.instance.server.Server;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
-public class ServerThread extends Thread {
+/**
+ * Handle to a running server process. The process is launched and its streams are drained on
+ * {@link ProcessIO} virtual threads (see there for what a blocking stream read costs), and exit is observed
+ * through {@link Process#onExit()} so no platform thread is parked per server.
+ */
+public class ServerThread {
+    private final String name;
     private final ProcessBuilder builder;
     private final Server server;
     private final ServerThreadCallback callback;
     @Setter private ServerThreadCallback serverStopCallback;
     private final ServerOutputListener outputListener;
-    private Process process;
-    private PrintWriter printWriter;
+    private final long batchWindowMs;
+    private final int batchMaxLines;
+    @Getter private final OutputBuffer outputBuffer = new OutputBuffer();
+    private final AtomicInteger openStreams = new AtomicInteger(2);
+    private final ConsoleRecorder recorder;
+    private volatile Process process;
+    private volatile PrintWriter printWriter;
+
+    public ServerThread(Server server, ProcessBuilder pb, long batchWindowMs, int batchMaxLines,
+                        ServerOutputListener outputListener, ServerThreadCallback callback) {
+        this(server, pb, batchWindowMs, batchMaxLines, outputListener, callback, null);
+    }
 
-    public ServerThread(Server server, ProcessBuilder pb, ServerOutputListener outputListener, ServerThreadCallback callback) {
+    /**
+     * @param recorder records everything read from the process, closed once both streams ended; may be null
+     */
+    public ServerThread(Server server, ProcessBuilder pb, long batchWindowMs, int batchMaxLines,
+                        ServerOutputListener outputListener, ServerThreadCallback callback, ConsoleRecorder recorder) {
         this.server = server;
         this.builder = pb;
+        this.batchWindowMs = batchWindowMs;
+        this.batchMaxLines = batchMaxLines;
         this.callback = callback;
         this.outputListener = outputListener;
+        this.recorder = recorder;
+        this.name = "ServerThread#" + server.getName();
 
-        setName("ServerThread#" + server.getName());
-        setUncaughtExceptionHandler((thread, throwable) -> throwable.printStackTrace());
-
-        start();
+        ProcessIO.execute(name, this::launch);
     }
 
-    @Override
-    public void run() {
+    private void launch() {
+        Process started;
         try {
-            process = builder.start();
+            started = builder.start();
             Constants.LOGGER.info(() -> "Starting server " + server.getName());
         } catch (IOException e) {
             Constants.LOGGER.log(Level.SEVERE, "Unable to start the server", e);
-            callback.call(server, -1);
-            if (this.serverStopCallback != null) this.serverStopCallback.call(server, -1);
+            if (outputListener != null) outputListener.onClose(server);
+            if (recorder != null) recorder.close();
+            onExit(-1);
             return;
         }
 
-        new Thread(new StreamRedirector(server, ServerOutputListener.Stream.STDOUT, process.getInputStream(), outputListener),
-                getName() + "-stdout").start();
-        new Thread(new StreamRedirector(server, ServerOutputListener.Stream.STDERR, process.getErrorStream(), outputListener),
-                getName() + "-stderr").start();
+        printWriter = new PrintWriter(new OutputStreamWriter(started.getOutputStream()));
+        process = started;
+
+        InputStream stdout = started.getInputStream();
+        InputStream stderr = started.getErrorStream();
+        if (recorder != null) {
+            stdout = recorder.tee(ServerOutputListener.Stream.STDOUT, stdout);
+            stderr = recorder.tee(ServerOutputListener.Stream.STDERR, stderr);
+        }
+
+        ProcessIO.execute(name + "-stdout", new StreamRedirector(ServerOutputListener.Stream.STDOUT, stdout, outputBuffer, this::onStreamClosed));
+        ProcessIO.execute(name + "-stderr", new StreamRedirector(ServerOutputListener.Stream.STDERR, stderr, outputBuffer, this::onStreamClosed));
+        ProcessIO.execute(name + "-output", this::dispatchOutput);
+
+        started.onExit().whenComplete((exited, throwable) -> {
+            if (throwable != null) {
+                Constants.LOGGER.log(Level.WARNING, "Lost track of the server process", throwable);
+                onExit(-1);
+                return;
+            }
+
+            onExit(exited.exitValue());
+        });
+    }
+
+    private void onStreamClosed() {
+        if (openStreams.decrementAndGet() != 0) return;
+
+        outputBuffer.close();
+        if (recorder != null) recorder.close();
+    }
+
+    private void dispatchOutput() {
+        dispatch(server, outputBuffer, batchWindowMs, batchMaxLines, outputListener);
+    }
 
-        printWriter = new PrintWriter(new OutputStreamWriter(process.getOutputStream()));
+    // Listeners run here, so a slow listener only grows the backlog and never blocks the server's pipes.
+    // Lines are collected until the batch window has passed since the first one or the batch is full.
+    // ConsoleReplay drives the same loop.
+    static void dispatch(Server server, OutputBuffer outputBuffer, long batchWindowMs, int batchMaxLines, ServerOutputListener outputListener) {
+        var view = new LineView();
+        long windowNanos = TimeUnit.MILLISECONDS.toNanos(batchWindowMs);
 
         try {
-            int result = process.waitFor();
+            boolean open = true;
+            while (open) {
+                var batch = new LineBatch(Math.min(batchMaxLines, 256));
+                OutputBuffer.Consumer collect = (stream, line, arrival) -> batch.add(stream, line, arrival);
+
+                if (outputBuffer.poll(view, collect, Long.MAX_VALUE) == OutputBuffer.Poll.CLOSED) break;
+
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < batchMaxLines) {
+                    var poll = outputBuffer.poll(view, collect, deadline - System.nanoTime());
+                    if (poll == OutputBuffer.Poll.EMPTY) break;
+                    if (poll == OutputBuffer.Poll.CLOSED) {
+                        open = false;
+                        break;
+                    }
+                }
 
-            callback.call(server, result);
-            if (this.serverStopCallback != null) this.serverStopCallback.call(server, result);
+                if (outputListener != null) outputListener.onLines(server, batch);
+            }
         } catch (InterruptedException e) {
-            callback.call(server, -1);
-            if (this.serverStopCallback != null) this.serverStopCallback.call(server, -1);
-
-            Constants.LOGGER.log(Level.WARNING, "Server thread interrupted", e);
             Thread.currentThread().interrupt();
+        } finally {
+            outputBuffer.dispose();
+            if (outputListener != null) outputListener.onClose(server);
         }
     }
 
+    private void onExit(int statusCode) {
+        callback.call(server, statusCode);
+        if (this.serverStopCallback != null) this.serverStopCallback.call(server, statusCode);
+    }
+
     public void sendMessage(String message) {
         try {
             Constants.LOGGER.fine(() -> "Executing command: '" + message + "'");
@@ -83,23 +161,23 @@ public class ServerThread extends Thread {
     }
 
     public void killServer() {
-        process.destroyForcibly();
+        Process p = process;
+        if (p == null) return;
+
+        p.destroyForcibly();
         Constants.LOGGER.info("Force stopped (killed) the server");
     }
 
-    private record StreamRedirector(Server server, ServerOutputListener.Stream stream, InputStream in, ServerOutputListener listener) implements Runnable {
+    record StreamRedirector(ServerOutputListener.Stream stream, InputStream in, OutputBuffer buffer, Runnable onClose) implements Runnable {
 
         @Override
             public void run() {
-                BufferedReader br = new BufferedReader(new InputStreamReader(in));
                 try {
-                    String line;
-                    while ((line = br.readLine()) != null) {
-                        if (line.isEmpty() || line.equals(">")) continue;
-                        if (listener != null) listener.onLine(server, stream, line);
-                    }
+                    new LineScanner(in).scan(line -> buffer.offer(stream, line));
                 } catch (IOException ex) {
                     Constants.LOGGER.log(Level.FINE, "Stream redirector ended", ex);
+                } finally {
+                    onClose.run();
                 }
             }
 
@@ -109,8 +187,7 @@ public class ServerThread extends Thread {
                 if (obj == null || obj.getClass() != this.getClass()) return false;
                 var that = (StreamRedirector) obj;
                 return Objects.equals(this.in, that.in) &&
-                        Objects.equals(this.listener, that.listener) &&
-                        Objects.equals(this.server, that.server) &&
+                        Objects.equals(this.buffer, that.buffer) &&
                         this.stream == that.stream;
             }
 
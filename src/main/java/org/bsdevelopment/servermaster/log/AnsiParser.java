@@ -0,0 +1,268 @@
+package org.bsdevelopment.servermaster.log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Strips ANSI escape sequences from console lines and turns the SGR ones (colors, bold, ...) into style runs.
+ * The parser is a hand-written state machine that looks at every char once; lines without an escape and
+ * without a style carried over from an earlier line take a fast path that only scans for ESC.
+ * <p>
+ * Like a terminal, the style stays in effect across lines until it is reset, so use one parser per stream.
+ * A style is packed into an int, see {@link #styleClasses(int)} for the matching CSS classes. Not thread safe.
+ */
+public final class AnsiParser {
+    private static final char ESC = 0x1B;
+    private static final char BEL = 0x07;
+
+    private static final int FG_SHIFT = 0;
+    private static final int BG_SHIFT = 5;
+    private static final int COLOR_MASK = 0x1F;
+    private static final int BOLD = 1 << 10;
+    private static final int FAINT = 1 << 11;
+    private static final int ITALIC = 1 << 12;
+    private static final int UNDERLINE = 1 << 13;
+    private static final int INVERSE = 1 << 14;
+    public static final int DEFAULT_STYLE = 0;
+
+    // xterm's default 16 colors, used to map 256 and 24-bit colors to the nearest class
+    private static final int[] PALETTE = {
+            0x000000, 0xCD0000, 0x00CD00, 0xCDCD00, 0x0000EE, 0xCD00CD, 0x00CDCD, 0xE5E5E5,
+            0x7F7F7F, 0xFF0000, 0x00FF00, 0xFFFF00, 0x5C5CFF, 0xFF00FF, 0x00FFFF, 0xFFFFFF
+    };
+    private static final int MAX_PARAMS = 16;
+
+    private final StringBuilder text = new StringBuilder(256);
+    private final int[] params = new int[MAX_PARAMS];
+    private int[] runEnds = new int[8];
+    private int[] runStyles = new int[8];
+    private int runs;
+    private int style = DEFAULT_STYLE;
+
+    /**
+     * The styled runs of a line, each run ends where the next one starts.
+     *
+     * @param ends   the end of each run in the stripped text, exclusive
+     * @param styles the packed style of each run
+     */
+    public record Spans(int[] ends, int[] styles) {
+        public int size() {
+            return ends.length;
+        }
+    }
+
+    /**
+     * Parses the next line of the stream.
+     *
+     * @return the line's style runs, or null if it has no escapes and no style carried over, so it can be
+     *         used as is; otherwise {@link #text()} holds the line without escapes
+     */
+    public Spans parse(CharSequence line) {
+        if (style == DEFAULT_STYLE && indexOfEsc(line) < 0) return null;
+
+        text.setLength(0);
+        runs = 0;
+        int runStyle = style;
+
+        for (int i = 0, n = line.length(); i < n; ) {
+            int esc = i;
+            while (esc < n && line.charAt(esc) != ESC) esc++;
+            text.append(line, i, esc);
+            if (esc == n) break;
+
+            i = escape(line, esc + 1);
+            if (style != runStyle) {
+                addRun(runStyle);
+                runStyle = style;
+            }
+        }
+        addRun(runStyle);
+        if (runs == 0) push(0, runStyle);
+
+        return new Spans(Arrays.copyOf(runEnds, runs), Arrays.copyOf(runStyles, runs));
+    }
+
+    /** @return the last parsed line without escapes, only valid after {@link #parse} returned spans */
+    public String text() {
+        return text.toString();
+    }
+
+    /** Forgets the current style, as after ESC[0m. */
+    public void reset() {
+        style = DEFAULT_STYLE;
+    }
+
+    /** @return the CSS classes for a packed style, "ansi-fg-N", "ansi-bg-N", "ansi-bold" and so on */
+    public static List<String> styleClasses(int style) {
+        int fg = (style >>> FG_SHIFT) & COLOR_MASK;
+        int bg = (style >>> BG_SHIFT) & COLOR_MASK;
+        if ((style & INVERSE) != 0) {
+            int swap = fg;
+            fg = bg == 0 ? 1 : bg;
+            bg = swap == 0 ? 16 : swap;
+        }
+
+        var classes = new ArrayList<String>(4);
+        if (fg != 0) classes.add("ansi-fg-" + (fg - 1));
+        if (bg != 0) classes.add("ansi-bg-" + (bg - 1));
+        if ((style & BOLD) != 0) classes.add("ansi-bold");
+        if ((style & FAINT) != 0) classes.add("ansi-faint");
+        if ((style & ITALIC) != 0) classes.add("ansi-italic");
+        if ((style & UNDERLINE) != 0) classes.add("ansi-underline");
+        return classes;
+    }
+
+    private void addRun(int runStyle) {
+        int end = text.length();
+        // Escapes next to each other leave empty runs behind
+        if (end == (runs == 0 ? 0 : runEnds[runs - 1])) return;
+        if (runs > 0 && runStyles[runs - 1] == runStyle) {
+            runEnds[runs - 1] = end;
+            return;
+        }
+        push(end, runStyle);
+    }
+
+    private void push(int end, int runStyle) {
+        if (runs == runEnds.length) {
+            runEnds = Arrays.copyOf(runEnds, runs * 2);
+            runStyles = Arrays.copyOf(runStyles, runs * 2);
+        }
+        runEnds[runs] = end;
+        runStyles[runs] = runStyle;
+        runs++;
+    }
+
+    /**
+     * Skips the escape sequence starting after ESC and applies it if it is an SGR sequence.
+     *
+     * @return the index after the sequence
+     */
+    private int escape(CharSequence line, int i) {
+        int n = line.length();
+        if (i >= n) return n;
+
+        char kind = line.charAt(i);
+        if (kind == '[') return csi(line, i + 1);
+        if (kind == ']') {
+            // OSC, up to BEL or ESC \
+            for (i++; i < n; i++) {
+                char c = line.charAt(i);
+                if (c == BEL) return i + 1;
+                if (c == ESC && i + 1 < n && line.charAt(i + 1) == '\\') return i + 2;
+            }
+            return n;
+        }
+        // Two-char sequences like ESC ( B
+        return kind == '(' || kind == ')' ? Math.min(n, i + 2) : i + 1;
+    }
+
+    private int csi(CharSequence line, int i) {
+        int n = line.length();
+        int count = 0;
+        int value = 0;
+        boolean any = false;
+
+        for (; i < n; i++) {
+            char c = line.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                any = true;
+            } else if (c == ';' || c == ':') {
+                if (count < MAX_PARAMS) params[count++] = any ? value : 0;
+                value = 0;
+                any = false;
+            } else if (c >= 0x20 && c <= 0x3F) {
+                // Private markers and intermediates, not used by SGR
+            } else {
+                if (c == 'm') {
+                    if (count < MAX_PARAMS) params[count++] = any ? value : 0;
+                    sgr(count);
+                }
+                // Any other final byte (cursor movement, erase, ...) is dropped
+                return i + 1;
+            }
+        }
+        return n;
+    }
+
+    private void sgr(int count) {
+        for (int p = 0; p < count; p++) {
+            int code = params[p];
+            switch (code) {
+                case 0 -> style = DEFAULT_STYLE;
+                case 1 -> style |= BOLD;
+                case 2 -> style |= FAINT;
+                case 3 -> style |= ITALIC;
+                case 4 -> style |= UNDERLINE;
+                case 7 -> style |= INVERSE;
+                case 22 -> style &= ~(BOLD | FAINT);
+                case 23 -> style &= ~ITALIC;
+                case 24 -> style &= ~UNDERLINE;
+                case 27 -> style &= ~INVERSE;
+                case 39 -> style = withColor(style, FG_SHIFT, 0);
+                case 49 -> style = withColor(style, BG_SHIFT, 0);
+                case 38, 48 -> {
+                    int shift = code == 38 ? FG_SHIFT : BG_SHIFT;
+                    if (p + 2 < count && params[p + 1] == 5) {
+                        style = withColor(style, shift, xterm256(params[p + 2]) + 1);
+                        p += 2;
+                    } else if (p + 4 < count && params[p + 1] == 2) {
+                        style = withColor(style, shift, nearest(params[p + 2], params[p + 3], params[p + 4]) + 1);
+                        p += 4;
+                    } else {
+                        p = count;
+                    }
+                }
+                default -> {
+                    if (code >= 30 && code <= 37) style = withColor(style, FG_SHIFT, code - 30 + 1);
+                    else if (code >= 90 && code <= 97) style = withColor(style, FG_SHIFT, code - 90 + 9);
+                    else if (code >= 40 && code <= 47) style = withColor(style, BG_SHIFT, code - 40 + 1);
+                    else if (code >= 100 && code <= 107) style = withColor(style, BG_SHIFT, code - 100 + 9);
+                }
+            }
+        }
+    }
+
+    private static int withColor(int style, int shift, int color) {
+        return (style & ~(COLOR_MASK << shift)) | (color << shift);
+    }
+
+    private static int xterm256(int index) {
+        if (index < 16) return Math.max(index, 0);
+        if (index < 232) {
+            int cube = index - 16;
+            return nearest(cubeLevel(cube / 36), cubeLevel(cube / 6 % 6), cubeLevel(cube % 6));
+        }
+        int gray = 8 + (Math.min(index, 255) - 232) * 10;
+        return nearest(gray, gray, gray);
+    }
+
+    private static int cubeLevel(int step) {
+        return step == 0 ? 0 : 55 + step * 40;
+    }
+
+    private static int nearest(int r, int g, int b) {
+        int best = 0;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < PALETTE.length; i++) {
+            int dr = r - (PALETTE[i] >>> 16 & 0xFF);
+            int dg = g - (PALETTE[i] >>> 8 & 0xFF);
+            int db = b - (PALETTE[i] & 0xFF);
+            int distance = dr * dr + dg * dg + db * db;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static int indexOfEsc(CharSequence line) {
+        for (int i = 0, n = line.length(); i < n; i++) {
+            if (line.charAt(i) == ESC) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,250 @@
+package org.bsdevelopment.servermaster.log;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Older console lines, kept as deflated chunks of consecutive lines. Lines arrive in sequence order (usually
+ * evicted from a {@link LogStore}), are collected into a chunk until it is full and then compressed. Reading
+ * an old line inflates its chunk, a few recently read chunks are kept inflated so scrolling through them
+ * does not inflate them again.
+ * <p>
+ * Once the compressed chunks exceed the budget the oldest chunk is dropped.
+ */
+public final class CompressedHistory {
+    private static final int CHUNK_LINES = 2048;
+    private static final int CHUNK_BYTES = 256 * 1024;
+    private static final int CACHED_CHUNKS = 8;
+
+    private final byte[] buffer = new byte[16 * 1024];
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private long maxCompressedBytes;
+
+    private final Deque<Chunk> chunks = new ArrayDeque<>();
+    private final Map<Chunk, String[]> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Chunk, String[]> eldest) {
+            return size() > CACHED_CHUNKS;
+        }
+    };
+
+    // The chunk being filled, uncompressed, with the end of every line in it
+    private byte[] open = new byte[CHUNK_BYTES + 1024];
+    private int openUsed;
+    private final int[] openEnds = new int[CHUNK_LINES];
+    private int openLines;
+    // Whether a line of the open chunk has a '\n' of its own, the chunk then keeps its line ends
+    private boolean openMultiline;
+    private long openFirst;
+
+    private long firstSequence;
+    private long endSequence;
+    private long compressedBytes;
+    private long rawBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param firstSequence  the line number at which the chunk starts
+     * @param lines          the number of lines in the chunk
+     * @param data           the deflated lines, UTF-8 and separated by '\n'
+     * @param rawBytes       the size of the inflated data
+     * @param ends           where each line ends in the inflated data, null if no line has a '\n' of its own
+     */
+    private record Chunk(long firstSequence, int lines, byte[] data, int rawBytes, int[] ends) {
+    }
+
+    public CompressedHistory(long maxCompressedBytes) {
+        setBudget(maxCompressedBytes);
+    }
+
+    public synchronized void setBudget(long maxCompressedBytes) {
+        if (maxCompressedBytes <= 0) throw new IllegalArgumentException("maxCompressedBytes must be > 0");
+
+        this.maxCompressedBytes = maxCompressedBytes;
+        trimToBudget();
+    }
+
+    /**
+     * Adds the line after {@link #endSequence()}. A line that does not follow on (after the source was cleared)
+     * starts a new history.
+     */
+    public synchronized void append(long sequence, char[] chars, int offset, int length) {
+        if (sequence != endSequence) {
+            clear();
+            firstSequence = endSequence = openFirst = sequence;
+        }
+
+        encode(chars, offset, length);
+        openEnds[openLines++] = openUsed;
+        open[openUsed++] = '\n';
+        endSequence++;
+
+        if (openLines == CHUNK_LINES || openUsed >= CHUNK_BYTES) seal();
+    }
+
+    private void encode(char[] chars, int offset, int length) {
+        // Console output is nearly all ASCII, anything else goes through the regular encoder
+        ensureOpen(length + 1);
+        for (int i = 0; i < length; i++) {
+            char c = chars[offset + i];
+            if (c >= 0x80) {
+                byte[] rest = new String(chars, offset + i, length - i).getBytes(StandardCharsets.UTF_8);
+                ensureOpen(rest.length + 1);
+                System.arraycopy(rest, 0, open, openUsed, rest.length);
+                openUsed += rest.length;
+                // A '\n' byte is only ever the character itself in UTF-8
+                for (byte b : rest) openMultiline |= b == '\n';
+                return;
+            }
+            if (c == '\n') openMultiline = true;
+            open[openUsed++] = (byte) c;
+        }
+    }
+
+    private void ensureOpen(int bytes) {
+        if (openUsed + bytes > open.length) open = Arrays.copyOf(open, Math.max(open.length * 2, openUsed + bytes));
+    }
+
+    public synchronized void clear() {
+        chunks.clear();
+        cache.clear();
+        openUsed = 0;
+        openLines = 0;
+        openMultiline = false;
+        firstSequence = endSequence = openFirst = 0;
+        compressedBytes = rawBytes = 0;
+    }
+
+    /** @return the oldest line still held */
+    public synchronized long firstSequence() {
+        return firstSequence;
+    }
+
+    /** @return the line after the newest one held */
+    public synchronized long endSequence() {
+        return endSequence;
+    }
+
+    public synchronized boolean contains(long sequence) {
+        return sequence >= firstSequence && sequence < endSequence;
+    }
+
+    public synchronized String line(long sequence) {
+        if (!contains(sequence)) throw new IndexOutOfBoundsException("Line " + sequence + " is not in the history");
+        if (sequence >= openFirst) {
+            int line = (int) (sequence - openFirst);
+            int start = line == 0 ? 0 : openEnds[line - 1] + 1;
+            return new String(open, start, openEnds[line] - start, StandardCharsets.UTF_8);
+        }
+
+        Chunk chunk = find(sequence);
+        String[] lines = cache.get(chunk);
+        if (lines != null) {
+            hits++;
+        } else {
+            misses++;
+            lines = inflate(chunk);
+            cache.put(chunk, lines);
+        }
+        return lines[(int) (sequence - chunk.firstSequence)];
+    }
+
+    /** @return inflated size / compressed size of the sealed chunks, 0 before the first chunk is sealed */
+    public synchronized double compressionRatio() {
+        return compressedBytes == 0 ? 0 : (double) rawBytes / compressedBytes;
+    }
+
+    /** @return the share of chunk reads that were served from the inflated cache */
+    public synchronized double cacheHitRate() {
+        long reads = hits + misses;
+        return reads == 0 ? 0 : (double) hits / reads;
+    }
+
+    public synchronized long compressedBytes() {
+        return compressedBytes;
+    }
+
+    public synchronized long lineCount() {
+        return endSequence - firstSequence;
+    }
+
+    private Chunk find(long sequence) {
+        // Chunks are few (the budget / ~40KB) and lookups cluster at the ends, a linear walk is enough
+        for (Chunk chunk : chunks) {
+            if (sequence < chunk.firstSequence + chunk.lines) return chunk;
+        }
+        throw new IllegalStateException("No chunk holds line " + sequence);
+    }
+
+    private void seal() {
+        deflater.reset();
+        deflater.setInput(open, 0, openUsed);
+        deflater.finish();
+
+        var out = new ByteArrayOutputStream(openUsed / 4 + 64);
+        while (!deflater.finished()) {
+            int written = deflater.deflate(buffer);
+            out.write(buffer, 0, written);
+        }
+
+        var chunk = new Chunk(openFirst, openLines, out.toByteArray(), openUsed, openMultiline ? Arrays.copyOf(openEnds, openLines) : null);
+        chunks.addLast(chunk);
+        compressedBytes += chunk.data.length;
+        rawBytes += chunk.rawBytes;
+
+        openFirst = endSequence;
+        openUsed = 0;
+        openLines = 0;
+        openMultiline = false;
+        trimToBudget();
+    }
+
+    private String[] inflate(Chunk chunk) {
+        byte[] raw = new byte[chunk.rawBytes];
+
+        inflater.reset();
+        inflater.setInput(chunk.data);
+        try {
+            int read = 0;
+            while (read < raw.length && !inflater.finished()) {
+                read += inflater.inflate(raw, read, raw.length - read);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt history chunk at line " + chunk.firstSequence, e);
+        }
+
+        String[] lines = new String[chunk.lines];
+        int start = 0;
+        for (int i = 0; i < lines.length; i++) {
+            int end = start;
+            if (chunk.ends != null) {
+                end = chunk.ends[i];
+            } else {
+                while (raw[end] != '\n') end++;
+            }
+            lines[i] = new String(raw, start, end - start, StandardCharsets.UTF_8);
+            start = end + 1;
+        }
+        return lines;
+    }
+
+    private void trimToBudget() {
+        while (compressedBytes > maxCompressedBytes && !chunks.isEmpty()) {
+            Chunk oldest = chunks.removeFirst();
+            cache.remove(oldest);
+            compressedBytes -= oldest.data.length;
+            rawBytes -= oldest.rawBytes;
+            firstSequence = oldest.firstSequence + oldest.lines;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package org.bsdevelopment.servermaster.log;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups the lines of Java stack traces into blocks and counts the blocks per fingerprint, the exception type
+ * plus its top {@value #FINGERPRINT_FRAMES} frames. The same exception thrown from the same place always has
+ * the same fingerprint, whatever its message says, so {@link #top(int)} shows the hot error paths.
+ * <p>
+ * Lines are fed through a {@link Tracker}, one per output stream. The table itself is thread safe, trackers
+ * of several servers may record into it while the FX thread reads it.
+ */
+public final class ExceptionAggregator {
+    /** The line is not part of a stack trace. */
+    public static final int LINE_PLAIN = 0;
+    /** The line names an exception and starts a block. */
+    public static final int LINE_BLOCK_START = 1;
+    /** The line continues the block before it: a frame, "... n more", "Caused by:" or "Suppressed:". */
+    public static final int LINE_BLOCK_CONTINUATION = 2;
+
+    private static final int FINGERPRINT_FRAMES = 3;
+    private static final int MAX_MESSAGE_LENGTH = 200;
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private long total;
+
+    /**
+     * @param fingerprint the exception type and top frames, one per line
+     * @param type        the exception's class name
+     * @param message     the message of the last occurrence, may be empty
+     * @param topFrames   up to {@value #FINGERPRINT_FRAMES} frames, without the leading "at "
+     * @param count       the number of occurrences
+     * @param firstSeen   when it was first seen, in epoch milliseconds
+     * @param lastSeen    when it was last seen, in epoch milliseconds
+     */
+    public record ExceptionStats(String fingerprint, String type, String message, List<String> topFrames,
+                                 long count, long firstSeen, long lastSeen) {
+    }
+
+    private static final class Entry {
+        private final String type;
+        private final List<String> topFrames;
+        private long firstSeen;
+        private String message;
+        private long count;
+        private long lastSeen;
+
+        private Entry(String type, List<String> topFrames, long firstSeen) {
+            this.type = type;
+            this.topFrames = topFrames;
+            this.firstSeen = firstSeen;
+        }
+    }
+
+    public Tracker newTracker() {
+        return new Tracker();
+    }
+
+    /** @return the most frequent exceptions, most frequent first */
+    public synchronized List<ExceptionStats> top(int limit) {
+        var result = new ArrayList<ExceptionStats>(entries.size());
+        entries.forEach((fingerprint, entry) -> result.add(new ExceptionStats(fingerprint, entry.type, entry.message,
+                entry.topFrames, entry.count, entry.firstSeen, entry.lastSeen)));
+
+        result.sort(Comparator.comparingLong(ExceptionStats::count).reversed()
+                .thenComparing(Comparator.comparingLong(ExceptionStats::lastSeen).reversed()));
+        return result.size() > limit ? result.subList(0, limit) : result;
+    }
+
+    /** @return the number of exceptions recorded */
+    public synchronized long total() {
+        return total;
+    }
+
+    /** @return the number of distinct fingerprints */
+    public synchronized int distinct() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        total = 0;
+    }
+
+    /** Adds the counts of another table, as read back from {@link LogArchiveAnalytics}' index. */
+    synchronized void merge(ExceptionStats stats) {
+        Entry entry = entries.computeIfAbsent(stats.fingerprint(), key -> new Entry(stats.type(), stats.topFrames(), stats.firstSeen()));
+        if (entry.count == 0 || stats.lastSeen() >= entry.lastSeen) {
+            entry.message = stats.message();
+            entry.lastSeen = stats.lastSeen();
+        }
+        entry.firstSeen = Math.min(entry.firstSeen, stats.firstSeen());
+        entry.count += stats.count();
+        total += stats.count();
+    }
+
+    private synchronized void record(String type, String message, List<String> frames, long now) {
+        String fingerprint = type + (frames.isEmpty() ? "" : "\n" + String.join("\n", frames));
+        Entry entry = entries.computeIfAbsent(fingerprint, key -> new Entry(type, List.copyOf(frames), now));
+        entry.message = message;
+        entry.count++;
+        entry.lastSeen = now;
+        total++;
+    }
+
+    /**
+     * Follows one output stream line by line. Not thread safe.
+     */
+    public final class Tracker {
+        private boolean inBlock;
+        private boolean recorded;
+        private String type;
+        private String message;
+        private final List<String> frames = new ArrayList<>(FINGERPRINT_FRAMES);
+        private final LogLineParser parser = new LogLineParser();
+
+        /**
+         * @param now the line's arrival, in epoch milliseconds
+         * @return {@link #LINE_PLAIN}, {@link #LINE_BLOCK_START} or {@link #LINE_BLOCK_CONTINUATION}
+         */
+        public int accept(CharSequence line, long now) {
+            parser.parse(line);
+            return accept(line, parser.messageStart(), now);
+        }
+
+        /**
+         * Same as {@link #accept(CharSequence, long)} for a line whose header was already parsed. Paper's
+         * stderr redirect logs every line of a trace with a header, so the trace starts after it.
+         *
+         * @param messageStart where the message starts, after the header, 0 for a line without one
+         */
+        int accept(CharSequence line, int messageStart, long now) {
+            if (inBlock && isContinuation(line, messageStart)) {
+                int start = skipWhitespace(line, messageStart);
+                if (!startsWith(line, start, "at ") && !startsWith(line, start, "... ")) {
+                    // The frames of a cause do not belong in the fingerprint
+                    finish(now);
+                } else if (frames.size() < FINGERPRINT_FRAMES && startsWith(line, start, "at ")) {
+                    frames.add(line.subSequence(start + 3, line.length()).toString());
+                    if (frames.size() == FINGERPRINT_FRAMES) finish(now);
+                }
+                return LINE_BLOCK_CONTINUATION;
+            }
+
+            if (inBlock) finish(now);
+            inBlock = false;
+
+            int typeEnd = exceptionTypeEnd(line, messageStart);
+            if (typeEnd < 0) return LINE_PLAIN;
+
+            inBlock = true;
+            recorded = false;
+            type = line.subSequence(messageStart, typeEnd).toString();
+            message = typeEnd < line.length() ? trimMessage(line, typeEnd + 1) : "";
+            frames.clear();
+            return LINE_BLOCK_START;
+        }
+
+        /** Records the open block, if any. Call when the stream ends. */
+        public void flush(long now) {
+            if (inBlock) finish(now);
+            inBlock = false;
+        }
+
+        private void finish(long now) {
+            if (recorded) return;
+
+            recorded = true;
+            record(type, message, frames, now);
+        }
+    }
+
+    private static boolean isContinuation(CharSequence line, int from) {
+        int start = skipWhitespace(line, from);
+        if (start == line.length()) return false;
+
+        if (start > from && (startsWith(line, start, "at ") || startsWith(line, start, "... "))) return true;
+        return startsWith(line, start, "Caused by: ") || startsWith(line, start, "Suppressed: ");
+    }
+
+    /**
+     * Matches a line whose message, from {@code from} on, starts with a qualified class name whose simple name
+     * ends in Exception, Error or Throwable, followed by the end of the line or ':'.
+     *
+     * @return the end of the class name, or -1
+     */
+    static int exceptionTypeEnd(CharSequence line, int from) {
+        int n = line.length();
+        int i = from;
+        int dots = 0;
+        int simpleStart = from;
+
+        while (i < n) {
+            char c = line.charAt(i);
+            if (c == ':') break;
+            if (c == '.') {
+                if (i == simpleStart) return -1;
+                dots++;
+                simpleStart = i + 1;
+            } else if (!Character.isJavaIdentifierPart(c) || (i == simpleStart && !Character.isJavaIdentifierStart(c))) {
+                return -1;
+            }
+            i++;
+        }
+
+        if (dots == 0 || i == simpleStart) return -1;
+
+        String simple = line.subSequence(simpleStart, i).toString();
+        if (!simple.endsWith("Exception") && !simple.endsWith("Error") && !simple.endsWith("Throwable")) return -1;
+        return i;
+    }
+
+    private static String trimMessage(CharSequence line, int start) {
+        while (start < line.length() && line.charAt(start) == ' ') start++;
+        int end = Math.min(line.length(), start + MAX_MESSAGE_LENGTH);
+        return line.subSequence(start, end).toString();
+    }
+
+    private static int skipWhitespace(CharSequence line, int from) {
+        int i = from;
+        while (i < line.length() && (line.charAt(i) == ' ' || line.charAt(i) == '\t')) i++;
+        return i;
+    }
+
+    private static boolean startsWith(CharSequence line, int start, String prefix) {
+        if (line.length() - start < prefix.length()) return false;
+
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line.charAt(start + i) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+}
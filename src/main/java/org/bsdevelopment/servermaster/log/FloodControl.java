@@ -0,0 +1,192 @@
+package org.bsdevelopment.servermaster.log;
+
+import java.util.function.Consumer;
+
+/**
+ * Decides which lines of one output stream the console shows. While the stream stays below the threshold
+ * every line is shown. Above it (a plugin stuck in an exception loop) the stream is flooding:
+ * <ul>
+ *     <li>a line that looks like the line shown before it (same text, ignoring numbers) is counted and later
+ *     summarised as "repeated N times"</li>
+ *     <li>a line that looks like one seen in the last few hundred lines is collapsed, which catches whole
+ *     stack traces repeating</li>
+ *     <li>of the remaining lines only a sample, a fifth of the threshold per second, is shown</li>
+ * </ul>
+ * Every second a notice tells how much was hidden. Once the rate stays below half the threshold for a second
+ * all lines are shown again. Flood control only affects the console, the session log keeps every line.
+ * <p>
+ * Use one per stream. Lines are admitted by the thread that reads the stream; once the stream falls silent
+ * nothing is admitted any more, so a timer calls {@link #tick} every {@link #WINDOW_MILLIS} ms to close the
+ * windows and report the end of the flood.
+ */
+public final class FloodControl {
+    public static final long WINDOW_MILLIS = 250;
+    private static final long WINDOW_NANOS = WINDOW_MILLIS * 1_000_000L;
+    private static final int WINDOWS_PER_SECOND = 4;
+    private static final int RECENT_SHAPES = 1024;
+
+    private final int maxLinesPerSecond;
+    private final int samplePerWindow;
+
+    private long windowStart = Long.MIN_VALUE;
+    private int windowLines;
+    private int windowShown;
+    private int quietWindows;
+    private int windowsSinceNotice;
+    private boolean flooding;
+
+    // Shapes of recent lines, direct mapped, 0 is empty
+    private final long[] recent = new long[RECENT_SHAPES];
+    private long lastShape;
+    private int repeats;
+    private int collapsed;
+    private int sampledOut;
+    private int peakRate;
+    private long hiddenTotal;
+
+    public FloodControl(int maxLinesPerSecond) {
+        if (maxLinesPerSecond <= 0) throw new IllegalArgumentException("maxLinesPerSecond must be > 0");
+
+        this.maxLinesPerSecond = maxLinesPerSecond;
+        this.samplePerWindow = Math.max(1, maxLinesPerSecond / 5 / WINDOWS_PER_SECOND);
+    }
+
+    /**
+     * @param line    the line that arrived
+     * @param now     {@link System#nanoTime()}
+     * @param notices receives notices about hidden lines, before the line itself would be shown
+     * @return whether to show the line
+     */
+    public synchronized boolean admit(CharSequence line, long now, Consumer<String> notices) {
+        if (windowStart == Long.MIN_VALUE) {
+            windowStart = now;
+        } else if (now - windowStart >= WINDOW_NANOS) {
+            closeWindow(now, notices);
+        }
+
+        windowLines++;
+        if (!flooding && windowLines > maxLinesPerSecond / WINDOWS_PER_SECOND) {
+            flooding = true;
+            windowsSinceNotice = 0;
+            peakRate = windowLines * WINDOWS_PER_SECOND;
+            notices.accept("Flood control on, more than " + maxLinesPerSecond + " lines/s. Showing a sample, the session log keeps everything");
+        }
+
+        long shape = shape(line);
+        if (!flooding) {
+            remember(shape);
+            lastShape = shape;
+            return true;
+        }
+
+        if (shape == lastShape) {
+            repeats++;
+            return false;
+        }
+
+        int slot = (int) (shape & (RECENT_SHAPES - 1));
+        boolean seen = recent[slot] == shape;
+        recent[slot] = shape;
+        if (seen) {
+            collapsed++;
+            return false;
+        }
+        if (windowShown >= samplePerWindow) {
+            sampledOut++;
+            return false;
+        }
+
+        flushRepeats(notices);
+        lastShape = shape;
+        windowShown++;
+        return true;
+    }
+
+    /**
+     * Closes the windows that ended without a line arriving, the notices and the end of a flood do not wait
+     * for the next line.
+     *
+     * @param now {@link System#nanoTime()}
+     */
+    public synchronized void tick(long now, Consumer<String> notices) {
+        if (windowStart != Long.MIN_VALUE && now - windowStart >= WINDOW_NANOS) closeWindow(now, notices);
+    }
+
+    public synchronized boolean isFlooding() {
+        return flooding;
+    }
+
+    /** @return the number of lines hidden since this stream started */
+    public synchronized long hiddenLines() {
+        return hiddenTotal + repeats + collapsed + sampledOut;
+    }
+
+    private void closeWindow(long now, Consumer<String> notices) {
+        long elapsed = (now - windowStart) / WINDOW_NANOS;
+
+        if (flooding) {
+            int rate = windowLines * WINDOWS_PER_SECOND;
+            peakRate = Math.max(peakRate, rate);
+            quietWindows = rate < maxLinesPerSecond / 2 ? quietWindows + 1 : 0;
+            // Windows without any line are quiet too
+            quietWindows += (int) Math.min(elapsed - 1, WINDOWS_PER_SECOND);
+
+            if (quietWindows >= WINDOWS_PER_SECOND) {
+                flooding = false;
+                quietWindows = 0;
+                flushRepeats(notices);
+                notice(notices, "Flood control off, peak " + peakRate + " lines/s");
+            } else if (++windowsSinceNotice >= WINDOWS_PER_SECOND) {
+                windowsSinceNotice = 0;
+                flushRepeats(notices);
+                notice(notices, "Flood control, " + rate + " lines/s");
+            }
+        }
+
+        windowStart += elapsed * WINDOW_NANOS;
+        windowLines = 0;
+        windowShown = 0;
+    }
+
+    private void flushRepeats(Consumer<String> notices) {
+        if (repeats == 0) return;
+
+        notices.accept("... previous line repeated " + repeats + " times");
+        hiddenTotal += repeats;
+        repeats = 0;
+    }
+
+    private void notice(Consumer<String> notices, String status) {
+        if (collapsed == 0 && sampledOut == 0) {
+            notices.accept(status);
+            return;
+        }
+
+        notices.accept(status + ": " + collapsed + " similar lines collapsed, " + sampledOut + " lines not shown");
+        hiddenTotal += collapsed + sampledOut;
+        collapsed = 0;
+        sampledOut = 0;
+    }
+
+    private void remember(long shape) {
+        recent[(int) (shape & (RECENT_SHAPES - 1))] = shape;
+    }
+
+    /** Hashes the line with every run of digits replaced by one placeholder, so counters and times do not matter. */
+    static long shape(CharSequence line) {
+        long hash = 0xcbf29ce484222325L;
+        boolean inDigits = false;
+        for (int i = 0, n = line.length(); i < n; i++) {
+            char c = line.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (inDigits) continue;
+                inDigits = true;
+                c = '#';
+            } else {
+                inDigits = false;
+            }
+            hash = (hash ^ c) * 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+}
@@ -0,0 +1,146 @@
+package org.bsdevelopment.servermaster.log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aho-Corasick automaton over a fixed set of literals, compiled into a dense transition table so that
+ * scanning a line is one table lookup per character. Each literal carries an int output code that is
+ * reported for every occurrence.
+ */
+final class LiteralAutomaton {
+    private static final int[] NO_OUTPUT = new int[0];
+
+    private final boolean foldCase;
+    private final int[] asciiClass = new int[128];
+    private final Map<Character, Integer> otherClass = new HashMap<>();
+    private final int classes;
+    private final int[] transitions;
+    private final int[][] outputs;
+
+    LiteralAutomaton(List<String> literals, List<Integer> codes, boolean foldCase) {
+        this.foldCase = foldCase;
+
+        // Character classes: 0 is "any character that is not part of a literal"
+        int nextClass = 1;
+        for (String literal : literals) {
+            for (int i = 0; i < literal.length(); i++) {
+                char c = fold(literal.charAt(i));
+                if (classOf(c) != 0) continue;
+
+                if (c < 128) asciiClass[c] = nextClass++;
+                else otherClass.put(c, nextClass++);
+            }
+        }
+        this.classes = nextClass;
+
+        // Trie
+        List<int[]> trie = new ArrayList<>();
+        List<List<Integer>> out = new ArrayList<>();
+        trie.add(newRow());
+        out.add(new ArrayList<>());
+
+        for (int l = 0; l < literals.size(); l++) {
+            String literal = literals.get(l);
+            int state = 0;
+            for (int i = 0; i < literal.length(); i++) {
+                int cls = classOf(fold(literal.charAt(i)));
+                if (trie.get(state)[cls] <= 0) {
+                    trie.add(newRow());
+                    out.add(new ArrayList<>());
+                    trie.get(state)[cls] = trie.size() - 1;
+                }
+                state = trie.get(state)[cls];
+            }
+            out.get(state).add(codes.get(l));
+        }
+
+        // Failure links, folded straight into a full transition table (breadth first)
+        int states = trie.size();
+        int[] fail = new int[states];
+        this.transitions = new int[states * classes];
+        this.outputs = new int[states][];
+
+        var queue = new ArrayDeque<Integer>();
+        for (int cls = 0; cls < classes; cls++) {
+            int child = trie.get(0)[cls];
+            if (child > 0) {
+                fail[child] = 0;
+                transitions[cls] = child;
+                queue.add(child);
+            } else {
+                transitions[cls] = 0;
+            }
+        }
+
+        outputs[0] = toArray(out.get(0));
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            List<Integer> merged = new ArrayList<>(out.get(state));
+            for (int code : outputs[fail[state]]) merged.add(code);
+            outputs[state] = toArray(merged);
+
+            for (int cls = 0; cls < classes; cls++) {
+                int child = trie.get(state)[cls];
+                if (child > 0) {
+                    fail[child] = transitions[fail[state] * classes + cls];
+                    transitions[state * classes + cls] = child;
+                    queue.add(child);
+                } else {
+                    transitions[state * classes + cls] = transitions[fail[state] * classes + cls];
+                }
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return classes == 1;
+    }
+
+    /**
+     * Scans {@code line} once and calls {@code sink} with the output code of every literal occurrence.
+     */
+    void scan(CharSequence line, OutputSink sink) {
+        int state = 0;
+        for (int i = 0, length = line.length(); i < length; i++) {
+            state = transitions[state * classes + classOf(fold(line.charAt(i)))];
+
+            int[] codes = outputs[state];
+            for (int code : codes) {
+                sink.accept(code);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface OutputSink {
+        void accept(int code);
+    }
+
+    private int classOf(char c) {
+        if (c < 128) return asciiClass[c];
+        Integer cls = otherClass.get(c);
+        return cls == null ? 0 : cls;
+    }
+
+    private char fold(char c) {
+        return foldCase ? Character.toLowerCase(c) : c;
+    }
+
+    private int[] newRow() {
+        return new int[Math.max(classes, 1)];
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        if (list.isEmpty()) return NO_OUTPUT;
+
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+}
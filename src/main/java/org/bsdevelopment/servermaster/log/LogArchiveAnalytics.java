@@ -0,0 +1,351 @@
+package org.bsdevelopment.servermaster.log;
+
+import org.bsdevelopment.servermaster.Constants;
+import org.bsdevelopment.servermaster.log.ExceptionAggregator.ExceptionStats;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Statistics over the {@code logs/*.log.gz} archives a server rolls its old logs into: lines per level, the
+ * exceptions thrown and how long every launch took to start.
+ * <p>
+ * Archives are decompressed and parsed in parallel on the common {@link ForkJoinPool}, largest first so the
+ * long ones do not finish last. The result of every archive is kept in a small index file keyed by the
+ * archive's size and modification time; archives never change once rolled, so opening the statistics again
+ * only parses the archives added since.
+ */
+public final class LogArchiveAnalytics {
+    private static final String ARCHIVE_SUFFIX = ".log.gz";
+    private static final int INDEX_MAGIC = 0x534D4C41;
+    private static final int INDEX_VERSION = 1;
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+    /** Per archive, so the index stays small however broken a server was. */
+    private static final int MAX_EXCEPTIONS_PER_ARCHIVE = 200;
+    private static final String DONE = "Done (";
+    private static final int LEVELS = LogLevel.values().length;
+
+    private final Path logsDirectory;
+    private final Path indexFile;
+
+    /**
+     * @param levelCounts    lines per {@link LogLevel}, by ordinal
+     * @param lines          all lines, including the ones without a header
+     * @param startupMillis  the startup time of every launch in the archive, as reported by the server's "Done" line
+     * @param exceptions     the most frequent exceptions of the archive
+     */
+    public record ArchiveStats(String fileName, long size, long modifiedMillis, long lines, long[] levelCounts,
+                               long[] startupMillis, List<ExceptionStats> exceptions) {
+        public long count(LogLevel level) {
+            return levelCounts[level.ordinal()];
+        }
+
+        public long exceptionCount() {
+            long total = 0;
+            for (ExceptionStats stats : exceptions) total += stats.count();
+            return total;
+        }
+    }
+
+    /**
+     * @param archives   every archive, oldest first
+     * @param exceptions the exceptions of all archives together
+     * @param parsed     how many archives had to be parsed, the others came from the index
+     */
+    public record Report(List<ArchiveStats> archives, ExceptionAggregator exceptions, int parsed) {
+        public long lines() {
+            long total = 0;
+            for (ArchiveStats archive : archives) total += archive.lines();
+            return total;
+        }
+
+        public long count(LogLevel level) {
+            long total = 0;
+            for (ArchiveStats archive : archives) total += archive.count(level);
+            return total;
+        }
+
+        /** @return the startup time of every launch, oldest first */
+        public long[] startupMillis() {
+            return archives.stream().flatMapToLong(archive -> Arrays.stream(archive.startupMillis())).toArray();
+        }
+    }
+
+    public LogArchiveAnalytics(Path logsDirectory, Path indexFile) {
+        this.logsDirectory = logsDirectory;
+        this.indexFile = indexFile;
+    }
+
+    public Path logsDirectory() {
+        return logsDirectory;
+    }
+
+    /**
+     * Parses the archives that are not in the index yet and updates it. Blocks until done, do not call on the
+     * FX thread. An archive that cannot be read is logged and left out.
+     */
+    public Report analyze() throws IOException {
+        Map<String, ArchiveStats> indexed = readIndex();
+        List<ArchiveStats> archives = new ArrayList<>();
+        List<ForkJoinTask<ArchiveStats>> tasks = new ArrayList<>();
+        List<Path> parsing = new ArrayList<>();
+
+        for (Path file : listArchives()) {
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+
+            String name = file.getFileName().toString();
+            long size = attributes.size();
+            long modified = attributes.lastModifiedTime().toMillis();
+
+            ArchiveStats cached = indexed.get(name);
+            if (cached != null && cached.size() == size && cached.modifiedMillis() == modified) {
+                archives.add(cached);
+            } else {
+                parsing.add(file);
+            }
+        }
+
+        parsing.sort(Comparator.comparingLong(LogArchiveAnalytics::sizeOf).reversed());
+        for (Path file : parsing) {
+            tasks.add(ForkJoinPool.commonPool().submit(() -> parse(file)));
+        }
+
+        int parsed = 0;
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                archives.add(tasks.get(i).join());
+                parsed++;
+            } catch (RuntimeException e) {
+                // The pool wraps what parse threw
+                Throwable cause = e;
+                while (cause instanceof RuntimeException && cause.getCause() != null) cause = cause.getCause();
+                Constants.LOGGER.log(Level.WARNING, "Could not read " + parsing.get(i), cause);
+            }
+        }
+
+        archives.sort(Comparator.comparing(ArchiveStats::fileName));
+        if (parsed > 0 || archives.size() != indexed.size()) writeIndex(archives);
+
+        var exceptions = new ExceptionAggregator();
+        for (ArchiveStats archive : archives) {
+            archive.exceptions().forEach(exceptions::merge);
+        }
+        return new Report(List.copyOf(archives), exceptions, parsed);
+    }
+
+    private List<Path> listArchives() throws IOException {
+        if (!Files.isDirectory(logsDirectory)) return List.of();
+
+        try (Stream<Path> files = Files.list(logsDirectory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(ARCHIVE_SUFFIX))
+                    .filter(Files::isRegularFile)
+                    .toList();
+        }
+    }
+
+    static ArchiveStats parse(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        String name = file.getFileName().toString();
+
+        var parser = new LogLineParser();
+        var exceptions = new ExceptionAggregator();
+        var tracker = exceptions.newTracker();
+        long[] levels = new long[LEVELS];
+        long[] startups = new long[4];
+        int launches = 0;
+        long lines = 0;
+
+        // Lines only carry the time of day, the day comes from the archive's name
+        long day = archiveDayMillis(name, attributes.lastModifiedTime().toMillis());
+        int lastSecond = -1;
+        long now = day;
+
+        try (var reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file), READ_BUFFER_BYTES), StandardCharsets.UTF_8), READ_BUFFER_BYTES)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                parser.parse(line);
+
+                if (parser.hasHeader()) {
+                    levels[parser.level().ordinal()]++;
+
+                    int second = parser.secondOfDay();
+                    if (second < lastSecond) day += 24L * 60 * 60 * 1000;
+                    lastSecond = second;
+                    now = day + second * 1000L;
+
+                    long startup = startupMillis(line, parser.messageStart());
+                    if (startup >= 0) {
+                        if (launches == startups.length) startups = Arrays.copyOf(startups, launches * 2);
+                        startups[launches++] = startup;
+                    }
+                }
+                tracker.accept(line, parser.messageStart(), now);
+            }
+            tracker.flush(now);
+        }
+
+        return new ArchiveStats(name, attributes.size(), attributes.lastModifiedTime().toMillis(), lines, levels,
+                Arrays.copyOf(startups, launches), exceptions.top(MAX_EXCEPTIONS_PER_ARCHIVE));
+    }
+
+    /**
+     * Reads the startup time from "Done (12.345s)! For help, type "help"".
+     *
+     * @return the startup time in milliseconds, or -1 if the message is not the "Done" line
+     */
+    static long startupMillis(String line, int messageStart) {
+        if (!line.startsWith(DONE, messageStart)) return -1;
+
+        int start = messageStart + DONE.length();
+        int end = line.indexOf("s)", start);
+        if (end < 0) return -1;
+
+        try {
+            return Math.round(Double.parseDouble(line.substring(start, end)) * 1000);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Archives are named yyyy-MM-dd-n.log.gz, fall back to the day the file was last written. */
+    private static long archiveDayMillis(String name, long modifiedMillis) {
+        LocalDate date;
+        try {
+            date = LocalDate.parse(name.length() >= 10 ? name.substring(0, 10) : name);
+        } catch (DateTimeParseException e) {
+            date = LocalDate.ofInstant(Instant.ofEpochMilli(modifiedMillis), ZoneId.systemDefault());
+        }
+        return date.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private Map<String, ArchiveStats> readIndex() {
+        Map<String, ArchiveStats> index = new HashMap<>();
+        if (!Files.isRegularFile(indexFile)) return index;
+
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) return index;
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                long size = in.readLong();
+                long modified = in.readLong();
+                long lines = in.readLong();
+
+                long[] levels = new long[LEVELS];
+                int levelCount = in.readInt();
+                for (int l = 0; l < levelCount; l++) {
+                    long value = in.readLong();
+                    if (l < LEVELS) levels[l] = value;
+                }
+
+                long[] startups = new long[in.readInt()];
+                for (int s = 0; s < startups.length; s++) startups[s] = in.readLong();
+
+                int exceptionCount = in.readInt();
+                List<ExceptionStats> exceptions = new ArrayList<>(exceptionCount);
+                for (int e = 0; e < exceptionCount; e++) {
+                    String fingerprint = in.readUTF();
+                    String type = in.readUTF();
+                    String message = in.readUTF();
+                    List<String> frames = new ArrayList<>();
+                    for (int f = in.readInt(); f > 0; f--) frames.add(in.readUTF());
+                    exceptions.add(new ExceptionStats(fingerprint, type, message, List.copyOf(frames), in.readLong(), in.readLong(), in.readLong()));
+                }
+
+                index.put(name, new ArchiveStats(name, size, modified, lines, levels, startups, List.copyOf(exceptions)));
+            }
+        } catch (IOException e) {
+            // Parsing everything again rebuilds it
+            Constants.LOGGER.log(Level.WARNING, "Ignoring unreadable log index " + indexFile, e);
+            index.clear();
+        }
+        return index;
+    }
+
+    private void writeIndex(List<ArchiveStats> archives) {
+        Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+
+        try {
+            Files.createDirectories(indexFile.getParent());
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(INDEX_VERSION);
+                out.writeInt(archives.size());
+
+                for (ArchiveStats archive : archives) {
+                    out.writeUTF(archive.fileName());
+                    out.writeLong(archive.size());
+                    out.writeLong(archive.modifiedMillis());
+                    out.writeLong(archive.lines());
+
+                    out.writeInt(archive.levelCounts().length);
+                    for (long count : archive.levelCounts()) out.writeLong(count);
+
+                    out.writeInt(archive.startupMillis().length);
+                    for (long startup : archive.startupMillis()) out.writeLong(startup);
+
+                    out.writeInt(archive.exceptions().size());
+                    for (ExceptionStats stats : archive.exceptions()) {
+                        out.writeUTF(stats.fingerprint());
+                        out.writeUTF(stats.type());
+                        out.writeUTF(stats.message());
+                        out.writeInt(stats.topFrames().size());
+                        for (String frame : stats.topFrames()) out.writeUTF(frame);
+                        out.writeLong(stats.count());
+                        out.writeLong(stats.firstSeen());
+                        out.writeLong(stats.lastSeen());
+                    }
+                }
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Constants.LOGGER.log(Level.WARNING, "Could not write log index " + indexFile, e);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.bsdevelopment.servermaster.log;
+
+/**
+ * Levels a server line can be logged at, stored by {@link LogStore} as their ordinal.
+ */
+public enum LogLevel {
+    UNKNOWN,
+    TRACE,
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR,
+    FATAL;
+
+    private static final LogLevel[] VALUES = values();
+
+    static LogLevel of(byte ordinal) {
+        return VALUES[ordinal];
+    }
+
+    /**
+     * @return the level named by {@code text[start, end)}, {@link #UNKNOWN} if it is not a level
+     */
+    static LogLevel parse(CharSequence text, int start, int end) {
+        for (int i = 1; i < VALUES.length; i++) {
+            String name = VALUES[i].name();
+            if (end - start != name.length()) continue;
+
+            boolean same = true;
+            for (int j = 0; j < name.length() && same; j++) {
+                same = text.charAt(start + j) == name.charAt(j);
+            }
+            if (same) return VALUES[i];
+        }
+
+        // Some loggers spell it out
+        if (end - start == 7 && regionEquals(text, start, "WARNING")) return WARN;
+        if (end - start == 6 && regionEquals(text, start, "SEVERE")) return ERROR;
+        return UNKNOWN;
+    }
+
+    private static boolean regionEquals(CharSequence text, int start, String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (text.charAt(start + i) != word.charAt(i)) return false;
+        }
+        return true;
+    }
+}
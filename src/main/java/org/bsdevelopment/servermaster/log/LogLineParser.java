@@ -0,0 +1,165 @@
+package org.bsdevelopment.servermaster.log;
+
+/**
+ * Splits a server line into its header fields without creating any objects. Understands the layouts used by
+ * vanilla/Paper, Spigot and the modded servers:
+ * <pre>
+ * [12:00:01] [Server thread/INFO]: [Plugin] message
+ * [12:00:01 INFO]: [Plugin] message
+ * [12:00:01] [main/INFO] [minecraft/DedicatedServer]: message
+ * </pre>
+ * Lines without a header (stack traces, wrapped output) are reported with {@link #hasHeader()} false.
+ * The parser is reused line after line, so it is not thread safe.
+ */
+final class LogLineParser {
+    private static final int MAX_PLUGIN_LENGTH = 64;
+
+    private boolean header;
+    private int secondOfDay;
+    private LogLevel level;
+    private int loggerStart, loggerEnd;
+    private int pluginStart, pluginEnd;
+    private int messageStart;
+
+    void parse(CharSequence line) {
+        header = false;
+        secondOfDay = -1;
+        level = LogLevel.UNKNOWN;
+        loggerStart = loggerEnd = -1;
+        pluginStart = pluginEnd = -1;
+        messageStart = 0;
+
+        int length = line.length();
+        if (length < 10 || line.charAt(0) != '[') return;
+
+        int time = parseTime(line);
+        if (time < 0) return;
+
+        int pos;
+        if (line.charAt(9) == ']') {
+            // [12:00:01] [Server thread/INFO]: or [12:00:01] [main/INFO] [minecraft/DedicatedServer]:
+            if (length < 12 || line.charAt(10) != ' ' || line.charAt(11) != '[') return;
+
+            int close = indexOf(line, ']', 12);
+            if (close < 0) return;
+
+            int slash = lastIndexOf(line, '/', 12, close);
+            if (slash < 0) return;
+
+            loggerStart = 12;
+            loggerEnd = slash;
+            level = LogLevel.parse(line, slash + 1, close);
+            pos = close + 1;
+
+            if (pos + 1 < length && line.charAt(pos) == ' ' && line.charAt(pos + 1) == '[') {
+                int loggerClose = indexOf(line, ']', pos + 2);
+                if (loggerClose > 0 && loggerClose + 1 < length && line.charAt(loggerClose + 1) == ':') {
+                    loggerStart = pos + 2;
+                    loggerEnd = loggerClose;
+                    pos = loggerClose + 1;
+                }
+            }
+        } else if (line.charAt(9) == ' ') {
+            // [12:00:01 INFO]:
+            int close = indexOf(line, ']', 10);
+            if (close < 0) return;
+
+            level = LogLevel.parse(line, 10, close);
+            pos = close + 1;
+        } else {
+            return;
+        }
+
+        if (pos >= length || line.charAt(pos) != ':') {
+            level = LogLevel.UNKNOWN;
+            loggerStart = loggerEnd = -1;
+            return;
+        }
+
+        pos++;
+        if (pos < length && line.charAt(pos) == ' ') pos++;
+
+        header = true;
+        secondOfDay = time;
+        messageStart = pos;
+
+        if (pos < length && line.charAt(pos) == '[') {
+            for (int i = pos + 1; i < length && i - pos <= MAX_PLUGIN_LENGTH; i++) {
+                char c = line.charAt(i);
+                if (c == ' ') break;
+                if (c == ']') {
+                    if (i > pos + 1) {
+                        pluginStart = pos + 1;
+                        pluginEnd = i;
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    boolean hasHeader() {
+        return header;
+    }
+
+    /** @return seconds since midnight, or -1 without a header */
+    int secondOfDay() {
+        return secondOfDay;
+    }
+
+    LogLevel level() {
+        return level;
+    }
+
+    int loggerStart() {
+        return loggerStart;
+    }
+
+    int loggerEnd() {
+        return loggerEnd;
+    }
+
+    int pluginStart() {
+        return pluginStart;
+    }
+
+    int pluginEnd() {
+        return pluginEnd;
+    }
+
+    int messageStart() {
+        return messageStart;
+    }
+
+    /** Parses "[HH:MM:SS" at the start of the line. */
+    private static int parseTime(CharSequence line) {
+        if (line.charAt(3) != ':' || line.charAt(6) != ':') return -1;
+
+        int hours = twoDigits(line, 1);
+        int minutes = twoDigits(line, 4);
+        int seconds = twoDigits(line, 7);
+        if (hours < 0 || minutes < 0 || seconds < 0 || hours > 23 || minutes > 59 || seconds > 60) return -1;
+
+        return hours * 3600 + minutes * 60 + Math.min(seconds, 59);
+    }
+
+    private static int twoDigits(CharSequence line, int at) {
+        char tens = line.charAt(at), ones = line.charAt(at + 1);
+        if (tens < '0' || tens > '9' || ones < '0' || ones > '9') return -1;
+        return (tens - '0') * 10 + (ones - '0');
+    }
+
+    private static int indexOf(CharSequence line, char c, int from) {
+        for (int i = from; i < line.length(); i++) {
+            if (line.charAt(i) == c) return i;
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(CharSequence line, char c, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (line.charAt(i) == c) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,174 @@
+package org.bsdevelopment.servermaster.log;
+
+import org.bsdevelopment.servermaster.instance.server.Server;
+import org.bsdevelopment.servermaster.instance.server.thread.LineBatch;
+import org.bsdevelopment.servermaster.instance.server.thread.LineView;
+import org.bsdevelopment.servermaster.instance.server.thread.ServerOutputListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Matches every line once against the rules of all subscribers and dispatches the results.
+ * <p>
+ * The literals of all subscribers are compiled into one Aho-Corasick automaton (one for case-sensitive and
+ * one for case-insensitive literals), so a line is scanned a single time no matter how many subscribers or
+ * rules there are. Patterns only run when one of their required literals occurred. Subscribers can come and
+ * go at any time, the engine recompiles and swaps in the new automaton atomically.
+ * <p>
+ * Subscribers are called in descending priority. A handler that returns {@code true} consumes the line,
+ * lower priority subscribers will not see it.
+ * <p>
+ * Lines must be dispatched from one thread at a time (one engine per output pipeline).
+ */
+public final class LogPatternEngine implements ServerOutputListener {
+    private final List<Subscription> subscriptions = new ArrayList<>();
+    private volatile Compiled compiled = Compiled.EMPTY;
+
+    private long[] masks = new long[0];
+    private final MatchSet matchSet = new MatchSet();
+    private final LiteralAutomaton.OutputSink sink = code -> masks[code >>> 6] |= 1L << (code & 63);
+    private final LineView view = new LineView();
+
+    @FunctionalInterface
+    public interface MatchHandler {
+        /**
+         * @param line    the line, only valid during the call
+         * @param matches the subscriber's rules that matched
+         * @return true to hide the line from lower priority subscribers
+         */
+        boolean onMatch(Server server, Stream stream, CharSequence line, MatchSet matches);
+    }
+
+    /**
+     * @param priority      higher priorities are called first
+     * @param notifyAlways  call the handler for every line, not only lines that matched one of the rules
+     */
+    public synchronized Subscription subscribe(PatternRules rules, int priority, boolean notifyAlways, MatchHandler handler) {
+        Objects.requireNonNull(rules, "rules");
+        Objects.requireNonNull(handler, "handler");
+
+        var subscription = new Subscription(this, rules, priority, notifyAlways, handler);
+        subscriptions.add(subscription);
+        recompile();
+        return subscription;
+    }
+
+    private synchronized void unsubscribe(Subscription subscription) {
+        if (subscriptions.remove(subscription)) recompile();
+    }
+
+    @Override
+    public void onLine(Server server, Stream stream, String line) {
+        dispatch(server, stream, line);
+    }
+
+    @Override
+    public void onLine(Server server, Stream stream, LineView line) {
+        dispatch(server, stream, line);
+    }
+
+    @Override
+    public void onLines(Server server, LineBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            dispatch(server, batch.stream(i), batch.view(i, view));
+        }
+    }
+
+    public void dispatch(Server server, Stream stream, CharSequence line) {
+        Compiled current = compiled;
+        Subscription[] subs = current.subscriptions;
+        if (subs.length == 0) return;
+
+        if (masks.length < subs.length) masks = new long[subs.length];
+        long[] hits = masks;
+        Arrays.fill(hits, 0, subs.length, 0L);
+
+        if (!current.exact.isEmpty()) current.exact.scan(line, sink);
+        if (!current.folded.isEmpty()) current.folded.scan(line, sink);
+
+        for (int slot = 0; slot < subs.length; slot++) {
+            Subscription sub = subs[slot];
+
+            for (PatternRules.Regex regex : sub.rules.patterns()) {
+                if (!prefilterPassed(hits[slot], regex.prefilterRules())) continue;
+                if (regex.pattern().matcher(line).find()) hits[slot] |= 1L << regex.rule();
+            }
+
+            if (hits[slot] == 0 && !sub.notifyAlways) continue;
+            if (!sub.active) continue;
+
+            matchSet.set(hits[slot]);
+            if (sub.handler.onMatch(server, stream, line, matchSet)) return;
+        }
+    }
+
+    private static boolean prefilterPassed(long hits, int[] prefilterRules) {
+        if (prefilterRules.length == 0) return true;
+
+        for (int rule : prefilterRules) {
+            if ((hits & (1L << rule)) != 0) return true;
+        }
+        return false;
+    }
+
+    private void recompile() {
+        var ordered = new ArrayList<>(subscriptions);
+        ordered.sort(Comparator.comparingInt((Subscription s) -> s.priority).reversed());
+
+        List<String> exactLiterals = new ArrayList<>();
+        List<Integer> exactCodes = new ArrayList<>();
+        List<String> foldedLiterals = new ArrayList<>();
+        List<Integer> foldedCodes = new ArrayList<>();
+
+        for (int slot = 0; slot < ordered.size(); slot++) {
+            for (PatternRules.Literal literal : ordered.get(slot).rules.literals()) {
+                int code = (slot << 6) | literal.rule();
+                if (literal.ignoreCase()) {
+                    foldedLiterals.add(literal.text());
+                    foldedCodes.add(code);
+                } else {
+                    exactLiterals.add(literal.text());
+                    exactCodes.add(code);
+                }
+            }
+        }
+
+        compiled = new Compiled(ordered.toArray(Subscription[]::new),
+                new LiteralAutomaton(exactLiterals, exactCodes, false),
+                new LiteralAutomaton(foldedLiterals, foldedCodes, true));
+    }
+
+    private record Compiled(Subscription[] subscriptions, LiteralAutomaton exact, LiteralAutomaton folded) {
+        static final Compiled EMPTY = new Compiled(new Subscription[0],
+                new LiteralAutomaton(List.of(), List.of(), false), new LiteralAutomaton(List.of(), List.of(), true));
+    }
+
+    public static final class Subscription {
+        private final LogPatternEngine engine;
+        private final PatternRules rules;
+        private final int priority;
+        private final boolean notifyAlways;
+        private final MatchHandler handler;
+        private volatile boolean active = true;
+
+        private Subscription(LogPatternEngine engine, PatternRules rules, int priority, boolean notifyAlways, MatchHandler handler) {
+            this.engine = engine;
+            this.rules = rules;
+            this.priority = priority;
+            this.notifyAlways = notifyAlways;
+            this.handler = handler;
+        }
+
+        /**
+         * Stops delivering matches and removes the subscriber's rules from the automaton.
+         */
+        public void unsubscribe() {
+            active = false;
+            engine.unsubscribe(this);
+        }
+    }
+}
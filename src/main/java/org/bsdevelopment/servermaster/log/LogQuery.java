@@ -0,0 +1,178 @@
+package org.bsdevelopment.servermaster.log;
+
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A search over a {@link LogStore}.
+ * <pre>
+ * store.search(LogQuery.substring("can't keep up").levels(EnumSet.of(LogLevel.WARN)).between(3600, 7200));
+ * </pre>
+ *
+ * @param text       the text or regular expression to look for, empty to match every line
+ * @param regex      whether {@code text} is a regular expression (searched with {@link java.util.regex.Matcher#find()})
+ * @param matchCase  whether the search is case-sensitive
+ * @param levels     the levels to include, null for all
+ * @param fromSecond the first second of the day to include
+ * @param toSecond   the last second of the day to include, lines without a timestamp only match the full day
+ * @param limit      the maximum number of results, the newest ones are kept
+ */
+public record LogQuery(String text, boolean regex, boolean matchCase, Set<LogLevel> levels,
+                       int fromSecond, int toSecond, int limit) {
+    public static final int DEFAULT_LIMIT = 10_000;
+    private static final int LAST_SECOND = 24 * 60 * 60 - 1;
+
+    public LogQuery {
+        Objects.requireNonNull(text, "text");
+        if (levels != null) levels = levels.isEmpty() ? EnumSet.noneOf(LogLevel.class) : EnumSet.copyOf(levels);
+        if (fromSecond < 0 || toSecond > LAST_SECOND || fromSecond > toSecond) {
+            throw new IllegalArgumentException("Invalid time range " + fromSecond + ".." + toSecond);
+        }
+        if (limit <= 0) throw new IllegalArgumentException("limit must be > 0");
+    }
+
+    public static LogQuery substring(String text) {
+        return new LogQuery(text, false, false, null, 0, LAST_SECOND, DEFAULT_LIMIT);
+    }
+
+    public static LogQuery regex(String pattern) {
+        return new LogQuery(pattern, true, false, null, 0, LAST_SECOND, DEFAULT_LIMIT);
+    }
+
+    public LogQuery matchCase(boolean matchCase) {
+        return new LogQuery(text, regex, matchCase, levels, fromSecond, toSecond, limit);
+    }
+
+    public LogQuery levels(Set<LogLevel> levels) {
+        return new LogQuery(text, regex, matchCase, levels, fromSecond, toSecond, limit);
+    }
+
+    public LogQuery between(int fromSecond, int toSecond) {
+        return new LogQuery(text, regex, matchCase, levels, fromSecond, toSecond, limit);
+    }
+
+    public LogQuery limit(int limit) {
+        return new LogQuery(text, regex, matchCase, levels, fromSecond, toSecond, limit);
+    }
+
+    boolean coversFullDay() {
+        return fromSecond == 0 && toSecond == LAST_SECOND;
+    }
+
+    /** @throws java.util.regex.PatternSyntaxException for an invalid regular expression */
+    Pattern compile() {
+        int flags = matchCase ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        return Pattern.compile(regex ? text : Pattern.quote(text), flags);
+    }
+
+    /**
+     * @return the longest run of plain characters every match must contain, or null if there is none of at
+     * least three characters (then the whole store has to be scanned)
+     */
+    String requiredLiteral() {
+        if (!regex) return text.length() >= 3 ? text : null;
+        if (text.indexOf('|') >= 0) return null;
+
+        String best = null;
+        var run = new StringBuilder();
+        int depth = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            char literal;
+
+            if (c == '\\') {
+                if (i + 1 >= text.length()) break;
+
+                char escaped = text.charAt(++i);
+                if (Character.isLetterOrDigit(escaped)) {
+                    // Character classes (\d, \s...), escaped characters and back references end the run, and so
+                    // do their operands: the digits of \x41 are no text of the line
+                    i = skipEscape(text, i);
+                    if (i < 0) return null;
+                    best = longer(best, run);
+                    run.setLength(0);
+                    continue;
+                }
+                literal = escaped;
+            } else if ("[](){}.*+?^$".indexOf(c) >= 0) {
+                if (c == '*' || c == '?' || c == '{') {
+                    // The character before the quantifier is optional
+                    if (!run.isEmpty()) run.setLength(run.length() - 1);
+                }
+                best = longer(best, run);
+                run.setLength(0);
+                if (c == '[') i = skipClass(text, i);
+                if (c == '{') i = Math.max(i, text.indexOf('}', i));
+                // Groups may be optional or repeated, only top level runs count
+                if (c == '(') depth++;
+                if (c == ')') depth = Math.max(0, depth - 1);
+                continue;
+            } else {
+                literal = c;
+            }
+
+            if (depth == 0) run.append(literal);
+        }
+        best = longer(best, run);
+        return best != null && best.length() >= 3 ? best : null;
+    }
+
+    private static String longer(String best, StringBuilder run) {
+        return best == null || run.length() > best.length() ? run.toString() : best;
+    }
+
+    /**
+     * @param escape the index of the letter or digit after the backslash
+     * @return the index of the last character of the escape, or -1 for an escape this does not know
+     */
+    private static int skipEscape(String pattern, int escape) {
+        char c = pattern.charAt(escape);
+        int end = escape;
+        switch (c) {
+            case 'x' -> {
+                if (escape + 1 < pattern.length() && pattern.charAt(escape + 1) == '{') return closing(pattern, escape + 1, '}');
+                end = escape + 2;
+            }
+            case 'u' -> end = escape + 4;
+            case 'c' -> end = escape + 1;
+            case 'k' -> {
+                return closing(pattern, escape + 1, '>');
+            }
+            case 'p', 'P', 'N' -> {
+                if (escape + 1 < pattern.length() && pattern.charAt(escape + 1) == '{') return closing(pattern, escape + 1, '}');
+                end = escape + 1;
+            }
+            case 'Q' -> {
+                int close = pattern.indexOf("\\E", escape + 1);
+                return close < 0 ? pattern.length() : close + 1;
+            }
+            case '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' -> {
+                // Octal escapes and back references, every digit that follows may belong to them
+                while (end + 1 < pattern.length() && Character.isDigit(pattern.charAt(end + 1))) end++;
+            }
+            case 'd', 'D', 's', 'S', 'w', 'W', 'b', 'B', 'A', 'G', 'Z', 'z', 'R', 'X', 'h', 'H', 'v', 'V',
+                 't', 'n', 'r', 'f', 'a', 'e' -> end = escape;
+            default -> {
+                return -1;
+            }
+        }
+        return Math.min(end, pattern.length() - 1);
+    }
+
+    /** @return the index of {@code close} after {@code from}, the end of the pattern if there is none */
+    private static int closing(String pattern, int from, char close) {
+        int index = pattern.indexOf(close, from);
+        return index < 0 ? pattern.length() : index;
+    }
+
+    private static int skipClass(String pattern, int open) {
+        for (int i = open + 1; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\\') i++;
+            else if (c == ']' && i > open + 1) return i;
+        }
+        return pattern.length();
+    }
+}
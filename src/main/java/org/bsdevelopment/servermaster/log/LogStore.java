@@ -0,0 +1,530 @@
+package org.bsdevelopment.servermaster.log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+
+/**
+ * Column-oriented copy of the console. Each line is parsed once when it arrives and stored as a handful of
+ * primitive columns (time, level, interned logger and plugin ids) plus an offset into one shared char buffer,
+ * so level or logger filters and per-minute statistics are array scans instead of string searches. A trigram
+ * index is kept up to date alongside, see {@link #search(LogQuery)}.
+ * <p>
+ * Every line gets a sequence number that never changes. The store keeps the newest lines within its limits
+ * and evicts the oldest in batches; {@link #firstSequence()} tells which lines are still available.
+ * <p>
+ * All methods are synchronized, lines are appended from the output thread and read from the FX thread.
+ */
+public final class LogStore {
+    public static final int NONE = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final byte FLAG_CONTINUATION = 1;
+    // Per line: six int columns and two byte columns
+    private static final int COLUMN_BYTES = 6 * Integer.BYTES + 2;
+    // Rough cost of an interned name besides its characters: the String, its map entry and boxed id, the list slot
+    private static final int NAME_OVERHEAD_BYTES = 112;
+
+    private final LogLineParser parser = new LogLineParser();
+    private final TrigramIndex index = new TrigramIndex();
+    private final CharSlice slice = new CharSlice();
+
+    // Columns, index 0 is firstSequence
+    private int[] time = new int[INITIAL_CAPACITY];
+    private byte[] level = new byte[INITIAL_CAPACITY];
+    private byte[] flags = new byte[INITIAL_CAPACITY];
+    private int[] logger = new int[INITIAL_CAPACITY];
+    private int[] plugin = new int[INITIAL_CAPACITY];
+    private int[] offset = new int[INITIAL_CAPACITY];
+    private int[] length = new int[INITIAL_CAPACITY];
+    private int[] messageStart = new int[INITIAL_CAPACITY];
+    private int size;
+
+    private char[] chars = new char[INITIAL_CAPACITY * 64];
+    private int charsUsed;
+
+    // Interned logger and plugin names, ids are indices into the lists
+    private final Map<String, Integer> loggerIds = new HashMap<>();
+    private final List<String> loggerNames = new ArrayList<>();
+    private final Map<String, Integer> pluginIds = new HashMap<>();
+    private final List<String> pluginNames = new ArrayList<>();
+
+    private long firstSequence;
+    private int maxLines;
+    private int maxChars;
+    private EvictionListener evictionListener;
+
+    /** Gets the lines the store lets go of, oldest first, before their characters are overwritten. */
+    @FunctionalInterface
+    public interface EvictionListener {
+        void onEvicted(long sequence, char[] chars, int offset, int length);
+    }
+
+    public LogStore(int maxLines, int maxChars) {
+        setLimits(maxLines, maxChars);
+    }
+
+    public synchronized void setLimits(int maxLines, int maxChars) {
+        if (maxLines <= 0) throw new IllegalArgumentException("maxLines must be > 0");
+        if (maxChars <= 0) throw new IllegalArgumentException("maxChars must be > 0");
+
+        this.maxLines = maxLines;
+        this.maxChars = maxChars;
+        trimToLimits();
+    }
+
+    /** @param listener called with every evicted line while the store is locked, or null */
+    public synchronized void setEvictionListener(EvictionListener listener) {
+        this.evictionListener = listener;
+    }
+
+    /**
+     * Parses and stores a line. Indented lines without a header (stack trace frames and the like) take over
+     * the time, level, logger and plugin of the line before them, so filters keep them together.
+     *
+     * @return the line's sequence number
+     */
+    public synchronized long append(CharSequence line) {
+        ensureCapacity(size + 1, charsUsed + line.length());
+
+        parser.parse(line);
+        int index = size;
+
+        if (index == 0 || !isContinuation(line)) {
+            time[index] = parser.secondOfDay();
+            level[index] = (byte) parser.level().ordinal();
+            flags[index] = 0;
+            logger[index] = parser.loggerStart() < 0 ? NONE
+                    : intern(loggerIds, loggerNames, line, parser.loggerStart(), parser.loggerEnd());
+            plugin[index] = parser.pluginStart() < 0 ? NONE
+                    : intern(pluginIds, pluginNames, line, parser.pluginStart(), parser.pluginEnd());
+        } else {
+            time[index] = time[index - 1];
+            level[index] = level[index - 1];
+            flags[index] = FLAG_CONTINUATION;
+            logger[index] = logger[index - 1];
+            plugin[index] = plugin[index - 1];
+        }
+
+        offset[index] = charsUsed;
+        length[index] = line.length();
+        messageStart[index] = parser.messageStart();
+        for (int i = 0, n = line.length(); i < n; i++) {
+            chars[charsUsed + i] = line.charAt(i);
+        }
+        charsUsed += line.length();
+        size++;
+
+        long sequence = firstSequence + index;
+        if (!this.index.add(sequence, chars, offset[index], length[index])) rebuildIndex();
+        trimToLimits();
+        return sequence;
+    }
+
+    private boolean isContinuation(CharSequence line) {
+        if (parser.hasHeader()) return false;
+        if (line.isEmpty()) return true;
+
+        char first = line.charAt(0);
+        return first == ' ' || first == '\t' || startsWith(line, "Caused by: ");
+    }
+
+    private static boolean startsWith(CharSequence line, String prefix) {
+        if (line.length() < prefix.length()) return false;
+
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line.charAt(i) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    public synchronized void clear() {
+        firstSequence += size;
+        size = 0;
+        charsUsed = 0;
+        index.clear(firstSequence);
+    }
+
+    /**
+     * @return an estimate of the memory the store holds on to: the char buffer and the columns at their current
+     * capacity, the search index and the interned names
+     */
+    public synchronized long memoryBytes() {
+        long names = 0;
+        for (String name : loggerNames) names += NAME_OVERHEAD_BYTES + name.length();
+        for (String name : pluginNames) names += NAME_OVERHEAD_BYTES + name.length();
+
+        return (long) chars.length * Character.BYTES + (long) time.length * COLUMN_BYTES + index.memoryBytes() + names;
+    }
+
+    /** @return the sequence number of the oldest line still held */
+    public synchronized long firstSequence() {
+        return firstSequence;
+    }
+
+    /** @return the sequence number the next line will get */
+    public synchronized long nextSequence() {
+        return firstSequence + size;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean contains(long sequence) {
+        return sequence >= firstSequence && sequence < firstSequence + size;
+    }
+
+    /** @return seconds since midnight, or -1 if the line had no timestamp */
+    public synchronized int secondOfDay(long sequence) {
+        return time[index(sequence)];
+    }
+
+    public synchronized LogLevel level(long sequence) {
+        return LogLevel.of(level[index(sequence)]);
+    }
+
+    /** @return false for lines that belong to the line before them, like stack trace frames */
+    public synchronized boolean isRecordStart(long sequence) {
+        return (flags[index(sequence)] & FLAG_CONTINUATION) == 0;
+    }
+
+    /** @return the logger (thread or logger name), or null */
+    public synchronized String logger(long sequence) {
+        int id = logger[index(sequence)];
+        return id == NONE ? null : loggerNames.get(id);
+    }
+
+    /** @return the plugin that prefixed the message with "[Name]", or null */
+    public synchronized String plugin(long sequence) {
+        int id = plugin[index(sequence)];
+        return id == NONE ? null : pluginNames.get(id);
+    }
+
+    public synchronized String line(long sequence) {
+        int index = index(sequence);
+        return new String(chars, offset[index], length[index]);
+    }
+
+    /** @return the line without its header */
+    public synchronized String message(long sequence) {
+        int index = index(sequence);
+        return new String(chars, offset[index] + messageStart[index], length[index] - messageStart[index]);
+    }
+
+    /** @return the logger id, or {@link #NONE} if no line ever used that logger */
+    public synchronized int loggerId(String name) {
+        return loggerIds.getOrDefault(name, NONE);
+    }
+
+    /** @return the plugin id, or {@link #NONE} if no line ever came from that plugin */
+    public synchronized int pluginId(String name) {
+        return pluginIds.getOrDefault(name, NONE);
+    }
+
+    /**
+     * Finds the lines matching all given conditions.
+     *
+     * @param levels   the wanted levels, null for any
+     * @param loggerId the logger id from {@link #loggerId(String)}, {@link #NONE} for any
+     * @param pluginId the plugin id from {@link #pluginId(String)}, {@link #NONE} for any
+     * @return the sequence numbers of the matching lines, oldest first
+     */
+    public synchronized long[] select(Set<LogLevel> levels, int loggerId, int pluginId) {
+        int levelMask = levelMask(levels);
+
+        long[] result = new long[Math.min(size, 1024)];
+        int found = 0;
+        for (int i = 0; i < size; i++) {
+            if ((levelMask & (1 << level[i])) == 0) continue;
+            if (loggerId != NONE && logger[i] != loggerId) continue;
+            if (pluginId != NONE && plugin[i] != pluginId) continue;
+
+            if (found == result.length) result = Arrays.copyOf(result, found * 2);
+            result[found++] = firstSequence + i;
+        }
+        return Arrays.copyOf(result, found);
+    }
+
+    /**
+     * Searches the held lines. Substrings (and the longest literal of a regular expression) are looked up in
+     * the trigram index first, so only lines containing all of their trigrams are verified. Lines evicted
+     * while the caller holds the result are simply no longer {@link #contains(long) contained}.
+     *
+     * @throws java.util.regex.PatternSyntaxException for an invalid regular expression
+     */
+    public synchronized SearchResult search(LogQuery query) {
+        Matcher matcher = query.text().isEmpty() || !query.regex() ? null : query.compile().matcher("");
+        char[] needle = query.regex() ? null : query.text().toCharArray();
+        String literal = query.text().isEmpty() ? null : query.requiredLiteral();
+        long[] candidates = literal == null ? null : index.candidates(literal);
+
+        int levelMask = levelMask(query.levels());
+        int[] levelCounts = new int[LogLevel.values().length];
+        long[] matches = new long[64];
+        int found = 0, total = 0;
+
+        int count = candidates == null ? size : candidates.length;
+        for (int c = 0; c < count; c++) {
+            int i = candidates == null ? c : (int) (candidates[c] - firstSequence);
+            if (i < 0 || i >= size) continue;
+
+            if (!query.coversFullDay() && (time[i] < query.fromSecond() || time[i] > query.toSecond())) continue;
+            if (matcher != null && !matcher.reset(slice.of(chars, offset[i], length[i])).find()) continue;
+            if (needle != null && !contains(chars, offset[i], length[i], needle, query.matchCase())) continue;
+
+            // The level facet counts every hit, the level filter only applies to the results
+            levelCounts[level[i]]++;
+            if ((levelMask & (1 << level[i])) == 0) continue;
+
+            total++;
+            if (found == matches.length) {
+                if (found >= query.limit() * 2) {
+                    // Keep the newest hits only
+                    System.arraycopy(matches, found - query.limit(), matches, 0, query.limit());
+                    found = query.limit();
+                } else {
+                    matches = Arrays.copyOf(matches, found * 2);
+                }
+            }
+            matches[found++] = firstSequence + i;
+        }
+
+        int from = Math.max(0, found - query.limit());
+        return new SearchResult(Arrays.copyOfRange(matches, from, found), total, levelCounts);
+    }
+
+    /**
+     * @param sequences   the matching lines, oldest first, at most {@link LogQuery#limit()} of the newest
+     * @param total       the number of matching lines, including the ones over the limit
+     * @param levelCounts the number of hits per level (ignoring the query's level filter), indexed by
+     *                    {@link LogLevel#ordinal()}
+     */
+    public record SearchResult(long[] sequences, int total, int[] levelCounts) {
+        public boolean truncated() {
+            return total > sequences.length;
+        }
+    }
+
+    /**
+     * @return the number of records per level, indexed by {@link LogLevel#ordinal()}
+     */
+    public synchronized int[] countByLevel() {
+        int[] counts = new int[LogLevel.values().length];
+        for (int i = 0; i < size; i++) {
+            if ((flags[i] & FLAG_CONTINUATION) == 0) counts[level[i]]++;
+        }
+        return counts;
+    }
+
+    /**
+     * Counts the records at the given levels per minute of the day, for example warnings per minute.
+     * Continuation lines are not counted, a stack trace counts once.
+     *
+     * @return 1440 buckets, index is minutes since midnight
+     */
+    public synchronized int[] countPerMinute(Set<LogLevel> levels) {
+        int levelMask = levelMask(levels);
+
+        int[] buckets = new int[24 * 60];
+        for (int i = 0; i < size; i++) {
+            if ((flags[i] & FLAG_CONTINUATION) != 0 || time[i] < 0) continue;
+            if ((levelMask & (1 << level[i])) == 0) continue;
+            buckets[time[i] / 60]++;
+        }
+        return buckets;
+    }
+
+    /**
+     * @return the plugins that logged the most records, noisiest first
+     */
+    public synchronized List<NameCount> noisiestPlugins(int limit) {
+        return top(plugin, pluginNames, limit);
+    }
+
+    /**
+     * @return the loggers that logged the most records, noisiest first
+     */
+    public synchronized List<NameCount> noisiestLoggers(int limit) {
+        return top(logger, loggerNames, limit);
+    }
+
+    public record NameCount(String name, int records) {
+    }
+
+    private List<NameCount> top(int[] column, List<String> names, int limit) {
+        int[] counts = new int[names.size()];
+        for (int i = 0; i < size; i++) {
+            if ((flags[i] & FLAG_CONTINUATION) == 0 && column[i] != NONE) counts[column[i]]++;
+        }
+
+        var result = new ArrayList<NameCount>();
+        for (int id = 0; id < counts.length; id++) {
+            if (counts[id] > 0) result.add(new NameCount(names.get(id), counts[id]));
+        }
+        result.sort(Comparator.comparingInt(NameCount::records).reversed());
+        return result.size() > limit ? List.copyOf(result.subList(0, limit)) : result;
+    }
+
+    private static int levelMask(Set<LogLevel> levels) {
+        if (levels == null) return -1;
+
+        int mask = 0;
+        for (LogLevel l : levels) {
+            mask |= 1 << l.ordinal();
+        }
+        return mask;
+    }
+
+    private int index(long sequence) {
+        if (sequence < firstSequence || sequence >= firstSequence + size) {
+            throw new IndexOutOfBoundsException("Line " + sequence + " is not held (" + firstSequence + ".." + (firstSequence + size) + ")");
+        }
+        return (int) (sequence - firstSequence);
+    }
+
+    private static int intern(Map<String, Integer> ids, List<String> names, CharSequence line, int start, int end) {
+        String name = line.subSequence(start, end).toString();
+        Integer id = ids.get(name);
+        if (id != null) return id;
+
+        ids.put(name, names.size());
+        names.add(name);
+        return names.size() - 1;
+    }
+
+    /**
+     * Evicts the oldest tenth of the lines (or more, if needed) once a limit is exceeded, so the columns are
+     * only compacted every few thousand lines.
+     */
+    private void trimToLimits() {
+        if (size <= maxLines && charsUsed <= maxChars) return;
+
+        int evict = size > maxLines ? size - maxLines + Math.max(1, maxLines / 10) : 0;
+        if (charsUsed > maxChars) {
+            int freed = 0;
+            int needed = charsUsed - maxChars + maxChars / 10;
+            int byChars = 0;
+            while (byChars < size && freed < needed) {
+                freed += length[byChars++];
+            }
+            evict = Math.max(evict, byChars);
+        }
+        evict = Math.min(evict, size);
+
+        if (evictionListener != null) {
+            for (int i = 0; i < evict; i++) {
+                evictionListener.onEvicted(firstSequence + i, chars, offset[i], length[i]);
+            }
+        }
+
+        int remaining = size - evict;
+        int charShift = remaining == 0 ? charsUsed : offset[evict];
+
+        System.arraycopy(time, evict, time, 0, remaining);
+        System.arraycopy(level, evict, level, 0, remaining);
+        System.arraycopy(flags, evict, flags, 0, remaining);
+        System.arraycopy(logger, evict, logger, 0, remaining);
+        System.arraycopy(plugin, evict, plugin, 0, remaining);
+        System.arraycopy(offset, evict, offset, 0, remaining);
+        System.arraycopy(length, evict, length, 0, remaining);
+        System.arraycopy(messageStart, evict, messageStart, 0, remaining);
+        for (int i = 0; i < remaining; i++) {
+            offset[i] -= charShift;
+        }
+
+        System.arraycopy(chars, charShift, chars, 0, charsUsed - charShift);
+        charsUsed -= charShift;
+
+        size = remaining;
+        firstSequence += evict;
+        index.evictBefore(firstSequence);
+    }
+
+    private static boolean contains(char[] haystack, int offset, int length, char[] needle, boolean matchCase) {
+        if (needle.length == 0) return true;
+
+        char first = needle[0];
+        char firstUpper = Character.toUpperCase(first), firstLower = Character.toLowerCase(first);
+        for (int i = offset, last = offset + length - needle.length; i <= last; i++) {
+            char c = haystack[i];
+            if (matchCase ? c != first : c != firstLower && c != firstUpper && Character.toLowerCase(c) != firstLower) continue;
+
+            int j = 1;
+            while (j < needle.length && sameChar(haystack[i + j], needle[j], matchCase)) j++;
+            if (j == needle.length) return true;
+        }
+        return false;
+    }
+
+    private static boolean sameChar(char a, char b, boolean matchCase) {
+        if (a == b) return true;
+        if (matchCase) return false;
+        return Character.toLowerCase(a) == Character.toLowerCase(b) || Character.toUpperCase(a) == Character.toUpperCase(b);
+    }
+
+    private void rebuildIndex() {
+        index.clear(firstSequence);
+        for (int i = 0; i < size; i++) {
+            index.add(firstSequence + i, chars, offset[i], length[i]);
+        }
+    }
+
+    /** Reusable view of a line inside the char buffer, so the matcher does not need a String per line. */
+    private static final class CharSlice implements CharSequence {
+        private char[] chars;
+        private int offset;
+        private int length;
+
+        CharSlice of(char[] chars, int offset, int length) {
+            this.chars = chars;
+            this.offset = offset;
+            this.length = length;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return chars[offset + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(chars, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, offset, length);
+        }
+    }
+
+    private void ensureCapacity(int lines, int charCount) {
+        // Growth stops at the limits, trimming keeps the store below them
+        if (lines > time.length) {
+            int capacity = Math.max(lines, Math.min(time.length * 2, maxLines));
+            time = Arrays.copyOf(time, capacity);
+            level = Arrays.copyOf(level, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+            logger = Arrays.copyOf(logger, capacity);
+            plugin = Arrays.copyOf(plugin, capacity);
+            offset = Arrays.copyOf(offset, capacity);
+            length = Arrays.copyOf(length, capacity);
+            messageStart = Arrays.copyOf(messageStart, capacity);
+        }
+
+        if (charCount > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(charCount, Math.min(chars.length * 2, maxChars)));
+        }
+    }
+}
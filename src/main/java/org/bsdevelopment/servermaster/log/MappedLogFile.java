@@ -0,0 +1,278 @@
+package org.bsdevelopment.servermaster.log;
+
+import org.bsdevelopment.servermaster.Constants;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+
+/**
+ * Read-only view of a (possibly huge) log file. The file is memory-mapped and a background pass counts its
+ * lines, remembering the offset of every {@value #CHECKPOINT_INTERVAL}th line only. Reading a line seeks to
+ * the nearest checkpoint, so the memory used does not grow with the file and lines can be read while the
+ * index is still being built.
+ * <p>
+ * The file is read as it was when it was opened, lines appended later are not picked up. Reading the mapping
+ * past the end of a file that was truncated meanwhile faults with an {@link InternalError}, so the current
+ * length is checked before every read; the lines that are gone read as empty.
+ */
+public final class MappedLogFile implements Closeable {
+    private static final int REGION_BITS = 30;
+    private static final long REGION_SIZE = 1L << REGION_BITS;
+    private static final int CHECKPOINT_SHIFT = 8;
+    static final int CHECKPOINT_INTERVAL = 1 << CHECKPOINT_SHIFT;
+    /** Longer lines are cut off, the viewer could not show them anyway. */
+    public static final int MAX_LINE_BYTES = 16 * 1024;
+    private static final long PROGRESS_INTERVAL_NANOS = 100_000_000L;
+
+    private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] regions;
+    private final long size;
+
+    // Written by the indexer only, a checkpoint is always written before the line count that covers it
+    private volatile long[] checkpoints = new long[1024];
+    private volatile int lineCount;
+    private volatile boolean indexed;
+    private volatile boolean closed;
+    private volatile boolean truncated;
+
+    // Last line read, sequential reads continue from it instead of the checkpoint
+    private int cursorLine = -1;
+    private long cursorOffset;
+    private final byte[] scratch = new byte[MAX_LINE_BYTES];
+
+    private MappedLogFile(Path path, FileChannel channel, MappedByteBuffer[] regions, long size) {
+        this.path = path;
+        this.channel = channel;
+        this.regions = regions;
+        this.size = size;
+    }
+
+    /**
+     * Maps the file and starts indexing it in the background.
+     *
+     * @param onProgress called from the indexing thread with the number of lines found so far, about every
+     *                   100ms and once more when the whole file is indexed
+     */
+    public static MappedLogFile open(Path path, IntConsumer onProgress) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            var regions = new MappedByteBuffer[(int) ((size + REGION_SIZE - 1) >>> REGION_BITS)];
+            for (int i = 0; i < regions.length; i++) {
+                long start = (long) i << REGION_BITS;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, size - start));
+                regions[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+
+            var file = new MappedLogFile(path, channel, regions, size);
+            Thread.ofVirtual().name("ServerMaster-log-index").start(() -> {
+                try {
+                    file.buildIndex(onProgress);
+                } catch (RuntimeException | InternalError e) {
+                    // Truncated between the length check and the read
+                    if (!file.closed) Constants.LOGGER.log(Level.WARNING, "Failed to index " + path, e);
+                }
+            });
+            return file;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /** @return the number of lines indexed so far */
+    public int lineCount() {
+        return lineCount;
+    }
+
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * @param line a line below {@link #lineCount()}
+     * @return the line without its line break, cut off after {@value #MAX_LINE_BYTES} bytes
+     */
+    public synchronized String line(int line) {
+        if (line < 0 || line >= lineCount) throw new IndexOutOfBoundsException(line);
+
+        long end = readableEnd();
+        try {
+            return read(line, end);
+        } catch (InternalError e) {
+            // Truncated after the length check
+            markTruncated();
+            cursorLine = -1;
+            return "";
+        }
+    }
+
+    private String read(int line, long end) {
+        long offset;
+        int from;
+        if (cursorLine >= 0 && cursorLine <= line && line - cursorLine < CHECKPOINT_INTERVAL) {
+            offset = cursorOffset;
+            from = cursorLine;
+        } else {
+            offset = checkpoints[line >>> CHECKPOINT_SHIFT];
+            from = line & -CHECKPOINT_INTERVAL;
+        }
+
+        for (; from < line; from++) {
+            offset = nextLine(offset, end);
+        }
+        cursorLine = line;
+        cursorOffset = offset;
+
+        int length = 0;
+        for (long i = offset; i < end && length < MAX_LINE_BYTES; i++) {
+            byte b = byteAt(i);
+            if (b == '\n') break;
+            scratch[length++] = b;
+        }
+        if (length > 0 && scratch[length - 1] == '\r') length--;
+
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        // The mappings are released once they are no longer reachable
+        channel.close();
+    }
+
+    private void buildIndex(IntConsumer onProgress) {
+        long lastProgress = System.nanoTime();
+        int lines = 0;
+        long lineStart = 0;
+        long end = size;
+
+        for (int r = 0; r < regions.length && !closed; r++) {
+            MappedByteBuffer region = regions[r];
+            long base = (long) r << REGION_BITS;
+            end = readableEnd();
+            if (end <= base) break;
+
+            int limit = (int) Math.min(region.limit(), end - base);
+            int i = 0;
+
+            while (i < limit) {
+                int newline = -1;
+
+                // Eight bytes at a time until a newline shows up, the rest byte by byte
+                for (; i + Long.BYTES <= limit; i += Long.BYTES) {
+                    long x = region.getLong(i) ^ NEWLINES;
+                    long found = (x - LOW_BITS) & ~x & HIGH_BITS;
+                    if (found == 0) continue;
+
+                    // The lowest flag is exact, check the others byte by byte
+                    newline = i + (Long.numberOfTrailingZeros(found) >>> 3);
+                    break;
+                }
+                if (newline < 0) {
+                    for (; i < limit; i++) {
+                        if (region.get(i) == '\n') {
+                            newline = i;
+                            break;
+                        }
+                    }
+                    if (newline < 0) break;
+                }
+
+                if ((lines & (CHECKPOINT_INTERVAL - 1)) == 0) addCheckpoint(lines >>> CHECKPOINT_SHIFT, lineStart);
+                lines++;
+                lineStart = base + newline + 1;
+                i = newline + 1;
+
+                if ((lines & (CHECKPOINT_INTERVAL - 1)) == 0) {
+                    lineCount = lines;
+
+                    long now = System.nanoTime();
+                    if (now - lastProgress >= PROGRESS_INTERVAL_NANOS) {
+                        lastProgress = now;
+                        onProgress.accept(lines);
+
+                        end = readableEnd();
+                        limit = (int) Math.max(i, Math.min(limit, end - base));
+                    }
+                }
+            }
+
+            if (closed) return;
+        }
+
+        // A last line without a line break
+        if (lineStart < end) {
+            if ((lines & (CHECKPOINT_INTERVAL - 1)) == 0) addCheckpoint(lines >>> CHECKPOINT_SHIFT, lineStart);
+            lines++;
+        }
+
+        lineCount = lines;
+        indexed = true;
+        onProgress.accept(lines);
+    }
+
+    private void addCheckpoint(int index, long offset) {
+        long[] current = checkpoints;
+        if (index == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+            current[index] = offset;
+            checkpoints = current;
+        } else {
+            current[index] = offset;
+        }
+    }
+
+    private long nextLine(long offset, long end) {
+        while (offset < end && byteAt(offset) != '\n') offset++;
+        return offset + 1;
+    }
+
+    /** @return how far the mapping can be read, less than its size once the file was truncated */
+    private long readableEnd() {
+        try {
+            long length = channel.size();
+            if (length >= size) return size;
+
+            markTruncated();
+            return length;
+        } catch (IOException e) {
+            // Closed
+            return 0;
+        }
+    }
+
+    private void markTruncated() {
+        if (truncated) return;
+
+        truncated = true;
+        Constants.LOGGER.warning(() -> path + " was truncated while it was open, the lines that are gone are shown empty");
+    }
+
+    private byte byteAt(long offset) {
+        return regions[(int) (offset >>> REGION_BITS)].get((int) (offset & (REGION_SIZE - 1)));
+    }
+}
@@ -0,0 +1,20 @@
+package org.bsdevelopment.servermaster.log;
+
+/**
+ * The rules of one subscriber that matched the current line. Only valid during the handler call.
+ */
+public final class MatchSet {
+    private long mask;
+
+    void set(long mask) {
+        this.mask = mask;
+    }
+
+    public boolean has(int rule) {
+        return (mask & (1L << rule)) != 0;
+    }
+
+    public boolean isEmpty() {
+        return mask == 0;
+    }
+}
@@ -0,0 +1,79 @@
+package org.bsdevelopment.servermaster.log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The literals and patterns one {@link LogPatternEngine} subscriber wants to be told about.
+ * <p>
+ * Every rule gets an index that is later checked with {@link MatchSet#has(int)}. Literals are matched by
+ * the engine's shared automaton, patterns only run when one of their required literals was found (or
+ * always, if they have none), so the expensive part of a regex is skipped for most lines.
+ * <pre>
+ * var rules = new PatternRules();
+ * int done = rules.pattern(Pattern.compile("\\bDone \\(.*\\)!"), "Done (");
+ * int warn = rules.literal("WARN");
+ * </pre>
+ */
+public final class PatternRules {
+    static final int MAX_RULES = Long.SIZE;
+
+    private final List<Literal> literals = new ArrayList<>();
+    private final List<Regex> patterns = new ArrayList<>();
+    private int ruleCount;
+
+    public int literal(String text) {
+        return addLiteral(text, false);
+    }
+
+    public int literalIgnoreCase(String text) {
+        return addLiteral(text, true);
+    }
+
+    /**
+     * Adds a pattern that is searched for with {@link java.util.regex.Matcher#find()}.
+     *
+     * @param requiredLiterals the pattern can only match if at least one of these is in the line,
+     *                         matched case-insensitively when the pattern is {@link Pattern#CASE_INSENSITIVE}
+     */
+    public int pattern(Pattern pattern, String... requiredLiterals) {
+        boolean ignoreCase = (pattern.flags() & Pattern.CASE_INSENSITIVE) != 0;
+
+        int[] prefilters = new int[requiredLiterals.length];
+        for (int i = 0; i < requiredLiterals.length; i++) {
+            prefilters[i] = addLiteral(requiredLiterals[i], ignoreCase);
+        }
+
+        int rule = nextRule();
+        patterns.add(new Regex(rule, pattern, prefilters));
+        return rule;
+    }
+
+    List<Literal> literals() {
+        return literals;
+    }
+
+    List<Regex> patterns() {
+        return patterns;
+    }
+
+    private int addLiteral(String text, boolean ignoreCase) {
+        if (text == null || text.isEmpty()) throw new IllegalArgumentException("literal must not be empty");
+
+        int rule = nextRule();
+        literals.add(new Literal(rule, text, ignoreCase));
+        return rule;
+    }
+
+    private int nextRule() {
+        if (ruleCount == MAX_RULES) throw new IllegalStateException("A subscriber can register at most " + MAX_RULES + " rules");
+        return ruleCount++;
+    }
+
+    record Literal(int rule, String text, boolean ignoreCase) {
+    }
+
+    record Regex(int rule, Pattern pattern, int[] prefilterRules) {
+    }
+}
@@ -0,0 +1,381 @@
+package org.bsdevelopment.servermaster.log;
+
+import org.bsdevelopment.servermaster.Constants;
+import org.bsdevelopment.servermaster.instance.server.Server;
+import org.bsdevelopment.servermaster.instance.server.thread.LineBatch;
+import org.bsdevelopment.servermaster.instance.server.thread.LineView;
+import org.bsdevelopment.servermaster.instance.server.thread.ServerOutputListener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Append-only on-disk copy of everything a server session printed, including stderr and ServerMaster's own
+ * messages.
+ * <pre>
+ * sessions/20240101-120000/
+ *   00000001.seg.gz    sealed segment, compressed after rotation
+ *   00000001.idx
+ *   00000002.seg       segment being written
+ *   00000002.idx
+ * </pre>
+ * A segment is a sequence of {@code [arrivalMillis:8][stream:1][length:4][utf-8 bytes]} records. Next to it,
+ * the index holds {@code [arrivalMillis:8][offset:8]} for the first record of the segment and then at most one
+ * record per {@value #INDEX_INTERVAL_MS}ms, which is enough to seek close to any point in time.
+ * <p>
+ * Capturing a line only queues it; a background writer drains the queue every {@value #COMMIT_INTERVAL_MS}ms
+ * and writes everything that arrived in one go (group commit), so output handling never waits for the disk.
+ * Use {@link SessionLogReader} to read a session back.
+ */
+public final class SessionLog implements ServerOutputListener, AutoCloseable {
+    public static final byte STREAM_STDOUT = 0;
+    public static final byte STREAM_STDERR = 1;
+    public static final byte STREAM_SYSTEM = 2;
+    public static final int DEFAULT_SESSIONS_KEPT = 20;
+
+    static final int HEADER_BYTES = Long.BYTES + 1 + Integer.BYTES;
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final String COMPRESSED_SUFFIX = ".seg.gz";
+    static final String INDEX_SUFFIX = ".idx";
+
+    private static final long SEGMENT_BYTES = 64L * 1024 * 1024;
+    private static final long INDEX_INTERVAL_MS = 1000;
+    private static final long COMMIT_INTERVAL_MS = 50;
+    private static final long SYNC_INTERVAL_MS = 1000;
+    private static final int WRITE_BUFFER_BYTES = 1024 * 1024;
+    private static final DateTimeFormatter SESSION_NAME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    // System messages are not tied to a server, every open session records them
+    private static final Set<SessionLog> OPEN = ConcurrentHashMap.newKeySet();
+
+    private final Path directory;
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    // Writer thread state
+    private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_BYTES);
+    private final ByteBuffer indexBuffer = ByteBuffer.allocate(64 * 1024);
+    private FileChannel segment;
+    private FileChannel index;
+    private int segmentNumber;
+    private long segmentBytes;
+    private long lastIndexedMillis = Long.MIN_VALUE;
+    private long lastSync = System.currentTimeMillis();
+
+    private final AtomicLong queuedRecords = new AtomicLong();
+    private final AtomicLong writtenRecords = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+
+    private record Entry(long arrivalMillis, byte stream, byte[] bytes) {
+    }
+
+    private SessionLog(Path directory) {
+        this.directory = directory;
+        this.writer = Thread.ofVirtual().name("ServerMaster-session-log").unstarted(this::writeLoop);
+    }
+
+    /**
+     * Creates a new session directory below {@code sessionsRoot}, named after the current time. The oldest
+     * sessions are deleted first, so that {@code sessionsKept} are left including the new one.
+     */
+    public static SessionLog open(Path sessionsRoot, int sessionsKept) throws IOException {
+        prune(sessionsRoot, sessionsKept - 1);
+
+        String name = LocalDateTime.now().format(SESSION_NAME);
+        Path directory = sessionsRoot.resolve(name);
+        for (int i = 2; Files.exists(directory); i++) {
+            directory = sessionsRoot.resolve(name + "-" + i);
+        }
+        Files.createDirectories(directory);
+
+        var log = new SessionLog(directory);
+        log.openSegment(1);
+        log.writer.start();
+        OPEN.add(log);
+        return log;
+    }
+
+    /**
+     * Deletes the oldest sessions below {@code sessionsRoot} until at most {@code keep} are left. Sessions
+     * still being written are never deleted.
+     */
+    static void prune(Path sessionsRoot, int keep) {
+        if (!Files.isDirectory(sessionsRoot)) return;
+
+        List<Path> sessions;
+        try (java.util.stream.Stream<Path> s = Files.list(sessionsRoot)) {
+            // Named after their start, so the names sort oldest first
+            sessions = s.filter(Files::isDirectory).sorted().toList();
+        } catch (IOException e) {
+            Constants.LOGGER.log(Level.WARNING, "Could not list the sessions in " + sessionsRoot, e);
+            return;
+        }
+
+        Set<Path> open = new HashSet<>();
+        for (SessionLog log : OPEN) open.add(log.directory.toAbsolutePath().normalize());
+
+        for (int i = 0; i < sessions.size() - Math.max(0, keep); i++) {
+            Path session = sessions.get(i);
+            if (open.contains(session.toAbsolutePath().normalize())) continue;
+
+            try (java.util.stream.Stream<Path> s = Files.walk(session)) {
+                for (Path path : s.sorted(Comparator.reverseOrder()).toList()) Files.delete(path);
+            } catch (IOException e) {
+                Constants.LOGGER.log(Level.WARNING, "Could not delete the old session " + session, e);
+            }
+        }
+    }
+
+    /** Records a ServerMaster message in every open session. */
+    public static void recordSystem(String message) {
+        if (OPEN.isEmpty()) return;
+
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        long now = System.currentTimeMillis();
+        for (SessionLog log : OPEN) {
+            log.enqueue(now, STREAM_SYSTEM, bytes);
+        }
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    @Override
+    public void onLine(Server server, Stream stream, String line) {
+        enqueue(System.currentTimeMillis(), streamByte(stream), line.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void onLine(Server server, Stream stream, LineView line) {
+        enqueue(System.currentTimeMillis(), streamByte(stream), line.copyBytes());
+    }
+
+    @Override
+    public void onLines(Server server, LineBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            enqueue(batch.arrival(i), streamByte(batch.stream(i)), batch.copyBytes(i));
+        }
+    }
+
+    @Override
+    public void onClose(Server server) {
+        close();
+    }
+
+    /** @return records queued but not written yet */
+    public long backlog() {
+        return queuedRecords.get() - writtenRecords.get();
+    }
+
+    public long writtenRecords() {
+        return writtenRecords.get();
+    }
+
+    public long writtenBytes() {
+        return writtenBytes.get();
+    }
+
+    /** @return the number of group commits, {@link #writtenRecords()} / commits is the average group size */
+    public long commits() {
+        return commits.get();
+    }
+
+    /**
+     * Writes what is still queued, syncs and closes the session. The last segment is left uncompressed.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+
+        closed = true;
+        OPEN.remove(this);
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void enqueue(long arrivalMillis, byte stream, byte[] bytes) {
+        if (closed) return;
+
+        queue.add(new Entry(arrivalMillis, stream, bytes));
+        queuedRecords.incrementAndGet();
+    }
+
+    private static byte streamByte(Stream stream) {
+        return stream == Stream.STDERR ? STREAM_STDERR : STREAM_STDOUT;
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                boolean last = closed;
+                commit();
+                if (last) break;
+
+                LockSupport.parkNanos(COMMIT_INTERVAL_MS * 1_000_000L);
+            }
+            sync();
+        } catch (IOException e) {
+            Constants.LOGGER.log(Level.WARNING, "Session log stopped writing to " + directory, e);
+            OPEN.remove(this);
+            closed = true;
+        } finally {
+            closeQuietly(segment);
+            closeQuietly(index);
+        }
+    }
+
+    /** Writes everything queued so far (but not what arrives meanwhile), one write per full buffer. */
+    private void commit() throws IOException {
+        Entry entry;
+        boolean wrote = false;
+
+        for (long group = backlog(); group > 0 && (entry = queue.poll()) != null; group--) {
+            if (segmentBytes > 0 && segmentBytes + HEADER_BYTES + entry.bytes.length > SEGMENT_BYTES) {
+                flush();
+                rotate();
+            }
+
+            if (buffer.remaining() < HEADER_BYTES + entry.bytes.length) flush();
+
+            long offset = segmentBytes;
+            if (entry.arrivalMillis - lastIndexedMillis >= INDEX_INTERVAL_MS || lastIndexedMillis == Long.MIN_VALUE) {
+                if (indexBuffer.remaining() < 2 * Long.BYTES) flush();
+                indexBuffer.putLong(entry.arrivalMillis).putLong(offset);
+                lastIndexedMillis = entry.arrivalMillis;
+            }
+
+            if (HEADER_BYTES + entry.bytes.length > buffer.capacity()) {
+                // Huge line, write it straight through
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putLong(entry.arrivalMillis).put(entry.stream).putInt(entry.bytes.length).flip();
+                writeFully(segment, header);
+                writeFully(segment, ByteBuffer.wrap(entry.bytes));
+            } else {
+                buffer.putLong(entry.arrivalMillis).put(entry.stream).putInt(entry.bytes.length).put(entry.bytes);
+            }
+
+            segmentBytes += HEADER_BYTES + entry.bytes.length;
+            writtenBytes.addAndGet(HEADER_BYTES + entry.bytes.length);
+            writtenRecords.incrementAndGet();
+            wrote = true;
+        }
+
+        flush();
+        if (wrote) commits.incrementAndGet();
+
+        long now = System.currentTimeMillis();
+        if (wrote && now - lastSync >= SYNC_INTERVAL_MS) {
+            sync();
+            lastSync = now;
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        writeFully(segment, buffer);
+        buffer.clear();
+
+        indexBuffer.flip();
+        writeFully(index, indexBuffer);
+        indexBuffer.clear();
+    }
+
+    private void sync() throws IOException {
+        segment.force(false);
+        index.force(false);
+    }
+
+    private void rotate() throws IOException {
+        sync();
+        segment.close();
+        index.close();
+
+        Path sealed = segmentFile(directory, segmentNumber);
+        Thread.ofVirtual().name("ServerMaster-session-compress").start(() -> compress(sealed));
+
+        openSegment(segmentNumber + 1);
+    }
+
+    private void openSegment(int number) throws IOException {
+        segmentNumber = number;
+        segmentBytes = 0;
+        lastIndexedMillis = Long.MIN_VALUE;
+        segment = FileChannel.open(segmentFile(directory, number), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        index = FileChannel.open(directory.resolve(name(number) + INDEX_SUFFIX), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    private static void compress(Path segmentFile) {
+        String fileName = segmentFile.getFileName().toString();
+        String base = fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length());
+        Path target = segmentFile.resolveSibling(base + COMPRESSED_SUFFIX);
+        Path temp = segmentFile.resolveSibling(base + COMPRESSED_SUFFIX + ".tmp");
+
+        try (InputStream in = Files.newInputStream(segmentFile);
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp), 64 * 1024)) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            Constants.LOGGER.log(Level.WARNING, "Could not compress " + segmentFile, e);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+            }
+            return;
+        }
+
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(segmentFile);
+        } catch (IOException e) {
+            Constants.LOGGER.log(Level.WARNING, "Could not replace " + segmentFile + " with its compressed copy", e);
+        }
+    }
+
+    static Path segmentFile(Path directory, int number) {
+        return directory.resolve(name(number) + SEGMENT_SUFFIX);
+    }
+
+    static String name(int number) {
+        return String.format("%08d", number);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
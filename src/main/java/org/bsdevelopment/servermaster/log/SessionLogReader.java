@@ -0,0 +1,153 @@
+package org.bsdevelopment.servermaster.log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a session written by {@link SessionLog}, compressed or not. The sparse time index is used to skip
+ * straight to the segment and offset closest to the requested start time.
+ */
+public final class SessionLogReader {
+    private final Path directory;
+    private final List<Segment> segments;
+
+    @FunctionalInterface
+    public interface RecordConsumer {
+        /**
+         * @param stream one of the {@code SessionLog.STREAM_*} constants
+         * @return false to stop reading
+         */
+        boolean accept(long arrivalMillis, byte stream, String line);
+    }
+
+    private record Segment(int number, Path data, boolean compressed, long[] indexMillis, long[] indexOffsets) {
+        long firstMillis() {
+            return indexMillis.length == 0 ? Long.MAX_VALUE : indexMillis[0];
+        }
+    }
+
+    public SessionLogReader(Path directory) throws IOException {
+        this.directory = directory;
+        this.segments = loadSegments(directory);
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    /**
+     * @return the arrival time of the first record, or -1 for an empty session
+     */
+    public long startMillis() {
+        return segments.isEmpty() || segments.getFirst().indexMillis.length == 0 ? -1 : segments.getFirst().firstMillis();
+    }
+
+    /**
+     * Reads the records that arrived at or after {@code fromMillis}, in order, until the consumer returns false.
+     */
+    public void read(long fromMillis, RecordConsumer consumer) throws IOException {
+        int first = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            if (segments.get(i).firstMillis() <= fromMillis) first = i;
+        }
+
+        for (int i = first; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            long offset = i == first ? seekOffset(segment, fromMillis) : 0;
+            if (!readSegment(segment, offset, fromMillis, consumer)) return;
+        }
+    }
+
+    private static long seekOffset(Segment segment, long fromMillis) {
+        long offset = 0;
+        for (int i = 0; i < segment.indexMillis.length && segment.indexMillis[i] <= fromMillis; i++) {
+            offset = segment.indexOffsets[i];
+        }
+        return offset;
+    }
+
+    private static boolean readSegment(Segment segment, long offset, long fromMillis, RecordConsumer consumer) throws IOException {
+        InputStream raw = Files.newInputStream(segment.data);
+        if (segment.compressed) raw = new GZIPInputStream(raw, 64 * 1024);
+
+        try (var in = new DataInputStream(new BufferedInputStream(raw, 64 * 1024))) {
+            in.skipNBytes(offset);
+
+            byte[] bytes = new byte[256];
+            while (true) {
+                long arrival;
+                try {
+                    arrival = in.readLong();
+                } catch (EOFException end) {
+                    return true;
+                }
+
+                byte stream = in.readByte();
+                int length = in.readInt();
+                if (length > bytes.length) bytes = new byte[Math.max(length, bytes.length * 2)];
+                try {
+                    in.readFully(bytes, 0, length);
+                } catch (EOFException torn) {
+                    // The last record of a crashed session may be incomplete
+                    return true;
+                }
+
+                if (arrival < fromMillis) continue;
+                if (!consumer.accept(arrival, stream, new String(bytes, 0, length, StandardCharsets.UTF_8))) return false;
+            }
+        } catch (EOFException torn) {
+            return true;
+        }
+    }
+
+    private static List<Segment> loadSegments(Path directory) throws IOException {
+        var segments = new ArrayList<Segment>();
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                String name = file.getFileName().toString();
+                boolean compressed = name.endsWith(SessionLog.COMPRESSED_SUFFIX);
+                if (!compressed && !name.endsWith(SessionLog.SEGMENT_SUFFIX)) continue;
+
+                String base = name.substring(0, name.length() - (compressed ? SessionLog.COMPRESSED_SUFFIX : SessionLog.SEGMENT_SUFFIX).length());
+                int number;
+                try {
+                    number = Integer.parseInt(base);
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+
+                // While a segment is being compressed both files exist, prefer the finished original
+                if (compressed && Files.exists(SessionLog.segmentFile(directory, number))) continue;
+
+                Path indexFile = directory.resolve(base + SessionLog.INDEX_SUFFIX);
+                byte[] index = Files.exists(indexFile) ? Files.readAllBytes(indexFile) : new byte[0];
+                int entries = index.length / (2 * Long.BYTES);
+                long[] millis = new long[entries];
+                long[] offsets = new long[entries];
+                var buffer = ByteBuffer.wrap(index);
+                for (int i = 0; i < entries; i++) {
+                    millis[i] = buffer.getLong();
+                    offsets[i] = buffer.getLong();
+                }
+
+                segments.add(new Segment(number, file, compressed, millis, offsets));
+            }
+        }
+
+        segments.sort(Comparator.comparingInt(Segment::number));
+        return segments;
+    }
+}
@@ -0,0 +1,157 @@
+package org.bsdevelopment.servermaster.log;
+
+import java.util.Arrays;
+
+/**
+ * Case-insensitive trigram index over the lines of a {@link LogStore}.
+ * <p>
+ * Every (lower-cased) three character window of a line is hashed into one of a fixed number of buckets, each
+ * bucket holds the ascending line numbers that contained one of its trigrams. A query only has to intersect
+ * the buckets of its own trigrams; hash collisions just widen the candidate set, which the store verifies
+ * anyway. Evicted lines are cut off the front of the buckets, so the index never outgrows the store.
+ */
+final class TrigramIndex {
+    private static final int BUCKET_BITS = 16;
+    private static final int BUCKETS = 1 << BUCKET_BITS;
+    private static final int[] EMPTY = new int[0];
+    // An array's header, and the bucket tables: a reference and two ints per bucket
+    private static final int ARRAY_HEADER_BYTES = 16;
+    private static final long TABLE_BYTES = (long) BUCKETS * (8 + 2 * Integer.BYTES);
+
+    // Postings are line numbers relative to base, live entries of a bucket are [heads, sizes)
+    private final int[][] postings = new int[BUCKETS][];
+    private final int[] heads = new int[BUCKETS];
+    private final int[] sizes = new int[BUCKETS];
+    private long base;
+    // Allocated posting slots and lists, for memoryBytes
+    private long allocatedInts;
+    private int allocatedLists;
+
+    void clear(long base) {
+        Arrays.fill(postings, null);
+        Arrays.fill(heads, 0);
+        Arrays.fill(sizes, 0);
+        this.base = base;
+        allocatedInts = 0;
+        allocatedLists = 0;
+    }
+
+    /** @return the bytes used by the index, about four per indexed character */
+    long memoryBytes() {
+        return TABLE_BYTES + allocatedInts * Integer.BYTES + (long) allocatedLists * ARRAY_HEADER_BYTES;
+    }
+
+    /**
+     * @return false if the sequence can no longer be represented and the index has to be rebuilt
+     */
+    boolean add(long sequence, char[] chars, int offset, int length) {
+        long relative = sequence - base;
+        if (relative > Integer.MAX_VALUE) return false;
+
+        int line = (int) relative;
+        for (int i = 0; i + 2 < length; i++) {
+            int bucket = bucket(chars[offset + i], chars[offset + i + 1], chars[offset + i + 2]);
+
+            int size = sizes[bucket];
+            int[] list = postings[bucket];
+            if (size > heads[bucket] && list[size - 1] == line) continue;
+
+            if (list == null) {
+                list = postings[bucket] = new int[4];
+                allocatedInts += 4;
+                allocatedLists++;
+            } else if (size == list.length) {
+                list = postings[bucket] = Arrays.copyOf(list, size * 2);
+                allocatedInts += size;
+            }
+            list[size] = line;
+            sizes[bucket] = size + 1;
+        }
+        return true;
+    }
+
+    /** Drops every posting before {@code sequence}. */
+    void evictBefore(long sequence) {
+        int line = (int) Math.min(Math.max(sequence - base, 0), Integer.MAX_VALUE);
+
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            int[] list = postings[bucket];
+            if (list == null) continue;
+
+            int head = heads[bucket], size = sizes[bucket];
+            if (head == size || list[head] >= line) continue;
+
+            int cut = Arrays.binarySearch(list, head, size, line);
+            head = cut >= 0 ? cut : -cut - 1;
+
+            if (head == size) {
+                postings[bucket] = null;
+                allocatedInts -= list.length;
+                allocatedLists--;
+                heads[bucket] = sizes[bucket] = 0;
+            } else if (head > size / 2) {
+                // Compact once more than half of the bucket is dead
+                System.arraycopy(list, head, list, 0, size - head);
+                heads[bucket] = 0;
+                sizes[bucket] = size - head;
+            } else {
+                heads[bucket] = head;
+            }
+        }
+    }
+
+    /**
+     * @param needle at least three characters
+     * @return the ascending sequence numbers of all lines that may contain {@code needle} (ignoring case)
+     */
+    long[] candidates(String needle) {
+        int trigrams = needle.length() - 2;
+        int[] buckets = new int[trigrams];
+        for (int i = 0; i < trigrams; i++) {
+            buckets[i] = bucket(needle.charAt(i), needle.charAt(i + 1), needle.charAt(i + 2));
+        }
+
+        // Intersect the smallest buckets first, every distinct bucket only once
+        buckets = Arrays.stream(buckets).distinct().boxed()
+                .sorted((a, b) -> Integer.compare(sizes[a] - heads[a], sizes[b] - heads[b]))
+                .mapToInt(Integer::intValue).toArray();
+
+        int[] result = slice(buckets[0]);
+        int count = result.length;
+        for (int i = 1; i < buckets.length && count > 0; i++) {
+            count = intersect(result, count, postings[buckets[i]], heads[buckets[i]], sizes[buckets[i]]);
+        }
+
+        long[] sequences = new long[count];
+        for (int i = 0; i < count; i++) {
+            sequences[i] = base + result[i];
+        }
+        return sequences;
+    }
+
+    private int[] slice(int bucket) {
+        if (postings[bucket] == null) return EMPTY;
+        return Arrays.copyOfRange(postings[bucket], heads[bucket], sizes[bucket]);
+    }
+
+    /** Keeps the entries of {@code into[0, count)} that also are in {@code other[from, to)}. */
+    private static int intersect(int[] into, int count, int[] other, int from, int to) {
+        if (other == null) return 0;
+
+        int kept = 0, j = from;
+        for (int i = 0; i < count && j < to; i++) {
+            int value = into[i];
+            while (j < to && other[j] < value) j++;
+            if (j < to && other[j] == value) into[kept++] = value;
+        }
+        return kept;
+    }
+
+    private static int bucket(char a, char b, char c) {
+        int hash = Character.toLowerCase(a);
+        hash = hash * 0x9E3779B1 + Character.toLowerCase(b);
+        hash = hash * 0x9E3779B1 + Character.toLowerCase(c);
+        hash *= 0x9E3779B1;
+        return hash >>> (Integer.SIZE - BUCKET_BITS);
+    }
+}
@@ -1,7 +1,6 @@
 package org.bsdevelopment.servermaster.ui;
 
 import atlantafx.base.theme.Styles;
-import javafx.application.Platform;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.geometry.Insets;
@@ -9,8 +8,11 @@ import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.control.MenuButton;
+import javafx.scene.control.MenuItem;
 import javafx.scene.control.Separator;
 import javafx.scene.control.TextField;
+import javafx.scene.control.Tooltip;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.BorderPane;
@@ -19,22 +21,36 @@ import javafx.scene.layout.Priority;
 import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
+import javafx.stage.DirectoryChooser;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
 import org.bsdevelopment.servermaster.LogViewer;
 import org.bsdevelopment.servermaster.ServerMasterApp;
+import org.bsdevelopment.servermaster.components.ConsoleSearchBar;
 import org.bsdevelopment.servermaster.components.ServerSelection;
 import org.bsdevelopment.servermaster.components.ServerSelectionPane;
 import org.bsdevelopment.servermaster.components.TopBar;
+import org.bsdevelopment.servermaster.config.AppSettings;
 import org.bsdevelopment.servermaster.config.SettingsService;
+import org.bsdevelopment.servermaster.instance.server.ServerBuilder;
 import org.bsdevelopment.servermaster.instance.server.ServerHandlerAPI;
-import org.bsdevelopment.servermaster.instance.server.thread.ServerOutputListener;
+import org.bsdevelopment.servermaster.instance.server.thread.ConsoleRecorder;
+import org.bsdevelopment.servermaster.instance.server.thread.ConsoleReplay;
+import org.bsdevelopment.servermaster.log.LogPatternEngine;
+import org.bsdevelopment.servermaster.ui.dialog.LogAnalyticsDialog;
 import org.bsdevelopment.servermaster.ui.dialog.ServerInstallerDialog;
 import org.bsdevelopment.servermaster.ui.dialog.SettingsDialog;
+import org.bsdevelopment.servermaster.ui.dialog.TopExceptionsDialog;
 import org.bsdevelopment.servermaster.ui.window.WindowSurface;
 import org.bsdevelopment.servermaster.utils.FX;
+import org.bsdevelopment.servermaster.utils.MemoryUnit;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
 import java.util.List;
 
 public final class MainWindow {
@@ -42,11 +58,11 @@ public final class MainWindow {
     private final Stage stage;
     private final LogViewer console;
     private final BooleanProperty serverRunning = new SimpleBooleanProperty(false);
+    private final BooleanProperty replaying = new SimpleBooleanProperty(false);
     private ServerSelectionPane serverSelection;
     private Button stopButton;
     private Button restartButton;
     private Button forceStopButton;
-    private volatile boolean restartPending;
     private int historyIndex = -1;
     private String historyDraft = "";
 
@@ -55,9 +71,11 @@ public final class MainWindow {
         stage.initStyle(StageStyle.TRANSPARENT);
         stage.setTitle("ServerMaster");
 
-        serverRunning.set(ServerMasterApp.serverWrapper().isServerRunning());
-
+        var settings = SettingsService.get();
         console = new LogViewer();
+        console.setLimits(settings.getConsoleMaxLines(), settings.getConsoleMaxMemoryMb() * MemoryUnit.MEGABYTE.getUnitSize());
+        console.setHistoryLimit(settings.getConsoleHistoryMb() * MemoryUnit.MEGABYTE.getUnitSize());
+        console.setFloodThreshold(settings.getConsoleFloodLinesPerSecond());
         LogViewer.registerActive(console);
 
         var content = new BorderPane();
@@ -83,7 +101,7 @@ public final class MainWindow {
         stage.setScene(scene);
         stage.focusedProperty().addListener((obs, wasFocused, isFocused) -> {
             if (isFocused) {
-                serverRunning.set(ServerMasterApp.serverWrapper().isServerRunning());
+                serverRunning.set(ServerMasterApp.serverWrapper().isServerRunning(serverSelection.getActiveInstanceId()));
             }
         });
     }
@@ -92,19 +110,20 @@ public final class MainWindow {
         var header = new Label("ServerMaster");
         header.getStyleClass().addAll(Styles.TITLE_3);
 
-        ServerOutputListener outputListener = (server, stream, line) -> Platform.runLater(() -> console.appendLine(line));
-        serverSelection = new ServerSelectionPane(selection, serverRunning, outputListener,
-                () -> {
+        // LogViewer queues lines itself and renders them once per frame, no FX hop needed here
+        serverSelection = new ServerSelectionPane(selection, serverRunning, console::attach,
+                message -> {
                     console.clearConsole();
-                    console.appendSystemMessage("Starting server...");
+                    console.appendSystemMessage(message);
                 }
         );
 
+        // Settings apply to the next start and installs go into the catalog, neither touches a running server
         var locked = ServerMasterApp.applicationLockedProperty();
         var installer = new Button("Server Installer");
         installer.getStyleClass().addAll(Styles.BUTTON_OUTLINED);
         installer.setMaxWidth(Double.MAX_VALUE);
-        installer.disableProperty().bind(serverRunning.or(locked));
+        installer.disableProperty().bind(locked);
         installer.setOnAction(e -> {
             try {
                 new ServerInstallerDialog(stage).show();
@@ -116,13 +135,30 @@ public final class MainWindow {
         var settings = new Button("Settings");
         settings.getStyleClass().addAll(Styles.BUTTON_OUTLINED);
         settings.setMaxWidth(Double.MAX_VALUE);
-        settings.disableProperty().bind(serverRunning.or(locked));
+        settings.disableProperty().bind(locked);
         settings.setOnAction(e -> new SettingsDialog(stage).show());
 
+        var replay = new MenuButton("Replay Recording");
+        replay.getStyleClass().addAll(Styles.BUTTON_OUTLINED);
+        replay.setMaxWidth(Double.MAX_VALUE);
+        // A replay takes over the console, which the running servers write to
+        replay.disableProperty().bind(serverSelection.anyServerRunning().or(replaying).or(locked));
+        replay.getItems().addAll(
+                replayItem("At recorded speed", 1),
+                replayItem("10x faster", 10),
+                replayItem("As fast as possible", ConsoleReplay.MAX_SPEED)
+        );
+
+        var sessions = new Button("Previous Sessions");
+        sessions.getStyleClass().addAll(Styles.BUTTON_OUTLINED);
+        sessions.setMaxWidth(Double.MAX_VALUE);
+        sessions.disableProperty().bind(replaying.or(locked));
+        sessions.setOnAction(e -> openSession());
+
         var spacer = new Region();
         VBox.setVgrow(spacer, Priority.ALWAYS);
 
-        var box = new VBox(10, header, serverSelection, new Separator(), spacer, installer, settings);
+        var box = new VBox(10, header, serverSelection, new Separator(), spacer, sessions, replay, installer, settings);
         box.setPadding(new Insets(14));
         box.setPrefWidth(280);
         box.setAlignment(Pos.TOP_CENTER);
@@ -153,7 +189,39 @@ public final class MainWindow {
         forceStopButton.setOnAction(e -> forceStopServer());
         restartButton.setOnAction(e -> restartServer());
 
-        topButtons.getChildren().addAll(stopButton, restartButton, forceStopButton);
+        var searchBar = new ConsoleSearchBar(console);
+        HBox.setHgrow(searchBar, Priority.ALWAYS);
+
+        var historyButton = new Button("HISTORY");
+        historyButton.getStyleClass().addAll(Styles.BUTTON_OUTLINED);
+        var historyTip = new Tooltip();
+        historyTip.setOnShowing(e -> historyTip.setText(console.historySummary()));
+        historyButton.setTooltip(historyTip);
+        historyButton.setOnAction(e -> {
+            if (console.isShowingLines()) {
+                console.closeFile();
+            } else {
+                console.showHistory();
+            }
+        });
+
+        var exceptionsButton = new Button("EXCEPTIONS");
+        exceptionsButton.getStyleClass().addAll(Styles.BUTTON_OUTLINED);
+        exceptionsButton.setOnAction(e -> new TopExceptionsDialog(stage, console.getExceptions()).show());
+
+        var analyticsButton = new Button("ANALYTICS");
+        analyticsButton.getStyleClass().addAll(Styles.BUTTON_OUTLINED);
+        analyticsButton.setTooltip(new Tooltip("Statistics of the archived logs (logs/*.log.gz) of the selected server"));
+        analyticsButton.setOnAction(e -> {
+            var analytics = serverSelection.logAnalytics();
+            if (analytics == null) {
+                console.appendSystemMessage("Start or attach to a server first, its archived logs are analysed");
+                return;
+            }
+            new LogAnalyticsDialog(stage, analytics).show();
+        });
+
+        topButtons.getChildren().addAll(searchBar, historyButton, exceptionsButton, analyticsButton, stopButton, restartButton, forceStopButton);
 
         var consoleBox = new VBox(10, topButtons, console);
         consoleBox.setPadding(new Insets(14));
@@ -174,7 +242,8 @@ public final class MainWindow {
             cmd = cmd.trim();
             if (cmd.isBlank()) return;
 
-            if (!ServerMasterApp.serverWrapper().isServerRunning()) {
+            String instanceId = serverSelection.getActiveInstanceId();
+            if (!ServerMasterApp.serverWrapper().isServerRunning(instanceId)) {
                 console.appendStyledLine("Unable to send command when a server is not running.", "log-fatal");
                 return;
             }
@@ -187,7 +256,7 @@ public final class MainWindow {
             historyDraft = "";
 
             commandField.clear();
-            ServerHandlerAPI.sendServerCommand(cmd);
+            ServerHandlerAPI.sendServerCommand(instanceId, cmd);
         };
 
         commandField.setOnAction(e -> sendCommand.run());
@@ -261,42 +330,103 @@ public final class MainWindow {
         SettingsService.save();
     }
 
+    private MenuItem replayItem(String text, double speed) {
+        var item = new MenuItem(text);
+        item.setOnAction(e -> replayRecording(speed));
+        return item;
+    }
+
+    /**
+     * Feeds a console recording (see the console-record-output setting) through the output pipeline into the
+     * console, to measure how it copes with real traffic.
+     */
+    private void replayRecording(double speed) {
+        var chooser = new FileChooser();
+        chooser.setTitle("Select a Console Recording");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Console recordings", "*.rec"));
+        Path serverPath = SettingsService.get().getServerPath();
+        if (serverPath != null && Files.isDirectory(serverPath.resolve("runtime"))) {
+            chooser.setInitialDirectory(serverPath.resolve("runtime").toFile());
+        }
+
+        File file = chooser.showOpenDialog(stage);
+        if (file == null) return;
+
+        replaying.set(true);
+        console.clearConsole();
+        console.appendSystemMessage("Replaying " + file + (speed == ConsoleReplay.MAX_SPEED ? " as fast as possible" : " at " + (int) speed + "x") + " ...");
+
+        var engine = new LogPatternEngine();
+        console.attach(engine);
+
+        var server = new ServerBuilder(ConsoleRecorder.FILE_NAME).instanceId("replay").serverType("replay")
+                .version(file.getName()).build("").build();
+        AppSettings settings = SettingsService.get();
+        console.resetFrameTimes();
+        new ConsoleReplay(server, file.toPath(), speed, settings.getConsoleBatchWindowMs(), settings.getConsoleBatchMaxLines(), engine,
+                console::whenRendered, stats -> {
+            // Called on the FX thread, once the console rendered the last line
+            LogViewer.FrameTimes frames = console.frameTimes();
+            LogViewer.system(String.format(Locale.ROOT,
+                    "Replayed %,d lines (%,d KB) in %.2fs, recorded over %.2fs: %,.0f lines/s, %.1f%% of the time on listener CPU, "
+                            + "backlog peak %,d lines, %,d KB spilled; %,d frames rendered in %.2f ms on average, %.2f ms at most, %,d dropped",
+                    stats.lines(), stats.bytes() / 1024, stats.replayNanos() / 1e9, stats.recordedNanos() / 1e9, stats.linesPerSecond(),
+                    stats.replayNanos() == 0 ? 0 : 100.0 * stats.listenerNanos() / stats.replayNanos(),
+                    stats.peakBacklog(), stats.spilledBytes() / 1024,
+                    frames.frames(), frames.averageRenderMillis(), frames.maxRenderNanos() / 1e6, frames.droppedFrames()));
+            replaying.set(false);
+        });
+    }
+
+    /**
+     * Shows a session log of an earlier start instead of the console, HISTORY goes back to the console.
+     */
+    private void openSession() {
+        var chooser = new DirectoryChooser();
+        chooser.setTitle("Select a Session");
+        String instanceId = serverSelection.getActiveInstanceId();
+        if (instanceId != null) {
+            Path sessionsDirectory = ServerMasterApp.serverWrapper().instanceDirectory(instanceId).sessionsDirectory();
+            if (Files.isDirectory(sessionsDirectory)) chooser.setInitialDirectory(sessionsDirectory.toFile());
+        }
+
+        File directory = chooser.showDialog(stage);
+        if (directory == null) return;
+
+        try {
+            console.loadSession(directory.toPath());
+        } catch (IOException e) {
+            console.appendSystemMessage("Could not open the session " + directory + ": " + e.getMessage());
+        }
+    }
+
     private void stopServer() {
         if (!serverRunning.get()) return;
         console.appendSystemMessage("Sending /stop ...");
-        ServerHandlerAPI.stopServer();
+        ServerHandlerAPI.stopServer(serverSelection.getActiveInstanceId());
     }
 
     private void forceStopServer() {
         if (!serverRunning.get()) return;
         console.appendSystemMessage("Force stopping server ...");
-        restartPending = false;
-        ServerHandlerAPI.killServer();
+        String instanceId = serverSelection.getActiveInstanceId();
+        serverSelection.cancelRestart(instanceId);
+        ServerHandlerAPI.killServer(instanceId);
     }
 
     private void restartServer() {
         if (!serverRunning.get()) return;
-        console.appendSystemMessage("Restart requested ...");
-
-        restartPending = true;
-        attachRestartCallback();
-        ServerHandlerAPI.stopServer();
-    }
 
-    private void attachRestartCallback() {
-        var wrapper = ServerMasterApp.serverWrapper();
-        var server = wrapper != null ? wrapper.getServer() : null;
-        if (server == null || server.getThread() == null) return;
-
-        server.getThread().setServerStopCallback((s, code) -> {
-            if (!restartPending) return;
+        String instanceId = serverSelection.getActiveInstanceId();
+        var server = ServerMasterApp.serverWrapper().getServer(instanceId).orElse(null);
+        if (server != null && server.getTailer() != null) {
+            // Whatever started the server decides whether it comes back after a stop
+            console.appendSystemMessage("An attached server can not be restarted from here, use STOP and let its service manager start it again");
+            return;
+        }
+        console.appendSystemMessage("Restart requested ...");
 
-            restartPending = false;
-            Platform.runLater(() -> {
-                console.appendSystemMessage("Starting server again ...");
-                serverSelection.startSelectedServer();
-            });
-        });
+        serverSelection.restartServer(instanceId);
     }
 
     public void show() {
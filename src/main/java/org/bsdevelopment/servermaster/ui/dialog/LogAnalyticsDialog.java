@@ -0,0 +1,190 @@
+package org.bsdevelopment.servermaster.ui.dialog;
+
+import atlantafx.base.theme.Styles;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.FXCollections;
+import javafx.concurrent.Task;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
+import javafx.stage.Stage;
+import javafx.stage.StageStyle;
+import org.bsdevelopment.servermaster.instance.server.thread.ProcessIO;
+import org.bsdevelopment.servermaster.log.LogArchiveAnalytics;
+import org.bsdevelopment.servermaster.log.LogArchiveAnalytics.ArchiveStats;
+import org.bsdevelopment.servermaster.log.LogArchiveAnalytics.Report;
+import org.bsdevelopment.servermaster.log.LogLevel;
+import org.bsdevelopment.servermaster.ui.window.WindowButtons;
+import org.bsdevelopment.servermaster.ui.window.WindowSurface;
+import org.bsdevelopment.servermaster.utils.FX;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Statistics of a server's archived logs, one row per archive. The archives are indexed in the background
+ * when the dialog opens.
+ */
+public final class LogAnalyticsDialog {
+    private final Stage stage;
+    private final LogArchiveAnalytics analytics;
+    private final TableView<ArchiveStats> table = createTable();
+    private final Label summary = new Label("Reading archives ...");
+    private final Button exceptionsBtn = new Button("Top Exceptions");
+    private Report report;
+
+    public LogAnalyticsDialog(Stage owner, LogArchiveAnalytics analytics) {
+        this.analytics = analytics;
+
+        stage = new Stage();
+        stage.initOwner(owner);
+        stage.initStyle(StageStyle.TRANSPARENT);
+        stage.setTitle("Log Analytics");
+
+        var windowButtons = new WindowButtons(stage, false);
+        windowButtons.setStyle("-fx-background-color: transparent;");
+
+        var title = new Label("Log Analytics");
+        title.getStyleClass().addAll(Styles.TITLE_3);
+
+        var folder = new Label(analytics.logsDirectory().toAbsolutePath().toString());
+        folder.getStyleClass().addAll(Styles.TEXT_MUTED);
+        summary.getStyleClass().addAll(Styles.TEXT_MUTED);
+
+        exceptionsBtn.getStyleClass().addAll(Styles.BUTTON_OUTLINED);
+        exceptionsBtn.setDisable(true);
+        exceptionsBtn.setOnAction(e -> new TopExceptionsDialog(stage, report.exceptions()).show());
+
+        var closeBtn = new Button("Close");
+        closeBtn.getStyleClass().addAll(Styles.BUTTON_OUTLINED, Styles.DANGER);
+        closeBtn.setOnAction(e -> stage.close());
+
+        var footer = new HBox(10, closeBtn, spacer(), exceptionsBtn);
+        footer.setAlignment(Pos.CENTER_LEFT);
+
+        var content = new VBox(10, title, folder, summary, table, footer);
+        content.setPadding(new Insets(10, 16, 16, 16));
+        VBox.setVgrow(table, Priority.ALWAYS);
+
+        var surface = new WindowSurface();
+        surface.getStyleClass().add("dialog");
+        surface.setTop(windowButtons);
+        surface.setCenter(content);
+        BorderPane.setMargin(windowButtons, new Insets(6, 6, 0, 6));
+
+        var scene = new Scene(surface, 900, 520);
+        scene.setFill(Color.TRANSPARENT);
+        FX.addStyleSheet(scene);
+
+        stage.setScene(scene);
+    }
+
+    public void show() {
+        stage.show();
+        stage.centerOnScreen();
+        load();
+    }
+
+    private void load() {
+        var task = new Task<Report>() {
+            @Override
+            protected Report call() throws Exception {
+                return analytics.analyze();
+            }
+        };
+
+        task.setOnSucceeded(e -> {
+            report = task.getValue();
+            table.getItems().setAll(report.archives());
+            summary.setText(summarize(report));
+            exceptionsBtn.setDisable(false);
+        });
+
+        task.setOnFailed(e -> {
+            Throwable ex = task.getException();
+            summary.setText("Could not read the archives: " + (ex == null ? "Unknown error" : ex.getMessage()));
+        });
+
+        ProcessIO.execute("servermaster-log-analytics", task);
+    }
+
+    private static String summarize(Report report) {
+        if (report.archives().isEmpty()) return "No archived logs yet";
+
+        long[] startups = report.startupMillis();
+        String text = String.format(Locale.ROOT, "%d archives, %,d lines, %,d warnings, %,d errors, %d launches",
+                report.archives().size(), report.lines(), report.count(LogLevel.WARN),
+                report.count(LogLevel.ERROR) + report.count(LogLevel.FATAL), startups.length);
+
+        if (startups.length > 0) {
+            long[] sorted = startups.clone();
+            Arrays.sort(sorted);
+            text += String.format(Locale.ROOT, ", startup median %s (%s to %s)",
+                    seconds(sorted[sorted.length / 2]), seconds(sorted[0]), seconds(sorted[sorted.length - 1]));
+        }
+        return text + " - " + report.parsed() + " read, " + (report.archives().size() - report.parsed()) + " from the index";
+    }
+
+    private static String seconds(long millis) {
+        return String.format(Locale.ROOT, "%.1fs", millis / 1000.0);
+    }
+
+    private static TableView<ArchiveStats> createTable() {
+        var table = new TableView<ArchiveStats>(FXCollections.observableArrayList());
+        table.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY_FLEX_LAST_COLUMN);
+        table.setPlaceholder(new Label("No archived logs"));
+
+        var fileCol = new TableColumn<ArchiveStats, String>("Archive");
+        fileCol.setMinWidth(180);
+        fileCol.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().fileName()));
+
+        var linesCol = new TableColumn<ArchiveStats, Long>("Lines");
+        linesCol.setMinWidth(80);
+        linesCol.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().lines()));
+
+        var infoCol = new TableColumn<ArchiveStats, Long>("Info");
+        infoCol.setMinWidth(70);
+        infoCol.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().count(LogLevel.INFO)));
+
+        var warnCol = new TableColumn<ArchiveStats, Long>("Warn");
+        warnCol.setMinWidth(70);
+        warnCol.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().count(LogLevel.WARN)));
+
+        var errorCol = new TableColumn<ArchiveStats, Long>("Error");
+        errorCol.setMinWidth(70);
+        errorCol.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().count(LogLevel.ERROR) + c.getValue().count(LogLevel.FATAL)));
+
+        var exceptionCol = new TableColumn<ArchiveStats, Long>("Exceptions");
+        exceptionCol.setMinWidth(90);
+        exceptionCol.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().exceptionCount()));
+
+        var startupCol = new TableColumn<ArchiveStats, String>("Startup per launch");
+        startupCol.setCellValueFactory(c -> {
+            var text = new StringBuilder();
+            for (long millis : c.getValue().startupMillis()) {
+                if (!text.isEmpty()) text.append(", ");
+                text.append(seconds(millis));
+            }
+            return new ReadOnlyObjectWrapper<>(text.toString());
+        });
+
+        table.getColumns().addAll(fileCol, linesCol, infoCol, warnCol, errorCol, exceptionCol, startupCol);
+        return table;
+    }
+
+    private static Region spacer() {
+        var r = new Region();
+        HBox.setHgrow(r, Priority.ALWAYS);
+        return r;
+    }
+}
@@ -20,7 +20,8 @@ import org.bsdevelopment.servermaster.LogViewer;
 import org.bsdevelopment.servermaster.ServerMasterApp;
 import org.bsdevelopment.servermaster.config.AppSettings;
 import org.bsdevelopment.servermaster.config.SettingsService;
-import org.bsdevelopment.servermaster.instance.InstanceCatalog;
+import org.bsdevelopment.servermaster.instance.JarStore;
+import org.bsdevelopment.servermaster.instance.server.thread.ProcessIO;
 import org.bsdevelopment.servermaster.ui.window.WindowButtons;
 import org.bsdevelopment.servermaster.ui.window.WindowSurface;
 import org.bsdevelopment.servermaster.utils.BackendApiService;
@@ -39,8 +40,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
@@ -244,15 +247,14 @@ public final class ServerInstallerDialog {
                         StandardCopyOption.REPLACE_EXISTING,
                         StandardCopyOption.COPY_ATTRIBUTES);
 
+                ServerMasterApp.instanceCatalog.jarStore().add(outJar);
                 LogViewer.system("Spigot jar built: " + outJar.getFileName());
                 return null;
             }
         };
 
-        task.setOnSucceeded(e -> {
-            ServerMasterApp.unlockApplication();
-            ServerMasterApp.instanceCatalog = new InstanceCatalog(SettingsService.get().getServerPath());
-        });
+        // The catalog watches instance/ and picks the new jar up by itself
+        task.setOnSucceeded(e -> ServerMasterApp.unlockApplication());
 
         task.setOnFailed(e -> {
             ServerMasterApp.unlockApplication();
@@ -262,9 +264,7 @@ public final class ServerInstallerDialog {
 
         task.setOnCancelled(e -> ServerMasterApp.unlockApplication());
 
-        var thread = new Thread(task, "servermaster-buildtools");
-        thread.setDaemon(true);
-        thread.start();
+        ProcessIO.execute("servermaster-buildtools", task);
     }
 
     private void downloadBuildTools(Path targetJar) throws IOException, InterruptedException {
@@ -348,9 +348,13 @@ public final class ServerInstallerDialog {
                 }
 
                 long contentLength = connection.getContentLengthLong();
+                // Hashed while downloading, so the jar store does not have to read the jar again
+                var digest = JarStore.newDigest();
+                // Never written in place, the jar may be a hard link shared with running servers
+                var part = file.resolveSibling(fileName + ".part");
 
                 try (var in = new BufferedInputStream(connection.getInputStream());
-                     var out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                     var out = new DigestOutputStream(Files.newOutputStream(part, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), digest)) {
 
                     byte[] buf = new byte[64 * 1024];
                     long readTotal = 0;
@@ -372,6 +376,14 @@ public final class ServerInstallerDialog {
                     connection.disconnect();
                 }
 
+                if (isCancelled()) {
+                    Files.deleteIfExists(part);
+                } else {
+                    Files.move(part, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    JarStore store = ServerMasterApp.instanceCatalog.jarStore();
+                    store.remember(file, HexFormat.of().formatHex(digest.digest()));
+                    store.add(file);
+                }
                 return null;
             }
         };
@@ -390,8 +402,6 @@ public final class ServerInstallerDialog {
             alert.setHeaderText("Install Complete");
             alert.setContentText("Install has been completed for '" + fileName + "'");
             alert.show();
-
-            ServerMasterApp.instanceCatalog = new InstanceCatalog(SettingsService.get().getServerPath());
         });
 
         task.setOnFailed(e -> {
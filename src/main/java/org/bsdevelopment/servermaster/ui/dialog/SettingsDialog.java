@@ -23,7 +23,6 @@ import javafx.stage.StageStyle;
 import org.bsdevelopment.servermaster.Constants;
 import org.bsdevelopment.servermaster.ServerMasterApp;
 import org.bsdevelopment.servermaster.config.SettingsService;
-import org.bsdevelopment.servermaster.instance.InstanceCatalog;
 import org.bsdevelopment.servermaster.ui.window.WindowButtons;
 import org.bsdevelopment.servermaster.ui.window.WindowSurface;
 import org.bsdevelopment.servermaster.utils.AdvString;
@@ -137,7 +136,7 @@ public final class SettingsDialog {
             SettingsService.get().setJavaPath(Path.of(javaPath.getText()));
             SettingsService.save();
 
-            ServerMasterApp.instanceCatalog = new InstanceCatalog(SettingsService.get().getServerPath());
+            ServerMasterApp.reloadInstanceCatalog();
             saved[0] = true;
 
             stage.close();
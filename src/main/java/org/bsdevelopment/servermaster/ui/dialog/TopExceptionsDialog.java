@@ -0,0 +1,165 @@
+package org.bsdevelopment.servermaster.ui.dialog;
+
+import atlantafx.base.theme.Styles;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.FXCollections;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableRow;
+import javafx.scene.control.TableView;
+import javafx.scene.control.Tooltip;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
+import javafx.stage.Stage;
+import javafx.stage.StageStyle;
+import javafx.util.Duration;
+import org.bsdevelopment.servermaster.log.ExceptionAggregator;
+import org.bsdevelopment.servermaster.log.ExceptionAggregator.ExceptionStats;
+import org.bsdevelopment.servermaster.ui.window.WindowButtons;
+import org.bsdevelopment.servermaster.ui.window.WindowSurface;
+import org.bsdevelopment.servermaster.utils.FX;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Live table of the exceptions seen in the console, most frequent first. Refreshes every second while open.
+ */
+public final class TopExceptionsDialog {
+    private static final int LIMIT = 100;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private final Stage stage;
+    private final ExceptionAggregator exceptions;
+    private final TableView<ExceptionStats> table = createTable();
+    private final Label summary = new Label();
+    private final Timeline refresh = new Timeline(new KeyFrame(Duration.seconds(1), e -> refresh()));
+
+    public TopExceptionsDialog(Stage owner, ExceptionAggregator exceptions) {
+        this.exceptions = exceptions;
+
+        stage = new Stage();
+        stage.initOwner(owner);
+        stage.initStyle(StageStyle.TRANSPARENT);
+        stage.setTitle("Top Exceptions");
+
+        var windowButtons = new WindowButtons(stage, false);
+        windowButtons.setStyle("-fx-background-color: transparent;");
+
+        var title = new Label("Top Exceptions");
+        title.getStyleClass().addAll(Styles.TITLE_3);
+
+        summary.getStyleClass().addAll(Styles.TEXT_MUTED);
+
+        var clearBtn = new Button("Reset");
+        clearBtn.getStyleClass().addAll(Styles.BUTTON_OUTLINED);
+        clearBtn.setOnAction(e -> {
+            exceptions.clear();
+            refresh();
+        });
+
+        var closeBtn = new Button("Close");
+        closeBtn.getStyleClass().addAll(Styles.BUTTON_OUTLINED, Styles.DANGER);
+        closeBtn.setOnAction(e -> stage.close());
+
+        var footer = new HBox(10, closeBtn, spacer(), clearBtn);
+        footer.setAlignment(Pos.CENTER_LEFT);
+
+        var content = new VBox(10, title, summary, table, footer);
+        content.setPadding(new Insets(10, 16, 16, 16));
+        VBox.setVgrow(table, Priority.ALWAYS);
+
+        var surface = new WindowSurface();
+        surface.getStyleClass().add("dialog");
+        surface.setTop(windowButtons);
+        surface.setCenter(content);
+        BorderPane.setMargin(windowButtons, new Insets(6, 6, 0, 6));
+
+        var scene = new Scene(surface, 1000, 560);
+        scene.setFill(Color.TRANSPARENT);
+        FX.addStyleSheet(scene);
+
+        stage.setScene(scene);
+        refresh.setCycleCount(Animation.INDEFINITE);
+        stage.setOnHidden(e -> refresh.stop());
+    }
+
+    public void show() {
+        refresh();
+        refresh.play();
+        stage.show();
+        stage.centerOnScreen();
+    }
+
+    private void refresh() {
+        table.getItems().setAll(exceptions.top(LIMIT));
+        summary.setText(exceptions.total() + " exceptions, " + exceptions.distinct() + " distinct");
+    }
+
+    private static TableView<ExceptionStats> createTable() {
+        var table = new TableView<ExceptionStats>(FXCollections.observableArrayList());
+        table.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY_FLEX_LAST_COLUMN);
+        table.setPlaceholder(new Label("No exceptions so far"));
+
+        var countCol = new TableColumn<ExceptionStats, Long>("Count");
+        countCol.setMinWidth(70);
+        countCol.setMaxWidth(90);
+        countCol.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().count()));
+
+        var typeCol = new TableColumn<ExceptionStats, String>("Exception");
+        typeCol.setMinWidth(220);
+        typeCol.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().type()));
+
+        var frameCol = new TableColumn<ExceptionStats, String>("Thrown at");
+        frameCol.setMinWidth(260);
+        frameCol.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(
+                c.getValue().topFrames().isEmpty() ? "" : c.getValue().topFrames().getFirst()));
+
+        var firstCol = new TableColumn<ExceptionStats, String>("First seen");
+        firstCol.setMinWidth(80);
+        firstCol.setMaxWidth(100);
+        firstCol.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(TIME.format(Instant.ofEpochMilli(c.getValue().firstSeen()))));
+
+        var lastCol = new TableColumn<ExceptionStats, String>("Last seen");
+        lastCol.setMinWidth(80);
+        lastCol.setMaxWidth(100);
+        lastCol.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(TIME.format(Instant.ofEpochMilli(c.getValue().lastSeen()))));
+
+        var messageCol = new TableColumn<ExceptionStats, String>("Last message");
+        messageCol.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().message()));
+
+        table.getColumns().addAll(countCol, typeCol, frameCol, firstCol, lastCol, messageCol);
+
+        table.setRowFactory(tv -> {
+            var row = new TableRow<ExceptionStats>();
+            row.itemProperty().addListener((obs, oldV, newV) -> {
+                if (newV == null) {
+                    row.setTooltip(null);
+                } else {
+                    row.setTooltip(new Tooltip(newV.fingerprint().replace("\n", "\n    at ")));
+                }
+            });
+            return row;
+        });
+
+        return table;
+    }
+
+    private static Region spacer() {
+        var r = new Region();
+        HBox.setHgrow(r, Priority.ALWAYS);
+        return r;
+    }
+}
@@ -40,7 +40,7 @@ public final class WindowButtons extends HBox {
         var close = circle(Color.web("#ff5f57"));
         close.setOnMouseClicked(e -> {
             try {
-                if (ServerMasterApp.serverWrapper().isServerRunning()) ServerHandlerAPI.killServer();
+                if (ServerMasterApp.serverWrapper().isAnyServerRunning()) ServerHandlerAPI.killAllServers();
                 ServerMasterApp.stopBuildToolsIfRunning();
                 onClose.run();
             }catch (Exception ignored) {}
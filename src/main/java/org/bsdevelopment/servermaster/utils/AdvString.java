@@ -85,6 +85,27 @@ public class AdvString {
         return (i == count);
     }
 
+    /**
+     * Checks if the {@param haystack} contains the {@param needle} without converting it to a String first
+     *
+     * @param haystack -- the text that is being scanned
+     * @param needle   -- the text being searched for
+     * @return true if the needle was found, else false
+     */
+    public static boolean contains(CharSequence haystack, String needle) {
+        if (haystack instanceof String string) return string.contains(needle);
+
+        int max = haystack.length() - needle.length();
+        outer:
+        for (int i = 0; i <= max; i++) {
+            for (int j = 0; j < needle.length(); j++) {
+                if (haystack.charAt(i + j) != needle.charAt(j)) continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Retrieves the text that comes after the first instance of 'needle'
      *